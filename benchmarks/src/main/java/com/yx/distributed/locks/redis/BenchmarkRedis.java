@@ -0,0 +1,69 @@
+package com.yx.distributed.locks.redis;
+
+import com.yx.distributed.locks.LockOwnership;
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import redis.embedded.RedisServer;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * 基准测试使用的Redis
+ * <ol>
+ *     <li>默认在{@code benchmark.redis.port}（6390）上启动嵌入式Redis</li>
+ *     <li>指定{@code -Dbenchmark.redis.host}时连接已有的Redis，不再启动嵌入式Redis</li>
+ *     <li>指定{@code -Dbenchmark.redis.cluster=127.0.0.1:7000,127.0.0.1:7001}时连接Redis Cluster，使用{@link RedisClusterLockManager}，
+ *     例如先用{@code redis-cli --cluster create 127.0.0.1:7000 ... 127.0.0.1:7005 --cluster-replicas 1}在本机创建3主3从的集群</li>
+ * </ol>
+ */
+class BenchmarkRedis implements AutoCloseable {
+    private final RedisServer server;
+    private final LettuceConnectionFactory connectionFactory;
+    private final boolean cluster;
+
+    BenchmarkRedis() {
+        String nodes = System.getProperty("benchmark.redis.cluster");
+        this.cluster = nodes != null;
+        if (cluster) {
+            this.server = null;
+            this.connectionFactory = new LettuceConnectionFactory(new RedisClusterConfiguration(Arrays.asList(nodes.split(","))));
+            this.connectionFactory.afterPropertiesSet();
+            this.connectionFactory.getConnection().flushDb();
+            return;
+        }
+        String host = System.getProperty("benchmark.redis.host");
+        int port = Integer.getInteger("benchmark.redis.port", 6390);
+        if (host == null) {
+            this.server = RedisServer.builder().port(port).setting("save \"\"").build();
+            this.server.start();
+            host = "127.0.0.1";
+        } else {
+            this.server = null;
+        }
+        this.connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(host, port));
+        this.connectionFactory.afterPropertiesSet();
+        this.connectionFactory.getConnection().flushDb();
+    }
+
+    LettuceConnectionFactory getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    /**
+     * 按连接的Redis创建锁管理器，集群时使用{@link RedisClusterLockManager}
+     */
+    RedisSingleNodeLockManager createLockManager(String namePrefix, Duration leaseTime, LockOwnership ownership) {
+        return cluster ? new RedisClusterLockManager(namePrefix, leaseTime, ownership, connectionFactory) :
+                new RedisSingleNodeLockManager(namePrefix, leaseTime, ownership, connectionFactory);
+    }
+
+    @Override
+    public void close() {
+        connectionFactory.destroy();
+        if (server != null) {
+            server.stop();
+        }
+    }
+}
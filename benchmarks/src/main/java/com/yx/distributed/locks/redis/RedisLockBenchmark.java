@@ -0,0 +1,107 @@
+package com.yx.distributed.locks.redis;
+
+import com.yx.distributed.locks.Lock;
+import com.yx.distributed.locks.LockOwnership;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link RedisSingleNodeLockManager}的加锁/解锁吞吐量
+ * <ol>
+ *     <li>uncontended: 每个线程使用各自的锁，没有竞争</li>
+ *     <li>contended: 所有线程竞争同一把锁，{@code nodes}个锁管理器模拟多个应用实例，线程平均分配到各个锁管理器</li>
+ *     <li>distinctKeys: 每次加锁使用不同的锁名称，覆盖锁的注册开销</li>
+ * </ol>
+ * Usage: mvn -pl benchmarks -am package && java -jar benchmarks/target/benchmarks.jar RedisLockBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RedisLockBenchmark {
+    private static final Duration LeaseTime = Duration.ofSeconds(30);
+    private static final int DistinctKeys = 10_000;
+
+    @State(org.openjdk.jmh.annotations.Scope.Benchmark)
+    public static class Managers {
+        @Param({"1", "4"})
+        public int nodes;
+        private BenchmarkRedis redis;
+        private RedisSingleNodeLockManager[] lockManagers;
+        private final AtomicInteger threads = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            redis = new BenchmarkRedis();
+            lockManagers = new RedisSingleNodeLockManager[nodes];
+            for (int i = 0; i < nodes; i++) {
+                lockManagers[i] = redis.createLockManager("benchmark", LeaseTime, LockOwnership.THREAD);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            redis.close();
+        }
+    }
+
+    @State(org.openjdk.jmh.annotations.Scope.Thread)
+    public static class Locks {
+        private Lock own;
+        private Lock shared;
+        private String[] keys;
+        private int next;
+        private RedisSingleNodeLockManager lockManager;
+
+        @Setup(Level.Trial)
+        public void setUp(Managers managers) {
+            int thread = managers.threads.getAndIncrement();
+            lockManager = managers.lockManagers[thread % managers.nodes];
+            own = lockManager.acquire("uncontended-" + thread);
+            shared = lockManager.acquire("contended");
+            keys = new String[DistinctKeys];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = "distinct-" + thread + "-" + i;
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void uncontended(Locks locks) {
+        //加锁后立即解锁
+        locks.own.lock().close();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void contended(Locks locks) {
+        //加锁后立即解锁
+        locks.shared.lock().close();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void distinctKeys(Locks locks) {
+        String key = locks.keys[locks.next];
+        locks.next = (locks.next + 1) % locks.keys.length;
+        //加锁后立即解锁
+        locks.lockManager.acquire(key).lock().close();
+    }
+}
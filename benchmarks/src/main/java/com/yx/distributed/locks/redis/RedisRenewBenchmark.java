@@ -0,0 +1,71 @@
+package com.yx.distributed.locks.redis;
+
+import com.yx.distributed.locks.Lock;
+import com.yx.distributed.locks.LockOwnership;
+import com.yx.distributed.locks.Scope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在一个pipeline中续期{@code heldLocks}把锁的耗时
+ * 租约设置得足够长，测量期间不会触发后台续期
+ * 连接Redis Cluster时续期按slot分发到各主节点并行执行
+ * Usage: mvn -pl benchmarks -am package && java -jar benchmarks/target/benchmarks.jar RedisRenewBenchmark
+ * Cluster: java -Dbenchmark.redis.cluster=127.0.0.1:7000,127.0.0.1:7001,127.0.0.1:7002 -jar benchmarks/target/benchmarks.jar RedisRenewBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+public class RedisRenewBenchmark {
+    @Param({"1", "100", "1000", "10000"})
+    public int heldLocks;
+    private BenchmarkRedis redis;
+    private RedisSingleNodeLockManager lockManager;
+    private final List<Scope> scopes = new ArrayList<>();
+    private final List<AbstractRedisLockManager.LockOwner> owners = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        redis = new BenchmarkRedis();
+        lockManager = redis.createLockManager("benchmark", Duration.ofHours(1), LockOwnership.TOKEN);
+        for (int i = 0; i < heldLocks; i++) {
+            Lock lock = lockManager.acquire("renew-" + i);
+            Scope scope = lock.lock();
+            scopes.add(scope);
+            owners.add((AbstractRedisLockManager.LockOwner) scope);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (Scope scope : scopes) {
+            scope.close();
+        }
+        scopes.clear();
+        owners.clear();
+        redis.close();
+    }
+
+    @Benchmark
+    public List<Object> renew() {
+        return lockManager.renew(owners, AbstractRedisLockManager.serialize(String.valueOf(System.currentTimeMillis())));
+    }
+}
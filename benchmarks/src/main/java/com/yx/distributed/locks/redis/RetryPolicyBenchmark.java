@@ -0,0 +1,145 @@
+package com.yx.distributed.locks.redis;
+
+import com.yx.distributed.locks.Lock;
+import com.yx.distributed.locks.LockOwnership;
+import com.yx.distributed.locks.Scope;
+import com.yx.distributed.locks.metrics.LockMetrics;
+import com.yx.distributed.locks.retry.AdaptiveRetryPolicy;
+import com.yx.distributed.locks.retry.ExponentialBackoffRetryPolicy;
+import com.yx.distributed.locks.retry.FixedRetryPolicy;
+import com.yx.distributed.locks.retry.RetryPolicy;
+import com.yx.distributed.locks.retry.SpinThenParkRetryPolicy;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 各重试策略在竞争下的吞吐量以及每次加锁访问Redis的次数
+ * <ol>
+ *     <li>8个线程分布在4个锁管理器上竞争同一把锁，模拟多个应用实例</li>
+ *     <li>{@code holdMillis}为持有锁的时长，0对应极短的临界区</li>
+ *     <li>辅助计数{@code roundTrips}与{@code acquisitions}之比为每次加锁平均访问Redis的次数，次数越少，Redis的负载越低</li>
+ * </ol>
+ * Usage: mvn -pl benchmarks -am package && java -jar benchmarks/target/benchmarks.jar RetryPolicyBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class RetryPolicyBenchmark {
+    private static final Duration LeaseTime = Duration.ofSeconds(30);
+    private static final int Nodes = 4;
+
+    @State(org.openjdk.jmh.annotations.Scope.Benchmark)
+    public static class Managers {
+        @Param({"fixed", "spin-then-park", "exponential", "adaptive"})
+        public String policy;
+        @Param({"0", "5"})
+        public long holdMillis;
+        private BenchmarkRedis redis;
+        private RedisSingleNodeLockManager[] lockManagers;
+        private final AtomicInteger threads = new AtomicInteger();
+        /**
+         * 同步加锁时在加锁的线程上记录，计入该线程的辅助计数
+         */
+        private final ThreadLocal<RoundTrips> counters = new ThreadLocal<>();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            redis = new BenchmarkRedis();
+            LockMetrics metrics = new LockMetrics() {
+                @Override
+                public void acquired(long latencyNanos, long waitNanos, int roundTrips) {
+                    RoundTrips counter = counters.get();
+                    if (counter != null) {
+                        counter.acquisitions++;
+                        counter.roundTrips += roundTrips;
+                    }
+                }
+            };
+            lockManagers = new RedisSingleNodeLockManager[Nodes];
+            for (int i = 0; i < Nodes; i++) {
+                lockManagers[i] = redis.createLockManager("benchmark", LeaseTime, LockOwnership.THREAD);
+                lockManagers[i].setRetryPolicy(retryPolicy(policy));
+                lockManagers[i].setMetrics(metrics);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            redis.close();
+        }
+    }
+
+    private static RetryPolicy retryPolicy(String policy) {
+        switch (policy) {
+            case "spin-then-park":
+                return new SpinThenParkRetryPolicy(3, Duration.ofMillis(5));
+            case "exponential":
+                return new ExponentialBackoffRetryPolicy(Duration.ofMillis(1), Duration.ofMillis(100));
+            case "adaptive":
+                return new AdaptiveRetryPolicy(Duration.ofMillis(1), Duration.ofSeconds(1));
+            default:
+                return new FixedRetryPolicy(Duration.ofSeconds(1));
+        }
+    }
+
+    @State(org.openjdk.jmh.annotations.Scope.Thread)
+    public static class Locks {
+        private Lock lock;
+        private long holdMillis;
+
+        @Setup(Level.Trial)
+        public void setUp(Managers managers) {
+            int thread = managers.threads.getAndIncrement();
+            lock = managers.lockManagers[thread % Nodes].acquire("contended");
+            holdMillis = managers.holdMillis;
+        }
+    }
+
+    /**
+     * 每个线程的加锁次数以及访问Redis的次数，由JMH按吞吐量汇总输出
+     */
+    @State(org.openjdk.jmh.annotations.Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class RoundTrips {
+        public long acquisitions;
+        public long roundTrips;
+
+        @Setup(Level.Iteration)
+        public void reset(Managers managers) {
+            acquisitions = 0;
+            roundTrips = 0;
+            managers.counters.set(this);
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void contended(Locks locks, RoundTrips roundTrips) throws InterruptedException {
+        Scope scope = locks.lock.lock();
+        try {
+            if (locks.holdMillis > 0) {
+                Thread.sleep(locks.holdMillis);
+            }
+        } finally {
+            scope.close();
+        }
+    }
+}
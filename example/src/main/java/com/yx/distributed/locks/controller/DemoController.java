@@ -2,6 +2,7 @@ package com.yx.distributed.locks.controller;
 
 import com.yx.distributed.locks.DistributedLockManager;
 import com.yx.distributed.locks.Lock;
+import com.yx.distributed.locks.annotation.DistributedLock;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -21,7 +22,7 @@ public class DemoController {
     private DistributedLockManager distributedLockManager;
 
     @RequestMapping("/test")
-    public void set(@RequestParam("key") String key) {
+    public void set(@RequestParam("key") String key, @RequestParam(value = "fair", defaultValue = "false") boolean fair) {
         int count = 0;
 
         for (int i = 0; i < 100; i++) {
@@ -31,7 +32,7 @@ public class DemoController {
             new Thread() {
                 @Override
                 public void run() {
-                    final Lock lock = distributedLockManager.acquire(key);
+                    final Lock lock = fair ? distributedLockManager.acquireFair(key) : distributedLockManager.acquire(key);
 
                     lock.lock();
 
@@ -48,4 +49,12 @@ public class DemoController {
             }.start();
         }
     }
+
+    @RequestMapping("/annotated")
+    @DistributedLock(key = "'demo:' + #key", waitTime = 3000)
+    public void annotated(@RequestParam("key") String key) throws InterruptedException {
+        log.info("locked {}, current time is {}", key, System.currentTimeMillis());
+
+        Thread.sleep(1000);
+    }
 }
@@ -1,5 +1,9 @@
 package com.yx.distributed.locks;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
 public interface DistributedLockManager {
     /**
      * 通过给定的{@code name}获取锁
@@ -13,6 +17,72 @@ public interface DistributedLockManager {
      */
     Lock acquire(String name);
 
+    /**
+     * 通过给定的{@code name}获取可重入锁
+     * <ol>
+     *     <li>持有锁的线程再次加锁时直接成功，持有次数加一，不访问Redis</li>
+     *     <li>加锁多少次就需要解锁多少次，持有次数减到零时才真正释放锁</li>
+     *     <li>重入以线程识别，因此可重入锁总是绑定线程，不受{@link LockOwnership}影响</li>
+     *     <li>与{@link #acquire(String)}获取的同名锁是两把不同的锁，互不影响</li>
+     * </ol>
+     *
+     * @param name 锁的名称
+     * @return
+     */
+    Lock acquireReentrant(String name);
+
+    /**
+     * 通过给定的{@code name}获取读写锁
+     * <ol>
+     *     <li>相同{@code name}获取的读锁、写锁实例是相同的</li>
+     *     <li>与{@link #acquire(String)}获取的同名锁是两把不同的锁，互不影响</li>
+     * </ol>
+     *
+     * @param name 锁的名称
+     * @return
+     */
+    ReadWriteLock acquireReadWrite(String name);
+
+    /**
+     * 通过给定的{@code name}获取公平锁
+     * <ol>
+     *     <li>等待者在Redis中按先后顺序排队，锁只会交给队首的等待者，存在等待者时{@link Lock#tryLock()}也会失败</li>
+     *     <li>释放时只唤醒队首的等待者，其他等待者不会因此访问Redis</li>
+     *     <li>等待者定期刷新在队列中的登记，因进程退出等原因未能刷新的等待者数秒后被移出队列</li>
+     *     <li>与{@link #acquire(String)}获取的同名锁是两把不同的锁，互不影响</li>
+     * </ol>
+     *
+     * @param name 锁的名称
+     * @return
+     */
+    Lock acquireFair(String name);
+
+    /**
+     * 通过给定的{@code names}获取一组锁，整组一起加锁、续期和解锁
+     * <ol>
+     *     <li>一次Redis调用完成整组加锁，要么全部成功，要么全部失败，不会只持有其中一部分</li>
+     *     <li>名称会被排序去重，调用方不需要关心加锁顺序，也不会因顺序不同而死锁</li>
+     *     <li>组内的每把锁与{@link #acquire(String)}获取的同名锁互斥</li>
+     * </ol>
+     *
+     * @param names 锁的名称
+     * @return
+     */
+    Lock acquireAll(Collection<String> names);
+
+    /**
+     * 通过给定的{@code name}获取信号量
+     * <ol>
+     *     <li>相同{@code name}的信号量在所有节点上必须使用相同的{@code permits}</li>
+     *     <li>与{@link #acquire(String)}获取的同名锁互不影响</li>
+     * </ol>
+     *
+     * @param name    信号量的名称
+     * @param permits 总许可数
+     * @return
+     */
+    DistributedSemaphore acquireSemaphore(String name, int permits);
+
     /**
      * 强制删除锁
      * 该方法容易引起锁状态的异常，所以一般情况下应尽可能的使用{@link Lock#unlock()}
@@ -22,4 +92,18 @@ public interface DistributedLockManager {
      * @return
      */
     void forceUnlock(Lock lock);
+
+    /**
+     * 本节点当前持有的锁及其剩余租约，用于排查问题
+     * <ol>
+     *     <li>返回调用时的快照，不会随加锁、解锁变化</li>
+     *     <li>需要遍历所有持有的锁，不应在加锁的路径上调用</li>
+     *     <li>不支持的实现返回空列表</li>
+     * </ol>
+     *
+     * @return
+     */
+    default List<HeldLock> listHeldLocks() {
+        return Collections.emptyList();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+package com.yx.distributed.locks;
+
+import com.yx.distributed.locks.exception.LockException;
+import com.yx.distributed.locks.exception.TimeoutException;
+import com.yx.distributed.locks.exception.UnlockException;
+
+import java.time.Duration;
+
+/**
+ * 分布式信号量，用于限制同时访问某个资源的持有者数量
+ * <ol>
+ *     <li>每次成功获取的许可都是一个租约，持有者宕机后在租约到期时自动归还</li>
+ *     <li>持有期间由锁管理器自动续期</li>
+ *     <li>返回的{@link Scope}代表本次获取的所有许可，关闭时一并归还</li>
+ * </ol>
+ */
+public interface DistributedSemaphore {
+    /**
+     * 获取信号量的名称
+     *
+     * @return
+     */
+    String getName();
+
+    /**
+     * 获取总许可数
+     *
+     * @return
+     */
+    int getPermits();
+
+    /**
+     * 在指定的{@code timeout}时间内获取{@code permits}个许可
+     * 若发生异常，会抛出 {@link LockException}
+     *
+     * @param permits 许可数，不能超过总许可数
+     * @param timeout 超时时间
+     * @return
+     * @throws TimeoutException 若在指定的超时时间内未能获取许可，抛出
+     */
+    Scope acquire(int permits, Duration timeout) throws TimeoutException;
+
+    /**
+     * 尝试获取{@code permits}个许可，无论是否成功都会立即返回
+     * 若发生异常，会抛出 {@link LockException}
+     *
+     * @param permits 许可数，不能超过总许可数
+     * @return 获取成功时返回对应的{@link Scope}，失败返回 null
+     */
+    Scope tryAcquire(int permits);
+
+    /**
+     * 归还{@code scope}代表的许可，等同于{@link Scope#close()}
+     * 若发生异常，会抛出 {@link UnlockException}
+     *
+     * @param scope 获取许可时返回的{@link Scope}
+     */
+    void release(Scope scope);
+}
@@ -0,0 +1,42 @@
+package com.yx.distributed.locks;
+
+import lombok.Getter;
+
+/**
+ * 本节点当前持有的一把锁，由{@link DistributedLockManager#listHeldLocks()}返回，用于排查问题
+ */
+@Getter
+public class HeldLock {
+    /**
+     * 锁的名称，一组锁为以逗号分隔的名称
+     */
+    private final String name;
+    /**
+     * 锁的类型：exclusive、reentrant、read、write、fair、group、semaphore
+     */
+    private final String type;
+    private final String token;
+    private final long fencingToken;
+    /**
+     * 已经持有的时长（毫秒），未记录加锁时间时为-1
+     */
+    private final long heldMillis;
+    /**
+     * 剩余的租约时长（毫秒），租约不会在持有期间到期时为-1
+     */
+    private final long ttlMillis;
+
+    public HeldLock(String name, String type, String token, long fencingToken, long heldMillis, long ttlMillis) {
+        this.name = name;
+        this.type = type;
+        this.token = token;
+        this.fencingToken = fencingToken;
+        this.heldMillis = heldMillis;
+        this.ttlMillis = ttlMillis;
+    }
+
+    @Override
+    public String toString() {
+        return type + " '" + name + "' (token=" + token + ", fencingToken=" + fencingToken + ", heldMillis=" + heldMillis + ", ttlMillis=" + ttlMillis + ")";
+    }
+}
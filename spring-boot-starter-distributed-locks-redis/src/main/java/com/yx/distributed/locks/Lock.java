@@ -3,8 +3,10 @@ package com.yx.distributed.locks;
 import com.yx.distributed.locks.exception.LockException;
 import com.yx.distributed.locks.exception.TimeoutException;
 import com.yx.distributed.locks.exception.UnlockException;
+import com.yx.distributed.locks.retry.RetryPolicy;
 
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 
 public interface Lock {
     /**
@@ -28,6 +30,24 @@ public interface Lock {
      */
     Scope lock(Duration timeout) throws TimeoutException;
 
+    /**
+     * 在指定的{@code timeout}时间内异步加锁
+     * 等待期间不占用调用方线程，返回的{@link Scope}不绑定线程，可以在任意线程中关闭以解锁
+     * <ol>
+     *     <li>加锁成功时，返回的future以{@link Scope}完成</li>
+     *     <li>在指定的超时时间内未能加锁成功时，以{@link TimeoutException}异常完成</li>
+     *     <li>发生异常时，以{@link LockException}异常完成</li>
+     * </ol>
+     * Usage: 在1秒内异步加锁，加锁成功后执行业务逻辑并解锁
+     * <code>
+     *     lockAsync(Duration.ofSeconds(1)).thenAccept(scope -> { doSomething(); scope.close(); });
+     * </code>
+     *
+     * @param timeout 超时时间
+     * @return
+     */
+    CompletableFuture<Scope> lockAsync(Duration timeout);
+
     /**
      * 获取当前锁的名称
      *
@@ -47,11 +67,21 @@ public interface Lock {
 
     /**
      * 用于确定锁是否由当前线程持有
+     * {@link LockOwnership#TOKEN}模式下锁不属于任何线程，总是返回 false
      *
      * @return 是返回 true，否返回 false
      */
     boolean isHeldByCurrentThread();
 
+    /**
+     * 当前持有者的fencing token，{@link LockOwnership#THREAD}模式下为当前线程持有的锁
+     * 用于通过{@link #tryLock()}加锁、没有{@link Scope}的场景
+     *
+     * @return 未持有时返回 0
+     * @see Scope#getFencingToken()
+     */
+    long getFencingToken();
+
     /**
      * 尝试在指定的{@code timeout}时间内进行加锁
      * 在指定时间内无法完成加锁操作时，会立即返回
@@ -63,6 +93,7 @@ public interface Lock {
 
     /**
      * 解锁
+     * {@link LockOwnership#THREAD}模式下只能由加锁的线程调用，{@link LockOwnership#TOKEN}模式下释放当前持有者的锁
      * 若发生异常，会抛出 {@link UnlockException}
      * 可查看日志确定详细原因
      */
@@ -114,4 +145,17 @@ public interface Lock {
      * @param acquireFailed  任何原因导致的加锁失败后执行
      */
     void tryLockWith(Duration timeout, Action acquireSuccess, Action acquireFailed);
-}
\ No newline at end of file
+
+    /**
+     * 返回使用{@code retryPolicy}重试的同一把锁
+     * 与当前锁共享持有状态，只有加锁失败后等待多久再重试不同，未指定时使用锁管理器默认的重试策略
+     * Usage: 持有时长只有几毫秒的锁，先立即重试3次，之后每5毫秒重试一次
+     * <code>
+     *     lock.withRetryPolicy(new SpinThenParkRetryPolicy(3, Duration.ofMillis(5))).lock(Duration.ofSeconds(1));
+     * </code>
+     *
+     * @param retryPolicy 重试策略
+     * @return
+     */
+    Lock withRetryPolicy(RetryPolicy retryPolicy);
+}
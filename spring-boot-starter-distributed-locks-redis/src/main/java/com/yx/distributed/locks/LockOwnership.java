@@ -0,0 +1,16 @@
+package com.yx.distributed.locks;
+
+/**
+ * 锁的所有权模式
+ */
+public enum LockOwnership {
+    /**
+     * 锁归加锁的线程所有，只能由该线程解锁，同一线程重复加锁会抛出异常
+     */
+    THREAD,
+    /**
+     * 锁归加锁时返回的{@link Scope}所有，可以在任意线程中通过{@link Scope#close()}解锁
+     * 适用于异步流水线以及虚拟线程等线程标识不稳定的场景
+     */
+    TOKEN
+}
@@ -0,0 +1,30 @@
+package com.yx.distributed.locks;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * 响应式的分布式锁管理器
+ * 等待锁的过程中不占用任何线程，适用于WebFlux等基于事件循环的服务
+ */
+public interface ReactiveDistributedLockManager {
+    /**
+     * 通过给定的{@code name}获取锁
+     * <ol>
+     *     <li>{@code name} 用于标识锁的名称</li>
+     *     <li>与{@link DistributedLockManager#acquire(String)}使用相同的名称时，两者互斥</li>
+     * </ol>
+     *
+     * @param name 锁的名称
+     * @return
+     */
+    ReactiveLock acquire(String name);
+
+    /**
+     * 强制删除锁
+     * 与{@link DistributedLockManager#forceUnlock(Lock)}相同，只应在锁已经处于异常状态时使用
+     *
+     * @param lock 目标锁
+     * @return
+     */
+    Mono<Void> forceUnlock(ReactiveLock lock);
+}
@@ -0,0 +1,37 @@
+package com.yx.distributed.locks;
+
+import com.yx.distributed.locks.exception.LockException;
+import com.yx.distributed.locks.exception.TimeoutException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * 响应式的锁
+ * 不绑定线程，每次加锁成功都会得到一个独立的{@link ReactiveScope}，通过它解锁
+ */
+public interface ReactiveLock {
+    /**
+     * 获取当前锁的名称
+     *
+     * @return
+     */
+    String getName();
+
+    /**
+     * 尝试加锁，无论加锁是否成功都立即完成
+     * 若发生异常，以{@link LockException}结束
+     *
+     * @return 加锁成功时发出{@link ReactiveScope}，失败时为空
+     */
+    Mono<ReactiveScope> tryLock();
+
+    /**
+     * 在指定的{@code timeout}时间内加锁
+     * 若发生异常，以{@link LockException}结束
+     *
+     * @param timeout 超时时间
+     * @return 加锁成功时发出{@link ReactiveScope}，超时以{@link TimeoutException}结束
+     */
+    Mono<ReactiveScope> lock(Duration timeout);
+}
@@ -0,0 +1,40 @@
+package com.yx.distributed.locks;
+
+import com.yx.distributed.locks.exception.UnlockException;
+import reactor.core.publisher.Mono;
+
+/**
+ * 响应式锁的作用域，代表一次成功的加锁
+ */
+public interface ReactiveScope {
+    /**
+     * 本次加锁的fencing token，同一把锁每次加锁成功都会得到更大的值
+     *
+     * @return
+     * @see com.yx.distributed.locks.Scope#getFencingToken()
+     */
+    long getFencingToken();
+
+    /**
+     * 续期时发现锁已经过期或被强制删除，此后持有者不再受锁保护
+     *
+     * @return 租约已丢失返回 true
+     */
+    boolean isLeaseLost();
+
+    /**
+     * 租约丢失时完成，持有者可以借此提前中止受锁保护的操作；正常解锁时不会完成
+     * 租约丢失后解锁以{@link UnlockException}结束
+     *
+     * @return
+     */
+    Mono<Void> leaseLost();
+
+    /**
+     * 解锁
+     * 若锁已经不属于该作用域（例如已被强制删除），以{@link UnlockException}结束
+     *
+     * @return
+     */
+    Mono<Void> unlock();
+}
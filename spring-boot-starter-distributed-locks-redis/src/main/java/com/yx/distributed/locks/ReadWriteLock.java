@@ -0,0 +1,26 @@
+package com.yx.distributed.locks;
+
+/**
+ * 读写锁，由一把共享的读锁和一把排他的写锁组成
+ * <ol>
+ *     <li>没有写锁时，多个持有者可以同时持有读锁</li>
+ *     <li>写锁与读锁、写锁之间互斥</li>
+ *     <li>写锁优先：有写锁正在等待时，新的读锁加锁请求需要等待，避免写锁饥饿</li>
+ * </ol>
+ * 注意：读锁与写锁都不可重入，也不支持由读锁升级为写锁
+ */
+public interface ReadWriteLock {
+    /**
+     * 获取读锁，每次加锁成功都会产生一个独立的持有者
+     *
+     * @return
+     */
+    Lock readLock();
+
+    /**
+     * 获取写锁
+     *
+     * @return
+     */
+    Lock writeLock();
+}
@@ -1,4 +1,48 @@
 package com.yx.distributed.locks;
 
+import com.yx.distributed.locks.exception.UnlockException;
+
+/**
+ * 锁的作用域，代表一次成功的加锁，关闭时解锁
+ */
 public interface Scope extends AutoCloseable {
+    /**
+     * 本次加锁使用的token，用于在Redis中标识锁的持有者
+     *
+     * @return
+     */
+    String getToken();
+
+    /**
+     * 本次加锁的fencing token，同一把锁每次加锁成功都会得到更大的值
+     * 租约过期后原持有者可能仍在运行，将该值随写操作一起提交，由存储拒绝小于已见过的最大值的写入，即可阻止过期的持有者
+     * 可重入锁重入时不变
+     *
+     * @return
+     */
+    long getFencingToken();
+
+    /**
+     * 续期时发现锁已经过期或被强制删除，此后持有者不再受锁保护
+     *
+     * @return 租约已丢失返回 true
+     */
+    boolean isLeaseLost();
+
+    /**
+     * 注册租约丢失时的回调，持有者可以借此提前中止受锁保护的操作
+     * 回调在异步线程中执行；注册时租约已经丢失，则在当前线程中立即执行
+     * 租约丢失后仍需关闭作用域以释放本地锁，此时会抛出{@link UnlockException}
+     *
+     * @param callback 租约丢失时执行
+     */
+    void onLeaseLost(Runnable callback);
+
+    /**
+     * 解锁
+     * {@link LockOwnership#THREAD}模式下只能由加锁的线程调用，{@link LockOwnership#TOKEN}模式下可以在任意线程中调用
+     * 若发生异常，会抛出 {@link UnlockException}
+     */
+    @Override
+    void close();
 }
@@ -0,0 +1,82 @@
+package com.yx.distributed.locks.actuate;
+
+import com.yx.distributed.locks.DistributedLockManager;
+import com.yx.distributed.locks.HeldLock;
+import com.yx.distributed.locks.metrics.LockContentionProfiler;
+import lombok.Getter;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 分布式锁的Actuator端点，需要通过{@code management.endpoints.web.exposure.include}暴露
+ * <ol>
+ *     <li>读取：竞争最激烈以及累计持有时间最长的锁，本节点当前持有的锁及其剩余租约，默认各返回20个，{@code /distributedlocks/{limit}}指定数量</li>
+ *     <li>删除：清空竞争统计</li>
+ * </ol>
+ * 未启用竞争分析器时只返回当前持有的锁
+ */
+@Endpoint(id = "distributedlocks")
+public class DistributedLocksEndpoint {
+    private static final int DefaultLimit = 20;
+
+    private final LockContentionProfiler profiler;
+    private final Collection<DistributedLockManager> lockManagers;
+
+    /**
+     * @param profiler 未启用竞争分析器时为空
+     */
+    public DistributedLocksEndpoint(LockContentionProfiler profiler, Collection<DistributedLockManager> lockManagers) {
+        this.profiler = profiler;
+        this.lockManagers = lockManagers;
+    }
+
+    @ReadOperation
+    public DistributedLocksReport report() {
+        return top(DefaultLimit);
+    }
+
+    /**
+     * @param limit 竞争与持有统计各自返回的最大数量，不大于0时使用默认值
+     * @return 竞争与持有统计以及本节点当前持有的锁
+     */
+    @ReadOperation
+    public DistributedLocksReport top(@Selector int limit) {
+        int top = limit > 0 ? limit : DefaultLimit;
+        List<HeldLock> held = new ArrayList<>();
+        for (DistributedLockManager lockManager : lockManagers) {
+            held.addAll(lockManager.listHeldLocks());
+        }
+        if (profiler == null) {
+            return new DistributedLocksReport(Collections.emptyList(), Collections.emptyList(), held);
+        }
+        return new DistributedLocksReport(profiler.getContendedLocks(top), profiler.getLongestHeldLocks(top), held);
+    }
+
+    @DeleteOperation
+    public void reset() {
+        if (profiler != null) {
+            profiler.reset();
+        }
+    }
+
+    @Getter
+    public static class DistributedLocksReport {
+        private final List<LockContentionProfiler.ContendedLock> contended;
+        private final List<LockContentionProfiler.LongHeldLock> longestHeld;
+        private final List<HeldLock> held;
+
+        private DistributedLocksReport(List<LockContentionProfiler.ContendedLock> contended, List<LockContentionProfiler.LongHeldLock> longestHeld,
+                                       List<HeldLock> held) {
+            this.contended = contended;
+            this.longestHeld = longestHeld;
+            this.held = held;
+        }
+    }
+}
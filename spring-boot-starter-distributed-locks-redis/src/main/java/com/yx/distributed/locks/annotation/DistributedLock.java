@@ -0,0 +1,59 @@
+package com.yx.distributed.locks.annotation;
+
+import com.yx.distributed.locks.DistributedLockManager;
+import com.yx.distributed.locks.exception.TimeoutException;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在持有分布式锁期间执行方法，方法返回或者抛出异常后解锁
+ * <ol>
+ *     <li>锁由{@link DistributedLockManager}获取，租约由锁管理器按{@code spring.distributed.lock.leaseTimeMills}续期，方法执行多久就持有多久</li>
+ *     <li>{@link #key()}在每个方法上只解析一次，编译后缓存，调用时只计算表达式的值</li>
+ *     <li>同一个Bean内部的方法调用不经过代理，注解不生效</li>
+ * </ol>
+ * Usage: 按订单号加锁，最多等待3秒
+ * <code>
+ *     &#64;DistributedLock(key = "'order:' + #order.id", waitTime = 3000)
+ *     public void pay(Order order) { ... }
+ * </code>
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface DistributedLock {
+    /**
+     * 锁的名称，SpEL表达式，常量需要使用单引号
+     * 方法参数可以通过{@code #参数名}、{@code #p0}或{@code #a0}引用，{@code @beanName}引用容器中的Bean
+     * 参数名依赖编译时的{@code -parameters}或调试信息，缺少时只能使用{@code #p0}
+     *
+     * @return 锁名称的SpEL表达式
+     */
+    String key();
+
+    /**
+     * 等待锁的最长时长，小于0时一直等待，等于0时只尝试一次，超时后抛出{@link TimeoutException}
+     *
+     * @return 等待锁的最长时长
+     */
+    long waitTime() default -1;
+
+    /**
+     * {@link #waitTime()}的单位
+     *
+     * @return 等待时长的单位，默认毫秒
+     */
+    TimeUnit timeUnit() default TimeUnit.MILLISECONDS;
+
+    /**
+     * 是否使用可重入锁，加锁的方法在同一线程中嵌套调用同一把锁时需要开启
+     *
+     * @return 是否使用可重入锁，默认不可重入
+     */
+    boolean reentrant() default false;
+}
@@ -0,0 +1,33 @@
+package com.yx.distributed.locks.annotation;
+
+import org.springframework.aop.framework.autoproxy.AbstractBeanFactoryAwareAdvisingPostProcessor;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.util.ClassUtils;
+
+/**
+ * 为带有{@link DistributedLock}注解的方法的Bean创建代理，与{@code @Async}相同，不依赖AspectJ
+ * <ol>
+ *     <li>默认代理目标类，未实现接口的Bean也可以使用注解</li>
+ *     <li>Bean已经被代理时，加锁位于其他通知之前，例如在事务提交之后才解锁</li>
+ * </ol>
+ */
+public class DistributedLockAnnotationBeanPostProcessor extends AbstractBeanFactoryAwareAdvisingPostProcessor {
+    private static final long serialVersionUID = 1L;
+
+    public DistributedLockAnnotationBeanPostProcessor() {
+        setProxyTargetClass(true);
+        setBeforeExistingAdvisors(true);
+    }
+
+    @Override
+    public void setBeanFactory(BeanFactory beanFactory) {
+        super.setBeanFactory(beanFactory);
+        ClassLoader classLoader = beanFactory instanceof ConfigurableBeanFactory ?
+                ((ConfigurableBeanFactory) beanFactory).getBeanClassLoader() : ClassUtils.getDefaultClassLoader();
+        this.advisor = new DefaultPointcutAdvisor(new AnnotationMatchingPointcut(null, DistributedLock.class, true),
+                new DistributedLockInterceptor(beanFactory, classLoader));
+    }
+}
@@ -0,0 +1,145 @@
+package com.yx.distributed.locks.annotation;
+
+import com.yx.distributed.locks.DistributedLockManager;
+import com.yx.distributed.locks.Lock;
+import com.yx.distributed.locks.Scope;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.context.expression.BeanFactoryResolver;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.MethodClassKey;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link DistributedLock}的拦截器
+ * <ol>
+ *     <li>每个方法的注解、参数名以及解析后的表达式在首次调用时生成并缓存</li>
+ *     <li>表达式以{@link SpelCompilerMode#MIXED}模式编译为字节码，无法编译或者编译后执行失败时回退为解释执行</li>
+ *     <li>锁管理器在首次调用时从容器中获取，避免后置处理器提前初始化锁管理器</li>
+ * </ol>
+ */
+class DistributedLockInterceptor implements MethodInterceptor {
+    private final BeanFactory beanFactory;
+    private final SpelExpressionParser parser;
+    private final StandardEvaluationContext sharedContext;
+    private final ParameterNameDiscoverer parameterNameDiscoverer;
+    private final ConcurrentHashMap<MethodClassKey, LockAttribute> attributes;
+    private volatile DistributedLockManager lockManager;
+
+    DistributedLockInterceptor(BeanFactory beanFactory, ClassLoader classLoader) {
+        this.beanFactory = beanFactory;
+        this.parser = new SpelExpressionParser(new SpelParserConfiguration(SpelCompilerMode.MIXED, classLoader));
+        this.sharedContext = new StandardEvaluationContext();
+        this.sharedContext.setBeanResolver(new BeanFactoryResolver(beanFactory));
+        //解析器列表在首次获取时创建，提前创建后只读，可以在多个线程中共享
+        this.sharedContext.getPropertyAccessors();
+        this.sharedContext.getConstructorResolvers();
+        this.sharedContext.getMethodResolvers();
+        this.sharedContext.getTypeLocator();
+        this.parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+        this.attributes = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        LockAttribute attribute = attribute(invocation);
+        String key = attribute.key(sharedContext, invocation.getArguments());
+        DistributedLockManager lockManager = lockManager();
+        Lock lock = attribute.reentrant ? lockManager.acquireReentrant(key) : lockManager.acquire(key);
+        Scope scope = attribute.waitTime != null ? lock.lock(attribute.waitTime) : lock.lock();
+        try {
+            return invocation.proceed();
+        } finally {
+            scope.close();
+        }
+    }
+
+    private LockAttribute attribute(MethodInvocation invocation) {
+        Method method = invocation.getMethod();
+        Class<?> targetClass = invocation.getThis() != null ? AopProxyUtils.ultimateTargetClass(invocation.getThis()) : null;
+        MethodClassKey cacheKey = new MethodClassKey(method, targetClass);
+        LockAttribute attribute = attributes.get(cacheKey);
+        if (attribute == null) {
+            attribute = attributes.computeIfAbsent(cacheKey, key -> createAttribute(method, targetClass));
+        }
+        return attribute;
+    }
+
+    private LockAttribute createAttribute(Method method, Class<?> targetClass) {
+        //注解可能在接口方法上，参数名以实现类的方法为准
+        Method specificMethod = AopUtils.getMostSpecificMethod(method, targetClass);
+        DistributedLock annotation = AnnotatedElementUtils.findMergedAnnotation(specificMethod, DistributedLock.class);
+        if (annotation == null) {
+            annotation = AnnotatedElementUtils.findMergedAnnotation(method, DistributedLock.class);
+        }
+        if (annotation == null) {
+            throw new IllegalStateException("@DistributedLock not found on " + method);
+        }
+
+        Map<String, Integer> parameterIndexes = new HashMap<>();
+        String[] parameterNames = parameterNameDiscoverer.getParameterNames(specificMethod);
+        for (int i = 0; i < specificMethod.getParameterCount(); i++) {
+            parameterIndexes.put("p" + i, i);
+            parameterIndexes.put("a" + i, i);
+            if (parameterNames != null) {
+                parameterIndexes.put(parameterNames[i], i);
+            }
+        }
+        Duration waitTime = annotation.waitTime() < 0 ? null : Duration.ofNanos(annotation.timeUnit().toNanos(annotation.waitTime()));
+        return new LockAttribute(specificMethod, parser.parseExpression(annotation.key()), parameterIndexes, waitTime, annotation.reentrant());
+    }
+
+    private DistributedLockManager lockManager() {
+        DistributedLockManager lockManager = this.lockManager;
+        if (lockManager == null) {
+            lockManager = beanFactory.getBean(DistributedLockManager.class);
+            this.lockManager = lockManager;
+        }
+        return lockManager;
+    }
+
+    /**
+     * 一个方法上的注解解析后的结果
+     */
+    private static class LockAttribute {
+        private final Method method;
+        private final Expression key;
+        private final Map<String, Integer> parameterIndexes;
+        /**
+         * 为空时一直等待
+         */
+        private final Duration waitTime;
+        private final boolean reentrant;
+
+        private LockAttribute(Method method, Expression key, Map<String, Integer> parameterIndexes, Duration waitTime, boolean reentrant) {
+            this.method = method;
+            this.key = key;
+            this.parameterIndexes = parameterIndexes;
+            this.waitTime = waitTime;
+            this.reentrant = reentrant;
+        }
+
+        private String key(StandardEvaluationContext sharedContext, Object[] arguments) {
+            Object value = key.getValue(new LockKeyEvaluationContext(sharedContext, parameterIndexes, arguments));
+            if (value == null) {
+                throw new IllegalArgumentException("the lock key '" + key.getExpressionString() + "' of " + method + " is null");
+            }
+            return value.toString();
+        }
+    }
+}
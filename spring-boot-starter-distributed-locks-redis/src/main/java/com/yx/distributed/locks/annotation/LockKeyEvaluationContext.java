@@ -0,0 +1,100 @@
+package com.yx.distributed.locks.annotation;
+
+import org.springframework.expression.BeanResolver;
+import org.springframework.expression.ConstructorResolver;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.MethodResolver;
+import org.springframework.expression.OperatorOverloader;
+import org.springframework.expression.PropertyAccessor;
+import org.springframework.expression.TypeComparator;
+import org.springframework.expression.TypeConverter;
+import org.springframework.expression.TypeLocator;
+import org.springframework.expression.TypedValue;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 计算锁名称的上下文，每次调用创建一个
+ * 解析器、类型转换等由所有调用共享的{@link StandardEvaluationContext}提供，自身只保存本次调用的参数
+ * 变量按方法的参数名预先映射到参数的下标，查找变量时不复制参数
+ */
+class LockKeyEvaluationContext implements EvaluationContext {
+    private final StandardEvaluationContext shared;
+    private final Map<String, Integer> parameterIndexes;
+    private final Object[] arguments;
+    /**
+     * 表达式中赋值的变量，通常没有
+     */
+    private Map<String, Object> variables;
+
+    LockKeyEvaluationContext(StandardEvaluationContext shared, Map<String, Integer> parameterIndexes, Object[] arguments) {
+        this.shared = shared;
+        this.parameterIndexes = parameterIndexes;
+        this.arguments = arguments;
+    }
+
+    @Override
+    public Object lookupVariable(String name) {
+        if (variables != null && variables.containsKey(name)) {
+            return variables.get(name);
+        }
+        Integer index = parameterIndexes.get(name);
+        return index != null ? arguments[index] : shared.lookupVariable(name);
+    }
+
+    @Override
+    public void setVariable(String name, Object value) {
+        if (variables == null) {
+            variables = new HashMap<>(4);
+        }
+        variables.put(name, value);
+    }
+
+    @Override
+    public TypedValue getRootObject() {
+        return TypedValue.NULL;
+    }
+
+    @Override
+    public List<PropertyAccessor> getPropertyAccessors() {
+        return shared.getPropertyAccessors();
+    }
+
+    @Override
+    public List<ConstructorResolver> getConstructorResolvers() {
+        return shared.getConstructorResolvers();
+    }
+
+    @Override
+    public List<MethodResolver> getMethodResolvers() {
+        return shared.getMethodResolvers();
+    }
+
+    @Override
+    public BeanResolver getBeanResolver() {
+        return shared.getBeanResolver();
+    }
+
+    @Override
+    public TypeLocator getTypeLocator() {
+        return shared.getTypeLocator();
+    }
+
+    @Override
+    public TypeConverter getTypeConverter() {
+        return shared.getTypeConverter();
+    }
+
+    @Override
+    public TypeComparator getTypeComparator() {
+        return shared.getTypeComparator();
+    }
+
+    @Override
+    public OperatorOverloader getOperatorOverloader() {
+        return shared.getOperatorOverloader();
+    }
+}
@@ -1,23 +1,53 @@
 package com.yx.distributed.locks.config;
 
 import com.yx.distributed.locks.DistributedLockManager;
+import com.yx.distributed.locks.ReactiveDistributedLockManager;
+import com.yx.distributed.locks.actuate.DistributedLocksEndpoint;
+import com.yx.distributed.locks.annotation.DistributedLockAnnotationBeanPostProcessor;
+import com.yx.distributed.locks.local.FileLockManager;
+import com.yx.distributed.locks.local.LocalLockManager;
+import com.yx.distributed.locks.metrics.LockContentionProfiler;
+import com.yx.distributed.locks.metrics.LockMetrics;
+import com.yx.distributed.locks.metrics.MicrometerLockMetrics;
+import com.yx.distributed.locks.redis.ReactiveRedisClusterLockManager;
+import com.yx.distributed.locks.redis.ReactiveRedisSingleNodeLockManager;
+import com.yx.distributed.locks.redis.RedisClusterLockManager;
 import com.yx.distributed.locks.redis.RedisSingleNodeLockManager;
+import com.yx.distributed.locks.retry.AdaptiveRetryPolicy;
+import com.yx.distributed.locks.retry.ExponentialBackoffRetryPolicy;
+import com.yx.distributed.locks.retry.FixedRetryPolicy;
+import com.yx.distributed.locks.retry.RetryPolicy;
+import com.yx.distributed.locks.retry.SpinThenParkRetryPolicy;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.data.redis.RedisAutoConfiguration;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.util.StringUtils;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Configuration
 //@Import({RedisAutoConfiguration.class})
-@AutoConfigureAfter({RedisAutoConfiguration.class})
+@AutoConfigureAfter(value = {RedisAutoConfiguration.class}, name = {
+        "org.springframework.boot.actuate.autoconfigure.metrics.MetricsAutoConfiguration",
+        "org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration",
+        "org.springframework.boot.actuate.autoconfigure.metrics.export.simple.SimpleMetricsExportAutoConfiguration"})
 @EnableConfigurationProperties({DistributedLocksProperties.class})
 public class DistributedLockAutoConfiguration {
 
@@ -30,9 +60,154 @@ public class DistributedLockAutoConfiguration {
     @Bean
     @ConditionalOnMissingBean(DistributedLockManager.class)
     @ConditionalOnProperty(name = "fusion.distributed.lock", havingValue = "redis", matchIfMissing = true)
-    public DistributedLockManager redisDistributedLockManager(RedisConnectionFactory connectionFactory) {
+    public DistributedLockManager redisDistributedLockManager(RedisConnectionFactory connectionFactory, ObjectProvider<LockMetrics> lockMetrics,
+                                                              ObjectProvider<LockContentionProfiler> profiler, ObjectProvider<RetryPolicy> retryPolicy) {
         String prefix = distributedProperties.getPrefix();
-        RedisSingleNodeLockManager lockManager = new RedisSingleNodeLockManager(prefix, Duration.ofMillis(distributedProperties.getLeaseTimeMills()), connectionFactory);
+        Duration leaseTime = Duration.ofMillis(distributedProperties.getLeaseTimeMills());
+        RedisSingleNodeLockManager lockManager = isCluster(connectionFactory) ?
+                new RedisClusterLockManager(prefix, leaseTime, distributedProperties.getOwnership(), connectionFactory) :
+                new RedisSingleNodeLockManager(prefix, leaseTime, distributedProperties.getOwnership(), connectionFactory);
+        bindMetrics(lockManager::setMetrics, lockMetrics, profiler);
+        //容器中的RetryPolicy优先于配置
+        lockManager.setRetryPolicy(retryPolicy.getIfAvailable(() -> createRetryPolicy(distributedProperties.getRetry())));
+        lockManager.setBiasedLinger(distributedProperties.getBiasedLinger());
         return lockManager;
     }
+
+    /**
+     * 进程内的锁，适用于单实例部署以及不依赖Redis的测试
+     */
+    @Bean
+    @ConditionalOnMissingBean(DistributedLockManager.class)
+    @ConditionalOnProperty(name = "fusion.distributed.lock", havingValue = "local")
+    public DistributedLockManager localDistributedLockManager(ObjectProvider<LockMetrics> lockMetrics, ObjectProvider<LockContentionProfiler> profiler) {
+        LocalLockManager lockManager = new LocalLockManager(Duration.ofMillis(distributedProperties.getLeaseTimeMills()), distributedProperties.getOwnership());
+        bindMetrics(lockManager::setMetrics, lockMetrics, profiler);
+        return lockManager;
+    }
+
+    /**
+     * 基于文件锁，用于同一台主机上多个进程之间的互斥
+     */
+    @Bean
+    @ConditionalOnMissingBean(DistributedLockManager.class)
+    @ConditionalOnProperty(name = "fusion.distributed.lock", havingValue = "file")
+    public DistributedLockManager fileDistributedLockManager(ObjectProvider<LockMetrics> lockMetrics, ObjectProvider<LockContentionProfiler> profiler,
+                                                             ObjectProvider<RetryPolicy> retryPolicy) {
+        String directory = distributedProperties.getFile().getDirectory();
+        Path lockDirectory = StringUtils.isEmpty(directory) ? Paths.get(System.getProperty("java.io.tmpdir"), "distributed-locks") : Paths.get(directory);
+        FileLockManager lockManager = new FileLockManager(distributedProperties.getPrefix(), Duration.ofMillis(distributedProperties.getLeaseTimeMills()),
+                distributedProperties.getOwnership(), lockDirectory);
+        bindMetrics(lockManager::setMetrics, lockMetrics, profiler);
+        lockManager.setRetryPolicy(retryPolicy.getIfAvailable(() -> createRetryPolicy(distributedProperties.getRetry())));
+        return lockManager;
+    }
+
+    /**
+     * 集群模式的锁管理器依赖Lettuce按slot路由，其他客户端的集群连接仍使用单节点的实现
+     * {@link LettuceConnectionFactory}同时是阻塞式与响应式的连接工厂，阻塞式与响应式的锁管理器按相同的条件选择
+     */
+    private static boolean isCluster(Object connectionFactory) {
+        return connectionFactory instanceof LettuceConnectionFactory && ((LettuceConnectionFactory) connectionFactory).isClusterAware();
+    }
+
+    /**
+     * 启用了竞争分析器时由其装饰容器中的监控指标，两者都不存在时不设置
+     */
+    private static void bindMetrics(Consumer<LockMetrics> setMetrics, ObjectProvider<LockMetrics> lockMetrics, ObjectProvider<LockContentionProfiler> profiler) {
+        LockMetrics metrics = lockMetrics.getIfAvailable();
+        LockContentionProfiler contentionProfiler = profiler.getIfAvailable();
+        if (contentionProfiler != null) {
+            metrics = contentionProfiler.profile(metrics != null ? metrics : LockMetrics.None);
+        }
+        if (metrics != null) {
+            setMetrics.accept(metrics);
+        }
+    }
+
+    private static RetryPolicy createRetryPolicy(DistributedLocksProperties.RetryProperties retry) {
+        switch (retry.getPolicy()) {
+            case SPIN_THEN_PARK:
+                return new SpinThenParkRetryPolicy(retry.getSpins(), retry.getInterval());
+            case EXPONENTIAL:
+                return new ExponentialBackoffRetryPolicy(retry.getMinDelay(), retry.getMaxDelay());
+            case ADAPTIVE:
+                return new AdaptiveRetryPolicy(retry.getMinDelay(), retry.getMaxDelay());
+            default:
+                return new FixedRetryPolicy(retry.getInterval());
+        }
+    }
+
+    @Configuration
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    @ConditionalOnProperty(name = "spring.distributed.lock.monitor.enabled", havingValue = "true", matchIfMissing = true)
+    static class DistributedLockMetricsConfiguration {
+
+        @Bean
+        @ConditionalOnBean(MeterRegistry.class)
+        @ConditionalOnMissingBean(LockMetrics.class)
+        public LockMetrics distributedLockMetrics(MeterRegistry meterRegistry) {
+            return new MicrometerLockMetrics(meterRegistry);
+        }
+    }
+
+    /**
+     * 竞争分析只能通过Actuator端点查看，没有Actuator时不启用
+     */
+    @Configuration
+    @ConditionalOnClass(name = "org.springframework.boot.actuate.endpoint.annotation.Endpoint")
+    static class DistributedLockEndpointConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean(LockContentionProfiler.class)
+        @ConditionalOnProperty(name = "spring.distributed.lock.profiler.enabled", havingValue = "true", matchIfMissing = true)
+        public LockContentionProfiler lockContentionProfiler(DistributedLocksProperties distributedProperties) {
+            DistributedLocksProperties.ProfilerProperties profiler = distributedProperties.getProfiler();
+            return new LockContentionProfiler(profiler.getCapacity(), profiler.getThreshold(), profiler.getHoldThreshold());
+        }
+
+        @Bean
+        @ConditionalOnMissingBean(DistributedLocksEndpoint.class)
+        public DistributedLocksEndpoint distributedLocksEndpoint(ObjectProvider<LockContentionProfiler> profiler,
+                                                                 ObjectProvider<DistributedLockManager> lockManagers) {
+            return new DistributedLocksEndpoint(profiler.getIfAvailable(), lockManagers.orderedStream().collect(Collectors.toList()));
+        }
+    }
+
+    @Configuration
+    @ConditionalOnProperty(name = "spring.distributed.lock.annotation.enabled", havingValue = "true", matchIfMissing = true)
+    static class DistributedLockAnnotationConfiguration {
+
+        /**
+         * 后置处理器需要在其他Bean之前创建，使用静态方法避免提前初始化配置类
+         */
+        @Bean
+        @ConditionalOnMissingBean(DistributedLockAnnotationBeanPostProcessor.class)
+        public static DistributedLockAnnotationBeanPostProcessor distributedLockAnnotationBeanPostProcessor() {
+            return new DistributedLockAnnotationBeanPostProcessor();
+        }
+    }
+
+    @Configuration
+    @ConditionalOnClass(name = "reactor.core.publisher.Flux")
+    static class ReactiveDistributedLockConfiguration {
+
+        @Autowired
+        private DistributedLocksProperties distributedProperties;
+
+        @Bean
+        @ConditionalOnBean(ReactiveRedisConnectionFactory.class)
+        @ConditionalOnMissingBean(ReactiveDistributedLockManager.class)
+        @ConditionalOnProperty(name = "fusion.distributed.lock", havingValue = "redis", matchIfMissing = true)
+        public ReactiveDistributedLockManager reactiveRedisDistributedLockManager(ReactiveRedisConnectionFactory connectionFactory) {
+            String prefix = distributedProperties.getPrefix();
+            Duration leaseTime = Duration.ofMillis(distributedProperties.getLeaseTimeMills());
+            //与阻塞式的锁管理器使用相同的键，同名的锁才能互斥
+            ReactiveRedisSingleNodeLockManager lockManager = isCluster(connectionFactory) ?
+                    new ReactiveRedisClusterLockManager(prefix, leaseTime, connectionFactory) :
+                    new ReactiveRedisSingleNodeLockManager(prefix, leaseTime, connectionFactory);
+            lockManager.setBiasedLinger(distributedProperties.getBiasedLinger());
+            return lockManager;
+        }
+    }
 }
\ No newline at end of file
@@ -1,8 +1,11 @@
 package com.yx.distributed.locks.config;
 
+import com.yx.distributed.locks.LockOwnership;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.time.Duration;
+
 @Data
 @ConfigurationProperties(prefix = "spring.distributed.lock")
 public class DistributedLocksProperties {
@@ -13,10 +16,98 @@ public class DistributedLocksProperties {
 
     private long leaseTimeMills = 30 * 1000;
 
+    /**
+     * 锁的所有权模式，默认绑定线程
+     */
+    private LockOwnership ownership = LockOwnership.THREAD;
+
+    /**
+     * 偏向模式下排他锁解锁后本节点保留租约的时长，默认为0不启用
+     */
+    private Duration biasedLinger = Duration.ZERO;
+
     private MonitorProperties monitor = new MonitorProperties();
 
+    private RetryProperties retry = new RetryProperties();
+
+    private AnnotationProperties annotation = new AnnotationProperties();
+
+    private FileProperties file = new FileProperties();
+
+    private ProfilerProperties profiler = new ProfilerProperties();
+
     @Data
     public static class MonitorProperties {
+        /**
+         * 存在Micrometer的MeterRegistry时记录锁的监控指标
+         */
         private boolean enabled = true;
     }
+
+    @Data
+    public static class AnnotationProperties {
+        /**
+         * 是否为带有@DistributedLock注解的方法加锁
+         */
+        private boolean enabled = true;
+    }
+
+    @Data
+    public static class FileProperties {
+        /**
+         * 文件锁的锁目录，默认为系统临时目录下的distributed-locks
+         */
+        private String directory;
+    }
+
+    @Data
+    public static class ProfilerProperties {
+        /**
+         * 存在Actuator时统计竞争最激烈以及持有时间最长的锁，通过distributedlocks端点查看
+         */
+        private boolean enabled = true;
+        /**
+         * 竞争与持有各自跟踪的锁名称的数量，超出时替换计数最小的名称
+         */
+        private int capacity = 256;
+        /**
+         * 等待时长超过该值的加锁记为一次竞争
+         */
+        private Duration threshold = Duration.ofMillis(1);
+        /**
+         * 持有时长达到该值的解锁总是记录，更短的按持有时长占该值的比例抽样
+         */
+        private Duration holdThreshold = Duration.ofMillis(10);
+    }
+
+    @Data
+    public static class RetryProperties {
+        /**
+         * 加锁失败后的重试策略，默认按固定间隔重试
+         */
+        private RetryPolicyType policy = RetryPolicyType.FIXED;
+        /**
+         * fixed的重试间隔，spin-then-park自旋结束后的等待时长
+         */
+        private Duration interval = Duration.ofSeconds(1);
+        /**
+         * spin-then-park立即重试的次数
+         */
+        private int spins = 3;
+        /**
+         * exponential的初始退避上限，adaptive的最短等待时长
+         */
+        private Duration minDelay = Duration.ofMillis(10);
+        /**
+         * exponential与adaptive的最长等待时长
+         */
+        private Duration maxDelay = Duration.ofSeconds(1);
+    }
+
+    public enum RetryPolicyType {
+        FIXED,
+        SPIN_THEN_PARK,
+        EXPONENTIAL,
+        ADAPTIVE
+    }
 }
\ No newline at end of file
@@ -14,6 +14,7 @@ import lombok.NoArgsConstructor;
 @NoArgsConstructor
 @AllArgsConstructor
 public class ExtensionException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
 
     /**
      * 业务域
@@ -7,6 +7,8 @@ package com.yx.distributed.locks.exception;
  * @since 2019-12-20 09:57:43
  */
 public class LockException extends ExtensionException {
+    private static final long serialVersionUID = 1L;
+
     public LockException() {
         super(ErrorCodes.LOCK_ERROR.getCode(), ErrorCodes.LOCK_ERROR.getMessage());
     }
@@ -2,6 +2,8 @@ package com.yx.distributed.locks.exception;
 
 
 public class TimeoutException extends ExtensionException {
+    private static final long serialVersionUID = 1L;
+
     public TimeoutException() {
         super(ErrorCodes.TIMEOUT.getCode(), ErrorCodes.TIMEOUT.getMessage());
     }
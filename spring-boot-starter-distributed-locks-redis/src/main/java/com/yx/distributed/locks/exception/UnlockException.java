@@ -1,6 +1,8 @@
 package com.yx.distributed.locks.exception;
 
 public class UnlockException extends ExtensionException {
+    private static final long serialVersionUID = 1L;
+
     public UnlockException() {
         super(ErrorCodes.UNLOCK_ERROR.getCode(), ErrorCodes.UNLOCK_ERROR.getMessage());
     }
@@ -0,0 +1,243 @@
+package com.yx.distributed.locks.executor;
+
+import com.yx.distributed.locks.DistributedLockManager;
+import com.yx.distributed.locks.Scope;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按键串行执行任务，同一个键上排队的任务在一次加锁期间批量执行
+ * <ol>
+ *     <li>同一个键的任务在本节点内按提交顺序执行，以键为名称的分布式锁保证各节点之间互斥</li>
+ *     <li>加锁成功后连续执行排队的任务，达到{@code maxBatchSize}或者持有时长达到{@code maxHoldTime}后解锁，剩余的任务重新加锁执行</li>
+ *     <li>不同键的任务在{@code executor}中并行执行，等待锁期间不占用线程</li>
+ *     <li>在{@code lockTimeout}内未能加锁时，一个批次的任务以加锁的异常完成</li>
+ *     <li>任务的异常只影响该任务返回的future，不影响同一批次的其他任务</li>
+ * </ol>
+ * Usage: 同一订单的更新串行执行
+ * <code>
+ *     executor.submit("order:" + orderId, () -> updateOrder(orderId)).thenAccept(...);
+ * </code>
+ */
+@Slf4j
+public class DistributedKeyedExecutor implements AutoCloseable {
+    private static final int DefaultMaxBatchSize = 100;
+    private static final Duration DefaultMaxHoldTime = Duration.ofSeconds(1);
+    private static final Duration DefaultLockTimeout = Duration.ofSeconds(30);
+    private final DistributedLockManager lockManager;
+    private final Executor executor;
+    /**
+     * 由{@link #DistributedKeyedExecutor(DistributedLockManager, int)}创建时持有，关闭时一并关闭
+     */
+    private final ExecutorService ownedExecutor;
+    private final int maxBatchSize;
+    private final long maxHoldNanos;
+    private final Duration lockTimeout;
+    /**
+     * 存在排队或者正在执行的任务的键，队列为空且没有调度时移除
+     */
+    private final ConcurrentHashMap<String, KeyQueue> queues;
+
+    /**
+     * 使用{@code threads}个线程执行任务，关闭时关闭线程池
+     */
+    public DistributedKeyedExecutor(DistributedLockManager lockManager, int threads) {
+        this(lockManager, createExecutor(threads), DefaultMaxBatchSize, DefaultMaxHoldTime, DefaultLockTimeout, true);
+    }
+
+    public DistributedKeyedExecutor(DistributedLockManager lockManager, Executor executor) {
+        this(lockManager, executor, DefaultMaxBatchSize, DefaultMaxHoldTime, DefaultLockTimeout);
+    }
+
+    /**
+     * @param executor     执行任务的线程池，由调用方管理
+     * @param maxBatchSize 一次加锁最多执行的任务数
+     * @param maxHoldTime  一次加锁的最长持有时长，正在执行的任务不会被中断
+     * @param lockTimeout  每次加锁的超时时间
+     */
+    public DistributedKeyedExecutor(DistributedLockManager lockManager, Executor executor, int maxBatchSize, Duration maxHoldTime, Duration lockTimeout) {
+        this(lockManager, executor, maxBatchSize, maxHoldTime, lockTimeout, false);
+    }
+
+    private DistributedKeyedExecutor(DistributedLockManager lockManager, Executor executor, int maxBatchSize, Duration maxHoldTime, Duration lockTimeout,
+                                     boolean owned) {
+        if (maxBatchSize <= 0 || maxHoldTime.isNegative() || lockTimeout.isNegative()) {
+            throw new IllegalArgumentException("maxBatchSize must be positive, maxHoldTime and lockTimeout must not be negative");
+        }
+        this.lockManager = lockManager;
+        this.executor = executor;
+        this.ownedExecutor = owned ? (ExecutorService) executor : null;
+        this.maxBatchSize = maxBatchSize;
+        this.maxHoldNanos = maxHoldTime.toNanos();
+        this.lockTimeout = lockTimeout;
+        this.queues = new ConcurrentHashMap<>();
+    }
+
+    private static ExecutorService createExecutor(int threads) {
+        AtomicInteger index = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "distributed-keyed-executor-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 在持有{@code key}对应的锁期间执行{@code task}
+     *
+     * @return 任务执行完成后完成，加锁失败或者任务抛出异常时以该异常完成
+     */
+    public CompletableFuture<Void> execute(String key, Runnable task) {
+        return submit(key, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * 在持有{@code key}对应的锁期间执行{@code task}
+     *
+     * @return 以任务的返回值完成，加锁失败或者任务抛出异常时以该异常完成
+     */
+    public <T> CompletableFuture<T> submit(String key, Callable<T> task) {
+        Task<T> queued = new Task<>(task);
+        //在compute中入队，与空闲队列的移除互斥，入队的任务总能被调度
+        KeyQueue queue = queues.compute(key, (name, exists) -> {
+            KeyQueue keyQueue = exists != null ? exists : new KeyQueue(name);
+            keyQueue.tasks.add(queued);
+            return keyQueue;
+        });
+        schedule(queue);
+        return queued.result;
+    }
+
+    /**
+     * 当前存在排队或者正在执行的任务的键的数量
+     */
+    public int getActiveKeys() {
+        return queues.size();
+    }
+
+    private void schedule(KeyQueue queue) {
+        if (queue.scheduled.compareAndSet(false, true)) {
+            lockManager.acquire(queue.key).lockAsync(lockTimeout)
+                    .whenCompleteAsync((scope, error) -> runBatch(queue, scope, error), executor);
+        }
+    }
+
+    /**
+     * 执行一个批次，完成后解锁，仍有排队的任务时重新调度
+     */
+    private void runBatch(KeyQueue queue, Scope scope, Throwable error) {
+        try {
+            if (error != null) {
+                failBatch(queue, error);
+            } else {
+                drain(queue, scope);
+            }
+        } catch (Throwable throwable) {
+            log.error("unexpected exception in keyed executor for '{}'", queue.key, throwable);
+        } finally {
+            queue.scheduled.set(false);
+            queues.computeIfPresent(queue.key, (name, exists) -> exists == queue && queue.tasks.isEmpty() && !queue.scheduled.get() ? null : exists);
+            if (!queue.tasks.isEmpty()) {
+                schedule(queue);
+            }
+        }
+    }
+
+    private void drain(KeyQueue queue, Scope scope) {
+        long startNanos = System.nanoTime();
+        int executed = 0;
+        try {
+            //租约丢失后不再执行，剩余的任务重新加锁
+            while (executed < maxBatchSize && System.nanoTime() - startNanos < maxHoldNanos && !scope.isLeaseLost()) {
+                Task<?> task = queue.tasks.poll();
+                if (task == null) {
+                    break;
+                }
+                task.run();
+                executed++;
+            }
+        } finally {
+            try {
+                scope.close();
+            } catch (Throwable throwable) {
+                log.error("failed to unlock '{}' after {} tasks", queue.key, executed, throwable);
+            }
+        }
+    }
+
+    private void failBatch(KeyQueue queue, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        log.warn("failed to lock '{}', fail up to {} queued tasks", queue.key, maxBatchSize, cause);
+        for (int i = 0; i < maxBatchSize; i++) {
+            Task<?> task = queue.tasks.poll();
+            if (task == null) {
+                return;
+            }
+            task.result.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * 关闭自行创建的线程池，等待正在执行的批次完成
+     */
+    @Override
+    public void close() {
+        if (ownedExecutor == null) {
+            return;
+        }
+        ownedExecutor.shutdown();
+        try {
+            ownedExecutor.awaitTermination(maxHoldNanos + lockTimeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 一个键的任务队列，{@code scheduled}保证同一时刻只有一个批次在加锁或者执行
+     */
+    private static class KeyQueue {
+        private final String key;
+        private final ConcurrentLinkedQueue<Task<?>> tasks;
+        private final AtomicBoolean scheduled;
+
+        private KeyQueue(String key) {
+            this.key = key;
+            this.tasks = new ConcurrentLinkedQueue<>();
+            this.scheduled = new AtomicBoolean();
+        }
+    }
+
+    private static class Task<T> {
+        private final Callable<T> callable;
+        private final CompletableFuture<T> result;
+
+        private Task(Callable<T> callable) {
+            this.callable = callable;
+            this.result = new CompletableFuture<>();
+        }
+
+        private void run() {
+            try {
+                result.complete(callable.call());
+            } catch (Throwable throwable) {
+                result.completeExceptionally(throwable);
+            }
+        }
+    }
+}
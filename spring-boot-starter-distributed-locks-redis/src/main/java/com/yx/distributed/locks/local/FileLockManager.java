@@ -0,0 +1,187 @@
+package com.yx.distributed.locks.local;
+
+import com.yx.distributed.locks.LockOwnership;
+import com.yx.distributed.locks.retry.RetryPolicy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于文件锁的锁管理器，用于同一台主机上多个进程之间的互斥
+ * <ol>
+ *     <li>每把锁对应锁目录下的一个文件，先获得进程内的锁，再通过{@link java.nio.channels.FileChannel#tryLock(long, long, boolean)}获得文件锁，没有竞争时加锁只需一次系统调用</li>
+ *     <li>同一进程内的竞争与{@link LocalLockManager}相同，释放时直接唤醒等待者，只有获得了进程内的锁的请求才会尝试文件锁</li>
+ *     <li>其他进程释放文件锁时不会通知，等待者按重试策略定期重试</li>
+ *     <li>进程退出时操作系统自动释放其持有的文件锁，相当于租约到期；进程内的租约与{@link LocalLockManager}相同</li>
+ *     <li>fencing token保存在锁文件中，在所有进程之间递增</li>
+ *     <li>公平锁只保证本进程内释放时按顺序移交；强制解锁只能释放本进程的持有者，其他进程的文件锁由其自行释放或者随进程退出释放</li>
+ * </ol>
+ * 锁目录需要位于本地文件系统，网络文件系统上的文件锁可能不可靠；锁文件不会被删除，删除仍在使用的锁文件会使互斥失效
+ */
+@Slf4j
+public class FileLockManager extends LocalLockManager {
+    /**
+     * 文件名中保留的名称的最大长度，超出部分截断，由名称的散列值区分
+     */
+    private static final int MaxReadableNameLength = 64;
+    private static final long FnvOffsetBasis = 0xcbf29ce484222325L;
+    private static final long FnvPrime = 0x100000001b3L;
+
+    private final String namePrefix;
+    private final Path directory;
+    /**
+     * 打开的锁文件，同一个文件只使用一个通道：关闭通道时操作系统可能释放本进程在该文件上的所有文件锁
+     */
+    private final ConcurrentHashMap<Path, FileLockState.LockFile> lockFiles;
+    private final ReferenceQueue<FileLockState> collectedStates;
+    /**
+     * 保证引用本身不被回收，状态被回收后减少锁文件的引用数
+     */
+    private final Set<StateReference> stateReferences;
+    private volatile RetryPolicy retryPolicy = RetryPolicy.Default;
+
+    public FileLockManager(String namePrefix, Duration leaseTime, Path directory) {
+        this(namePrefix, leaseTime, LockOwnership.THREAD, directory);
+    }
+
+    public FileLockManager(String namePrefix, Duration leaseTime, LockOwnership ownership, Path directory) {
+        super(leaseTime, ownership);
+        this.namePrefix = namePrefix;
+        this.directory = directory;
+        this.lockFiles = new ConcurrentHashMap<>();
+        this.collectedStates = new ReferenceQueue<>();
+        this.stateReferences = ConcurrentHashMap.newKeySet();
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("can not create lock directory '" + directory + "'", e);
+        }
+        log.info("lock directory = {}", directory.toAbsolutePath());
+    }
+
+    /**
+     * 设置等待其他进程释放文件锁时的重试策略，默认每秒重试一次
+     * 本进程内的释放会直接唤醒等待者，不受重试策略影响
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        log.info("retry policy = {}", retryPolicy);
+    }
+
+    /**
+     * 锁文件的数量，包括已不再使用但对应的锁尚未被回收的锁文件
+     *
+     * @return 本锁管理器打开的锁文件的数量
+     */
+    public int getOpenLockFiles() {
+        expungeCollectedStates();
+        return lockFiles.size();
+    }
+
+    @Override
+    LocalLockState newState(LockKind kind, String name, int capacity, boolean fair) {
+        expungeCollectedStates();
+        //已被回收的锁的状态可能仍未清理，新的状态沿用其锁文件
+        FileLockState.LockFile file = lockFiles.compute(directory.resolve(fileName(name, suffix(kind))), (path, exists) -> {
+            FileLockState.LockFile lockFile = exists != null ? exists : new FileLockState.LockFile(path);
+            lockFile.states++;
+            return lockFile;
+        });
+        FileLockState state = new FileLockState(file, capacity, fair, kind == LockKind.READ);
+        stateReferences.add(new StateReference(state, file, collectedStates));
+        return state;
+    }
+
+    /**
+     * 与Redis的实现使用相同的后缀，同名的不同类型的锁互不影响
+     */
+    private static String suffix(LockKind kind) {
+        switch (kind) {
+            case REENTRANT:
+                return ".rlock";
+            case READ:
+            case WRITE:
+                return ".rwlock";
+            case FAIR:
+                return ".fairlock";
+            case SEMAPHORE:
+                return ".semaphore";
+            default:
+                return ".lock";
+        }
+    }
+
+    /**
+     * 锁文件的名称：可读的名称加上完整名称的散列值
+     * 名称中文件系统不允许或者有歧义的字符被替换，大小写不敏感的文件系统上只有大小写不同的名称也由散列值区分
+     */
+    private String fileName(String name, String suffix) {
+        String lockName = StringUtils.isEmpty(namePrefix) ? name : namePrefix + "." + name;
+        StringBuilder fileName = new StringBuilder(MaxReadableNameLength + 24);
+        for (int i = 0; i < lockName.length() && i < MaxReadableNameLength; i++) {
+            char c = lockName.charAt(i);
+            boolean safe = c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '.' || c == '-' || c == '_';
+            fileName.append(safe ? c : '_');
+        }
+        long hash = FnvOffsetBasis;
+        for (byte b : lockName.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * FnvPrime;
+        }
+        String hex = Long.toHexString(hash);
+        fileName.append('-');
+        for (int i = hex.length(); i < 16; i++) {
+            fileName.append('0');
+        }
+        return fileName.append(hex).append(suffix).toString();
+    }
+
+    /**
+     * 等待者未被唤醒时按重试策略重试，不超过进程内的租约检查间隔
+     */
+    @Override
+    long waitNanos(int failures) {
+        long delayNanos = TimeUnit.MILLISECONDS.toNanos(retryPolicy.nextDelayMillis(failures, 0));
+        return Math.min(delayNanos, super.waitNanos(failures));
+    }
+
+    /**
+     * 状态被回收后减少锁文件的引用数，不再被任何状态使用的锁文件被关闭
+     */
+    private void expungeCollectedStates() {
+        Reference<? extends FileLockState> reference;
+        while ((reference = collectedStates.poll()) != null) {
+            StateReference collected = (StateReference) reference;
+            stateReferences.remove(collected);
+            lockFiles.computeIfPresent(collected.file.getPath(), (path, lockFile) -> {
+                if (--lockFile.states > 0) {
+                    return lockFile;
+                }
+                lockFile.close();
+                return null;
+            });
+        }
+    }
+
+    /**
+     * 状态的弱引用，持有锁文件以便在状态被回收后释放
+     */
+    private static class StateReference extends WeakReference<FileLockState> {
+        private final FileLockState.LockFile file;
+
+        private StateReference(FileLockState state, FileLockState.LockFile file, ReferenceQueue<FileLockState> queue) {
+            super(state, queue);
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.yx.distributed.locks.local;
+
+import com.yx.distributed.locks.exception.LockException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 同时持有进程内的许可与锁文件上的文件锁，由{@link FileLockManager}创建
+ * <ol>
+ *     <li>锁文件的前8个字节保存fencing token，通过内存映射读写，不需要系统调用；之后每个字节对应一个许可，文件锁锁定的是这些字节区间，不需要写入内容</li>
+ *     <li>排他锁与公平锁锁定第一个许可所在的区间；读写锁的写锁以排他方式、读锁以共享方式锁定同一个区间，本进程的读锁共用一把共享锁</li>
+ *     <li>信号量的每个许可锁定一个区间，许可之间没有区别，归还时释放任意的区间</li>
+ *     <li>同一进程内对同一个区间只能持有一把文件锁，进程内的许可保证持有者之间已经互斥，文件锁按本进程的持有情况获取与释放</li>
+ * </ol>
+ * 文件通道在线程被中断时会被关闭，通道上的所有文件锁随之释放，因此访问文件时暂时清除中断状态
+ */
+@Slf4j
+final class FileLockState extends LocalLockState {
+    private static final long FencingPosition = 0;
+    private static final int FencingSize = Long.BYTES;
+    private static final long PermitPosition = FencingPosition + FencingSize;
+
+    private final LockFile file;
+    /**
+     * 读写锁的状态，读锁以共享方式锁定
+     */
+    private final boolean readWrite;
+    /**
+     * 本进程持有的文件锁，信号量每个许可一把，其他类型只使用第一把
+     */
+    private final FileLock[] locks;
+    /**
+     * 本进程持有读锁的数量，第一个读锁获取共享锁，最后一个读锁释放
+     */
+    private int readers;
+
+    FileLockState(LockFile file, int capacity, boolean fair, boolean readWrite) {
+        super(capacity, fair);
+        this.file = file;
+        this.readWrite = readWrite;
+        this.locks = new FileLock[readWrite ? 1 : capacity];
+    }
+
+    private boolean isReader(int permits) {
+        return readWrite && permits < getCapacity();
+    }
+
+    @Override
+    synchronized boolean acquireExternal(int permits) {
+        if (isReader(permits)) {
+            if (readers == 0 && (locks[0] = file.tryLock(PermitPosition, true)) == null) {
+                return false;
+            }
+            readers++;
+            return true;
+        }
+        if (locks.length == 1) {
+            return (locks[0] = file.tryLock(PermitPosition, false)) != null;
+        }
+        //信号量依次尝试本进程未持有的许可，不足时释放本次已经获取的
+        int[] acquired = new int[permits];
+        int count = 0;
+        try {
+            for (int i = 0; i < locks.length && count < permits; i++) {
+                if (locks[i] == null && (locks[i] = file.tryLock(PermitPosition + i, false)) != null) {
+                    acquired[count++] = i;
+                }
+            }
+        } finally {
+            if (count < permits) {
+                for (int i = 0; i < count; i++) {
+                    release(acquired[i]);
+                }
+            }
+        }
+        return count == permits;
+    }
+
+    @Override
+    synchronized void releaseExternal(int permits) {
+        if (isReader(permits)) {
+            if (--readers == 0) {
+                release(0);
+            }
+            return;
+        }
+        for (int i = 0, released = 0; i < locks.length && released < permits; i++) {
+            if (locks[i] != null) {
+                release(i);
+                released++;
+            }
+        }
+    }
+
+    private void release(int index) {
+        file.release(locks[index]);
+        locks[index] = null;
+    }
+
+    /**
+     * 持有全部许可时其他进程不会同时修改fencing token，否则在读写期间锁定fencing token所在的区间
+     */
+    @Override
+    long nextFencingToken(int permits) {
+        return file.nextFencingToken(permits != getCapacity());
+    }
+
+    /**
+     * 锁文件，第一次使用时打开，由{@link FileLockManager}在使用它的状态都被回收后关闭
+     */
+    @Slf4j
+    static final class LockFile {
+        private final Path path;
+        private volatile FileChannel channel;
+        /**
+         * fencing token所在区间的内存映射，与通道一起打开
+         */
+        private MappedByteBuffer fencing;
+        /**
+         * 使用该文件的状态的数量，由{@link FileLockManager}在更新注册表时修改
+         */
+        int states;
+
+        LockFile(Path path) {
+            this.path = path;
+        }
+
+        Path getPath() {
+            return path;
+        }
+
+        /**
+         * 通道被意外关闭后重新打开，此前通过该通道获取的文件锁已经被释放
+         */
+        private synchronized FileChannel channel() throws IOException {
+            FileChannel channel = this.channel;
+            if (channel == null || !channel.isOpen()) {
+                if (channel != null) {
+                    log.error("lock file '{}' has been closed unexpectedly, the file locks held by this process are lost", path);
+                }
+                channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                //文件不足8个字节时被扩展，新的文件中fencing token为0
+                this.fencing = channel.map(FileChannel.MapMode.READ_WRITE, FencingPosition, FencingSize);
+                this.channel = channel;
+            }
+            return channel;
+        }
+
+        /**
+         * 锁定{@code position}处的一个字节
+         *
+         * @return 被其他进程或者本进程的其他锁管理器锁定时返回空
+         */
+        FileLock tryLock(long position, boolean shared) {
+            boolean interrupted = Thread.interrupted();
+            try {
+                return channel().tryLock(position, 1, shared);
+            } catch (OverlappingFileLockException e) {
+                //同一进程内的文件锁由虚拟机管理，其他锁管理器使用同一目录时会出现重叠
+                return null;
+            } catch (IOException e) {
+                log.error("failed to lock file '{}'", path, e);
+                throw new LockException();
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        void release(FileLock lock) {
+            boolean interrupted = Thread.interrupted();
+            try {
+                lock.release();
+            } catch (IOException e) {
+                log.error("failed to release file lock of '{}'", path, e);
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * 递增并返回保存在文件中的fencing token，新的文件从1开始
+         * 本进程内对同一个文件的修改依次执行，同一个区间只能锁定一次
+         *
+         * @param exclusive 是否需要锁定fencing token所在的区间，其他进程可能同时持有锁时需要
+         */
+        synchronized long nextFencingToken(boolean exclusive) {
+            boolean interrupted = Thread.interrupted();
+            try {
+                FileChannel channel = channel();
+                FileLock lock = exclusive ? channel.lock(FencingPosition, FencingSize, false) : null;
+                try {
+                    long next = fencing.getLong(0) + 1;
+                    fencing.putLong(0, next);
+                    return next;
+                } finally {
+                    if (lock != null) {
+                        lock.release();
+                    }
+                }
+            } catch (IOException e) {
+                log.error("failed to update fencing token in '{}'", path, e);
+                throw new LockException();
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * 关闭通道并丢弃内存映射，映射在缓冲区被回收后才解除，不再持有引用以免关闭后的锁文件一直被映射
+         */
+        synchronized void close() {
+            FileChannel channel = this.channel;
+            if (channel == null) {
+                return;
+            }
+            this.fencing = null;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("failed to close lock file '{}'", path, e);
+            }
+        }
+    }
+}
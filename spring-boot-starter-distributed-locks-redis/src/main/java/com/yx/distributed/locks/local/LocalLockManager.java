@@ -0,0 +1,1298 @@
+package com.yx.distributed.locks.local;
+
+import com.yx.distributed.locks.Action;
+import com.yx.distributed.locks.DistributedLockManager;
+import com.yx.distributed.locks.DistributedSemaphore;
+import com.yx.distributed.locks.HeldLock;
+import com.yx.distributed.locks.Lock;
+import com.yx.distributed.locks.LockOwnership;
+import com.yx.distributed.locks.ReadWriteLock;
+import com.yx.distributed.locks.Scope;
+import com.yx.distributed.locks.exception.LockException;
+import com.yx.distributed.locks.exception.TimeoutException;
+import com.yx.distributed.locks.exception.UnlockException;
+import com.yx.distributed.locks.metrics.LockMetrics;
+import com.yx.distributed.locks.retry.RetryPolicy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.StringUtils;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 进程内的锁管理器，适用于单实例部署以及不依赖Redis的测试
+ * <ol>
+ *     <li>与Redis的实现具有相同的接口与语义：fencing token、租约丢失回调、强制解锁以及超时</li>
+ *     <li>锁的状态是一个原子计数，加锁、解锁只需一次CAS，不访问网络</li>
+ *     <li>释放时直接唤醒等待者，不需要重试策略，{@link Lock#withRetryPolicy(RetryPolicy)}返回原锁</li>
+ *     <li>持有期间租约自动有效；绑定线程的持有者所在线程结束后未解锁时，租约到期后由其他加锁请求回收</li>
+ * </ol>
+ */
+@Slf4j
+public class LocalLockManager implements DistributedLockManager, DisposableBean {
+    /**
+     * {@link Lock#lock()}不设超时
+     */
+    private static final Duration Unbounded = Duration.ofMillis(Long.MAX_VALUE);
+    /**
+     * 读写锁的容量，写锁占用全部许可
+     */
+    private static final int ReadWriteCapacity = Integer.MAX_VALUE;
+
+    private final long leaseNanos;
+    private final LockOwnership ownership;
+    private final EnumMap<LockKind, ConcurrentHashMap<String, LockerReference>> lockers;
+    private final ReferenceQueue<Locker> collectedLockers;
+    /**
+     * 执行异步加锁的重试、超时以及租约丢失的回调
+     */
+    private final ScheduledExecutorService asyncExecutor;
+    private volatile LockMetrics metrics = LockMetrics.None;
+    /**
+     * 是否记录时长，读取时钟的开销与加锁本身相当，不记录监控指标时不读取
+     */
+    private volatile boolean timed;
+    private volatile boolean closed;
+
+    public LocalLockManager(Duration leaseTime) {
+        this(leaseTime, LockOwnership.THREAD);
+    }
+
+    public LocalLockManager(Duration leaseTime, LockOwnership ownership) {
+        if (leaseTime.isNegative() || leaseTime.isZero()) {
+            throw new IllegalArgumentException("leaseTime must be positive");
+        }
+        this.leaseNanos = leaseTime.toNanos();
+        this.ownership = ownership;
+        this.lockers = new EnumMap<>(LockKind.class);
+        for (LockKind kind : LockKind.values()) {
+            this.lockers.put(kind, new ConcurrentHashMap<>());
+        }
+        this.collectedLockers = new ReferenceQueue<>();
+        this.asyncExecutor = createAsyncExecutor();
+    }
+
+    private static ScheduledExecutorService createAsyncExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "distributed-lock-local-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * 超时时长的纳秒数，超时时间过长时不溢出
+     */
+    private static long timeoutNanos(Duration timeout) {
+        try {
+            return timeout.toNanos();
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * 记录时长时返回当前时间，否则返回0
+     */
+    private long clock() {
+        return timed ? System.nanoTime() : 0;
+    }
+
+    private static long elapsedNanos(long startNanos) {
+        return startNanos != 0 ? System.nanoTime() - startNanos : 0;
+    }
+
+    @Override
+    public Lock acquire(String name) {
+        return exclusiveLocker(name);
+    }
+
+    private Locker exclusiveLocker(String name) {
+        Locker locker = registered(LockKind.EXCLUSIVE, name);
+        if (locker != null) {
+            return locker;
+        }
+        return register(LockKind.EXCLUSIVE, name, new Locker(name, LockKind.EXCLUSIVE, newState(LockKind.EXCLUSIVE, name, 1, false), this));
+    }
+
+    @Override
+    public Lock acquireReentrant(String name) {
+        Locker locker = registered(LockKind.REENTRANT, name);
+        if (locker != null) {
+            return locker;
+        }
+        return register(LockKind.REENTRANT, name, new Locker(name, LockKind.REENTRANT, newState(LockKind.REENTRANT, name, 1, false), this));
+    }
+
+    @Override
+    public ReadWriteLock acquireReadWrite(String name) {
+        Locker readLocker = registered(LockKind.READ, name);
+        Locker writeLocker = registered(LockKind.WRITE, name);
+        if (readLocker == null || writeLocker == null) {
+            //读锁与写锁共用同一个状态，其中一个仍在使用时沿用其状态
+            LocalLockState state = readLocker != null ? readLocker.states[0] :
+                    writeLocker != null ? writeLocker.states[0] : newState(LockKind.READ, name, ReadWriteCapacity, false);
+            if (readLocker == null) {
+                readLocker = register(LockKind.READ, name, new Locker(name, LockKind.READ, state, this));
+            }
+            if (writeLocker == null) {
+                writeLocker = register(LockKind.WRITE, name, new Locker(name, LockKind.WRITE, readLocker.states[0], this));
+            }
+        }
+        return new ReadWriteLocker(readLocker, writeLocker);
+    }
+
+    @Override
+    public Lock acquireFair(String name) {
+        Locker locker = registered(LockKind.FAIR, name);
+        if (locker != null) {
+            return locker;
+        }
+        return register(LockKind.FAIR, name, new Locker(name, LockKind.FAIR, newState(LockKind.FAIR, name, 1, true), this));
+    }
+
+    @Override
+    public Lock acquireAll(Collection<String> names) {
+        if (names == null || names.isEmpty()) {
+            throw new IllegalArgumentException("names can not be null or empty");
+        }
+        //排序去重，保证所有调用方以相同的顺序获取这组锁
+        TreeSet<String> sortedNames = new TreeSet<>();
+        for (String name : names) {
+            if (StringUtils.isEmpty(name)) {
+                throw new IllegalArgumentException("name can not be null or empty");
+            }
+            sortedNames.add(name);
+        }
+        String groupKey = groupKey(sortedNames);
+        Locker locker = registered(LockKind.GROUP, groupKey);
+        if (locker != null) {
+            return locker;
+        }
+        //组内的每把锁与同名的排他锁共用状态，并引用排他锁，使其在组存在期间不被回收
+        Locker[] members = new Locker[sortedNames.size()];
+        int i = 0;
+        for (String name : sortedNames) {
+            members[i++] = exclusiveLocker(name);
+        }
+        return register(LockKind.GROUP, groupKey, new Locker(String.join(",", sortedNames), members, this));
+    }
+
+    /**
+     * 一组锁在注册表中的键，每个名称前加上其长度
+     * 名称中可能包含逗号，以逗号拼接时["a,b"]与["a", "b"]会得到相同的键
+     */
+    private static String groupKey(TreeSet<String> sortedNames) {
+        StringBuilder key = new StringBuilder();
+        for (String name : sortedNames) {
+            key.append(name.length()).append(':').append(name);
+        }
+        return key.toString();
+    }
+
+    @Override
+    public DistributedSemaphore acquireSemaphore(String name, int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("permits must be positive");
+        }
+        Locker locker = registered(LockKind.SEMAPHORE, name);
+        if (locker == null) {
+            locker = register(LockKind.SEMAPHORE, name, new Locker(name, LockKind.SEMAPHORE, newState(LockKind.SEMAPHORE, name, permits, false), this));
+        }
+        if (locker.states[0].getCapacity() != permits) {
+            throw new IllegalArgumentException("semaphore '" + name + "' has been acquired with " + locker.states[0].getCapacity() + " permits");
+        }
+        return new Semaphore(locker, permits);
+    }
+
+    /**
+     * 创建锁的状态，读写锁的读锁与写锁共用{@link LockKind#READ}的状态，一组锁使用组内排他锁的状态
+     * 子类可以在进程内的状态之外再获取其他资源，例如文件锁
+     */
+    LocalLockState newState(LockKind kind, String name, int capacity, boolean fair) {
+        return new LocalLockState(capacity, fair);
+    }
+
+    /**
+     * 等待者未被唤醒时最多等待多久再重试一次，同时检查持有者的租约
+     * 进程内的释放总会唤醒等待者，因此只在租约检查时重试
+     *
+     * @param failures 本次加锁已经失败的次数，从1开始
+     */
+    long waitNanos(int failures) {
+        return leaseNanos;
+    }
+
+    /**
+     * 查找已注册且尚未被回收的锁，不存在时返回空
+     */
+    private Locker registered(LockKind kind, String name) {
+        if (StringUtils.isEmpty(name)) {
+            throw new IllegalArgumentException("name can not be null or empty");
+        }
+        LockerReference reference = lockers.get(kind).get(name);
+        return reference != null ? reference.get() : null;
+    }
+
+    /**
+     * 注册{@code locker}，已有其他线程注册了同名的锁时返回已注册的锁
+     */
+    private Locker register(LockKind kind, String name, Locker locker) {
+        expungeCollectedLockers();
+        ConcurrentHashMap<String, LockerReference> registry = lockers.get(kind);
+        LockerReference created = new LockerReference(kind, name, locker, collectedLockers);
+        locker.reference = created;
+        while (true) {
+            LockerReference exists = registry.putIfAbsent(name, created);
+            if (exists == null) {
+                return locker;
+            }
+            Locker registered = exists.get();
+            if (registered != null) {
+                return registered;
+            }
+            if (registry.replace(name, exists, created)) {
+                return locker;
+            }
+        }
+    }
+
+    /**
+     * 清理已被回收的锁在注册表中留下的引用
+     */
+    private void expungeCollectedLockers() {
+        Reference<? extends Locker> reference;
+        while ((reference = collectedLockers.poll()) != null) {
+            LockerReference collected = (LockerReference) reference;
+            lockers.get(collected.kind).remove(collected.name, collected);
+        }
+    }
+
+    /**
+     * 注册表中的锁的数量，包括已不再使用但尚未被回收的锁
+     *
+     * @return
+     */
+    public int getRegisteredLocks() {
+        expungeCollectedLockers();
+        int registered = 0;
+        for (ConcurrentHashMap<String, LockerReference> registry : lockers.values()) {
+            registered += registry.size();
+        }
+        return registered;
+    }
+
+    /**
+     * 当前的持有者的数量，共享锁的每个持有者各算一个
+     *
+     * @return
+     */
+    public int getHeldLocks() {
+        AtomicInteger held = new AtomicInteger();
+        for (ConcurrentHashMap<String, LockerReference> registry : lockers.values()) {
+            for (LockerReference reference : registry.values()) {
+                Locker locker = reference.pinned;
+                if (locker != null) {
+                    locker.forEachOwner(owner -> held.incrementAndGet());
+                }
+            }
+        }
+        return held.get();
+    }
+
+    /**
+     * 租约只在持有者所在的线程结束后才会到期，剩余租约均为-1；未设置监控指标时不记录加锁时间，持有时长为-1
+     */
+    @Override
+    public List<HeldLock> listHeldLocks() {
+        long nowNanos = System.nanoTime();
+        List<HeldLock> held = new ArrayList<>();
+        for (ConcurrentHashMap<String, LockerReference> registry : lockers.values()) {
+            for (LockerReference reference : registry.values()) {
+                Locker locker = reference.pinned;
+                if (locker != null) {
+                    locker.forEachOwner(owner -> held.add(owner.toHeldLock(nowNanos)));
+                }
+            }
+        }
+        return held;
+    }
+
+    /**
+     * 设置监控指标，默认不记录
+     */
+    public void setMetrics(LockMetrics metrics) {
+        this.metrics = metrics;
+        this.timed = metrics != LockMetrics.None;
+        metrics.bindHeldLocks(this::getHeldLocks);
+    }
+
+    /**
+     * 立即释放锁的所有持有者，持有者的租约丢失回调被执行，此后持有者解锁时抛出{@link UnlockException}
+     * 一组锁的持有者在组内任意一把锁被强制解锁时释放整组锁
+     */
+    @Override
+    public void forceUnlock(Lock lock) {
+        if (!(lock instanceof Locker)) {
+            throw new IllegalArgumentException("unexpected lock instance: " + lock.getClass().getName());
+        }
+        Locker locker = (Locker) lock;
+        List<LockOwner> owners = new ArrayList<>();
+        for (LocalLockState state : locker.states) {
+            state.forEachHolder(owners::add);
+        }
+        for (LockOwner owner : owners) {
+            owner.locker.revoke(owner);
+        }
+        log.info("force unlock '{}', {} owners released", locker.getName(), owners.size());
+    }
+
+    /**
+     * 停止异步加锁的调度，之后的异步加锁以{@link LockException}结束，等待中的异步加锁不会完成
+     * 仍被持有的锁不受影响，同步的加锁、解锁以及强制解锁仍然可用，租约丢失回调改为在调用方的线程中执行
+     */
+    @Override
+    public void destroy() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        asyncExecutor.shutdownNow();
+        log.info("local lock manager closed, {} locks are still held", getHeldLocks());
+    }
+
+    /**
+     * 锁的类型，决定占用的许可数以及是否可重入
+     */
+    enum LockKind {
+        EXCLUSIVE(false),
+        /**
+         * 持有者重入时只增加持有次数
+         */
+        REENTRANT(true),
+        READ(false),
+        WRITE(false),
+        FAIR(false),
+        /**
+         * 一组排他锁，依次获取组内的每把锁，任意一把失败时归还已获取的锁
+         */
+        GROUP(false),
+        SEMAPHORE(false);
+
+        final boolean reentrant;
+
+        LockKind(boolean reentrant) {
+            this.reentrant = reentrant;
+        }
+    }
+
+    private static class ReadWriteLocker implements ReadWriteLock {
+        private final Locker readLocker;
+        private final Locker writeLocker;
+
+        private ReadWriteLocker(Locker readLocker, Locker writeLocker) {
+            this.readLocker = readLocker;
+            this.writeLocker = writeLocker;
+        }
+
+        @Override
+        public Lock readLock() {
+            return readLocker;
+        }
+
+        @Override
+        public Lock writeLock() {
+            return writeLocker;
+        }
+    }
+
+    private static class Semaphore implements DistributedSemaphore {
+        private final Locker locker;
+        private final int permits;
+
+        private Semaphore(Locker locker, int permits) {
+            this.locker = locker;
+            this.permits = permits;
+        }
+
+        @Override
+        public String getName() {
+            return locker.name;
+        }
+
+        @Override
+        public int getPermits() {
+            return permits;
+        }
+
+        @Override
+        public Scope acquire(int permits, Duration timeout) throws TimeoutException {
+            checkPermits(permits);
+            LockOwner owner = locker.tryLockOwner(timeout, permits);
+            if (owner != null) {
+                return owner;
+            }
+            throw new TimeoutException();
+        }
+
+        @Override
+        public Scope tryAcquire(int permits) {
+            checkPermits(permits);
+            return locker.tryLockOnce(permits);
+        }
+
+        @Override
+        public void release(Scope scope) {
+            if (!(scope instanceof LockOwner) || ((LockOwner) scope).locker != locker) {
+                throw new IllegalArgumentException("the scope is not acquired from semaphore '" + getName() + "'");
+            }
+            scope.close();
+        }
+
+        private void checkPermits(int permits) {
+            if (permits <= 0 || permits > this.permits) {
+                throw new IllegalArgumentException("permits must be between 1 and " + this.permits);
+            }
+        }
+    }
+
+    /**
+     * 注册表对锁的弱引用，锁被回收后用于从对应的注册表中移除
+     */
+    private static class LockerReference extends WeakReference<Locker> {
+        private final LockKind kind;
+        private final String name;
+        /**
+         * 存在持有者时强引用锁，保证持有期间锁不会被回收，之后以相同名称获取的仍是同一把锁
+         */
+        private volatile Locker pinned;
+
+        private LockerReference(LockKind kind, String name, Locker locker, ReferenceQueue<Locker> queue) {
+            super(locker, queue);
+            this.kind = kind;
+            this.name = name;
+        }
+    }
+
+    @Slf4j
+    static class Locker implements Lock {
+        final String name;
+        final LockKind kind;
+        /**
+         * 锁的状态，一组锁对应组内每把锁的状态，按名称排序
+         */
+        final LocalLockState[] states;
+        /**
+         * 一组锁引用的组内的排他锁，其他类型为空
+         */
+        private final Locker[] members;
+        private final LocalLockManager lockManager;
+        /**
+         * 持有者的数量，从0变为1时固定注册表中的引用，减为0时解除
+         */
+        private final AtomicInteger owners;
+        /**
+         * 注册表中的引用，注册前设置
+         */
+        private LockerReference reference;
+
+        private Locker(String name, LockKind kind, LocalLockState state, LocalLockManager lockManager) {
+            this.name = name;
+            this.kind = kind;
+            this.states = new LocalLockState[]{state};
+            this.members = null;
+            this.lockManager = lockManager;
+            this.owners = new AtomicInteger();
+        }
+
+        private Locker(String name, Locker[] members, LocalLockManager lockManager) {
+            this.name = name;
+            this.kind = LockKind.GROUP;
+            this.states = new LocalLockState[members.length];
+            for (int i = 0; i < members.length; i++) {
+                this.states[i] = members[i].states[0];
+            }
+            this.members = members;
+            this.lockManager = lockManager;
+            this.owners = new AtomicInteger();
+        }
+
+        private void pin() {
+            if (owners.getAndIncrement() == 0) {
+                reference.pinned = this;
+            }
+        }
+
+        /**
+         * 与并发的{@link #pin()}交错时，以解除后的持有者数量为准重新固定
+         */
+        private void unpin() {
+            if (owners.decrementAndGet() == 0) {
+                reference.pinned = null;
+                if (owners.get() > 0) {
+                    reference.pinned = this;
+                }
+            }
+        }
+
+        private int permitsOf(int permits) {
+            return kind == LockKind.WRITE ? ReadWriteCapacity : permits;
+        }
+
+        /**
+         * 依次获取每个状态的许可，任意一个失败时归还已获取的许可
+         *
+         * @param waiter 已经登记的等待者，未登记时为空
+         */
+        private boolean tryAcquireStates(int permits, CompletableFuture<Boolean> waiter) {
+            int required = permitsOf(permits);
+            boolean reader = kind == LockKind.READ;
+            int acquired = 0;
+            try {
+                while (acquired < states.length && states[acquired].tryAcquire(required, reader, waiter)) {
+                    acquired++;
+                }
+            } finally {
+                if (acquired < states.length) {
+                    for (int i = 0; i < acquired; i++) {
+                        states[i].releasePermits(required, waiter);
+                    }
+                }
+            }
+            return acquired == states.length;
+        }
+
+        /**
+         * 许可已经获取，登记新的持有者
+         */
+        private LockOwner onAcquired(Thread thread, int permits, long startNanos, long waitNanos) {
+            int required = permitsOf(permits);
+            long fencingToken = 0;
+            long sequence = 0;
+            try {
+                for (int i = 0; i < states.length; i++) {
+                    long next = states[i].nextFencingToken(required);
+                    fencingToken = Math.max(fencingToken, next);
+                    if (i == 0) {
+                        sequence = next;
+                    }
+                }
+            } catch (RuntimeException e) {
+                for (LocalLockState state : states) {
+                    state.releasePermits(required, null);
+                }
+                throw e;
+            }
+            LockOwner owner = new LockOwner(this, required, thread, sequence, fencingToken);
+            for (LocalLockState state : states) {
+                state.addHolder(owner);
+            }
+            pin();
+            if (startNanos != 0) {
+                long nowNanos = System.nanoTime();
+                owner.acquiredNanos = nowNanos;
+                lockManager.metrics.acquired(name, nowNanos - startNanos, waitNanos, 0);
+            }
+            return owner;
+        }
+
+        /**
+         * 释放{@code owner}的许可，由解锁、强制解锁以及租约到期中先执行的一方完成
+         *
+         * @return 已经被释放时返回 false
+         */
+        private boolean release(LockOwner owner) {
+            if (!owner.released.compareAndSet(false, true)) {
+                return false;
+            }
+            for (LocalLockState state : states) {
+                state.release(owner, owner.permits);
+            }
+            unpin();
+            return true;
+        }
+
+        private void revoke(LockOwner owner) {
+            if (release(owner)) {
+                owner.leaseLost();
+            }
+        }
+
+        /**
+         * 回收所在线程已经结束且租约到期的持有者
+         */
+        private void expireLeases() {
+            long nowNanos = System.nanoTime();
+            for (LocalLockState state : states) {
+                state.forEachHolder(owner -> {
+                    if (owner.isLeaseExpired(nowNanos) && owner.locker.release(owner)) {
+                        log.warn("lease of '{}' expired, the owner thread has terminated without unlocking", owner.locker.getName());
+                        owner.leaseLost();
+                    }
+                });
+            }
+        }
+
+        private void forEachOwner(Consumer<LockOwner> action) {
+            states[0].forEachHolder(owner -> {
+                if (owner.locker == this) {
+                    action.accept(owner);
+                }
+            });
+        }
+
+        /**
+         * 当前线程可以释放的持有者，不存在时返回空
+         */
+        private LockOwner releasableOwner() {
+            return findOwner(true);
+        }
+
+        /**
+         * 查找该锁的持有者，读锁与写锁共用状态，只查找属于该锁的持有者
+         *
+         * @param releasable 只查找当前线程可以释放的持有者
+         */
+        private LockOwner findOwner(boolean releasable) {
+            LocalLockState state = states[0];
+            Set<LockOwner> holders = state.getHolders();
+            if (holders == null) {
+                LockOwner owner = state.getOwner();
+                return owner != null && owner.locker == this && (!releasable || owner.isReleasableByCurrentThread()) ? owner : null;
+            }
+            for (LockOwner owner : holders) {
+                if (owner.locker == this && (!releasable || owner.isReleasableByCurrentThread())) {
+                    return owner;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 按照锁管理器的所有权模式决定持有者是否绑定当前线程
+         * 可重入锁需要通过线程识别重入，总是绑定线程
+         */
+        private Thread currentOwnerThread() {
+            return kind.reentrant || lockManager.ownership == LockOwnership.THREAD ? Thread.currentThread() : null;
+        }
+
+        private LockOwner tryReenter(long startNanos) {
+            if (!kind.reentrant) {
+                return null;
+            }
+            LockOwner owner = releasableOwner();
+            if (owner == null) {
+                return null;
+            }
+            owner.holds.incrementAndGet();
+            lockManager.metrics.acquired(name, elapsedNanos(startNanos), 0, 0);
+            return owner;
+        }
+
+        private void enqueue(CompletableFuture<Boolean> waiter) {
+            for (LocalLockState state : states) {
+                state.enqueue(waiter);
+            }
+        }
+
+        private void leave(CompletableFuture<Boolean> waiter) {
+            boolean cancelled = waiter.cancel(false);
+            for (LocalLockState state : states) {
+                state.leave(waiter, cancelled);
+            }
+        }
+
+        /**
+         * 被唤醒后从组内其他锁的队列中移除，唤醒它的锁已经将其移出队列
+         */
+        private void woken(CompletableFuture<Boolean> waiter) {
+            if (states.length > 1) {
+                for (LocalLockState state : states) {
+                    state.remove(waiter);
+                }
+            }
+        }
+
+        @Override
+        public Scope lock() {
+            while (true) {
+                LockOwner owner = tryLockOwner(Unbounded, 1);
+                if (owner != null) {
+                    return owner;
+                }
+            }
+        }
+
+        @Override
+        public Scope lock(Duration timeout) throws TimeoutException {
+            LockOwner owner = tryLockOwner(timeout, 1);
+            if (owner != null) {
+                return owner;
+            }
+            throw new TimeoutException();
+        }
+
+        @Override
+        public CompletableFuture<Scope> lockAsync(Duration timeout) {
+            long startNanos = System.nanoTime();
+            CompletableFuture<Scope> result = new CompletableFuture<>();
+            try {
+                //异步加锁的持有者总是不绑定线程
+                if (tryAcquireStates(1, null)) {
+                    result.complete(onAcquired(null, 1, startNanos, 0));
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+                return result;
+            }
+            try {
+                new AsyncAttempt(this, result, startNanos, timeoutNanos(timeout)).start();
+            } catch (RejectedExecutionException e) {
+                log.error("failed to lock '{}' asynchronously, the lock manager has been closed", getName());
+                result.completeExceptionally(new LockException());
+            }
+            return result;
+        }
+
+        @Override
+        public String getName() {
+            return this.name;
+        }
+
+        @Override
+        public boolean tryLock() {
+            return tryLockOnce(1) != null;
+        }
+
+        private LockOwner tryLockOnce(int permits) {
+            long startNanos = lockManager.clock();
+            LockOwner reentered = tryReenter(startNanos);
+            if (reentered != null) {
+                return reentered;
+            }
+            checkNotHeld();
+            if (tryAcquireStates(permits, null)) {
+                return onAcquired(currentOwnerThread(), permits, startNanos, 0);
+            }
+            //持有者所在线程已经结束时回收后再尝试一次
+            expireLeases();
+            if (tryAcquireStates(permits, null)) {
+                return onAcquired(currentOwnerThread(), permits, startNanos, 0);
+            }
+            lockManager.metrics.acquireTimedOut(name, elapsedNanos(startNanos), 0);
+            return null;
+        }
+
+        /**
+         * 线程模式下不可重入，信号量允许同一线程持有多份许可
+         */
+        private void checkNotHeld() {
+            if (kind != LockKind.SEMAPHORE && isHeldByCurrentThread()) {
+                log.error("attempt to lock '{}', already locked by current thread.", getName());
+                throw new LockException();
+            }
+        }
+
+        @Override
+        public boolean tryLock(Duration timeout) {
+            return tryLockOwner(timeout, 1) != null;
+        }
+
+        private LockOwner tryLockOwner(Duration timeout, int permits) {
+            long startNanos = lockManager.clock();
+            LockOwner reentered = tryReenter(startNanos);
+            if (reentered != null) {
+                return reentered;
+            }
+            checkNotHeld();
+            Thread thread = currentOwnerThread();
+            if (tryAcquireStates(permits, null)) {
+                return onAcquired(thread, permits, startNanos, 0);
+            }
+
+            long waitStartNanos = System.nanoTime();
+            long timeoutNanos = timeoutNanos(timeout);
+            int failures = 0;
+            CompletableFuture<Boolean> waiter = null;
+            if (kind == LockKind.WRITE) {
+                states[0].writerWaiting();
+            }
+            try {
+                //先登记再检查，检查之后的释放一定会唤醒该等待者
+                waiter = new CompletableFuture<>();
+                enqueue(waiter);
+                while (true) {
+                    if (tryAcquireStates(permits, waiter)) {
+                        leave(waiter);
+                        return onAcquired(thread, permits, startNanos, System.nanoTime() - waitStartNanos);
+                    }
+                    expireLeases();
+                    long remaining = timeoutNanos - (System.nanoTime() - waitStartNanos);
+                    Boolean signal = remaining > 0 ? await(waiter, Math.min(remaining, lockManager.waitNanos(++failures))) : null;
+                    if (signal == null && timeoutNanos - (System.nanoTime() - waitStartNanos) > 0) {
+                        //未被唤醒，保留在队列中的位置再次尝试
+                        continue;
+                    }
+                    if (signal == null) {
+                        //已经超时，取消失败说明取消的同时被唤醒
+                        leave(waiter);
+                        signal = waiter.isCancelled() ? null : waiter.join();
+                    }
+                    if (signal == LocalLockState.HandedOff) {
+                        return onAcquired(thread, permits, startNanos, System.nanoTime() - waitStartNanos);
+                    }
+                    if (signal == null) {
+                        log.info("tryLock timeout,duration: {}ms", timeout.toMillis());
+                        lockManager.metrics.acquireTimedOut(name, elapsedNanos(startNanos), 0);
+                        return null;
+                    }
+                    woken(waiter);
+                    waiter = new CompletableFuture<>();
+                    enqueue(waiter);
+                }
+            } catch (InterruptedException e) {
+                lockManager.metrics.acquireFailed(elapsedNanos(startNanos), 0);
+                log.error("failed to lock,the thread is interrupted", e);
+                throw new LockException();
+            } catch (RuntimeException e) {
+                leave(waiter);
+                lockManager.metrics.acquireFailed(elapsedNanos(startNanos), 0);
+                throw e;
+            } finally {
+                if (kind == LockKind.WRITE) {
+                    states[0].writerLeft();
+                }
+            }
+        }
+
+        /**
+         * 等待被唤醒，超时返回空
+         * 被中断时放弃等待，若同时已经被移交了锁则释放
+         */
+        private Boolean await(CompletableFuture<Boolean> waiter, long timeoutNanos) throws InterruptedException {
+            try {
+                return waiter.get(timeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (java.util.concurrent.TimeoutException e) {
+                return null;
+            } catch (InterruptedException e) {
+                leave(waiter);
+                if (!waiter.isCancelled() && waiter.join() == LocalLockState.HandedOff) {
+                    for (LocalLockState state : states) {
+                        state.releasePermits(1, null);
+                    }
+                }
+                throw e;
+            } catch (ExecutionException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void unlock() {
+            LockOwner owner = releasableOwner();
+            if (owner == null) {
+                log.error("attempt to unlock '{}', not locked by current thread.", getName());
+                throw new UnlockException();
+            }
+            owner.close();
+        }
+
+        /**
+         * 释放{@code owner}持有的锁
+         */
+        private void unlock(LockOwner owner) {
+            if (!release(owner)) {
+                log.error("attempt to unlock '{}', not locked by current owner.", getName());
+                throw new UnlockException();
+            }
+            if (owner.acquiredNanos != 0) {
+                lockManager.metrics.released(name, System.nanoTime() - owner.acquiredNanos);
+            }
+        }
+
+        @Override
+        public void tryLockWith(Action acquireSuccess, Action acquireFailed) {
+            Scope scope = tryLockOnce(1);
+            tryLockWith(scope, acquireSuccess, acquireFailed);
+        }
+
+        @Override
+        public void tryLockWith(Duration timeout, Action acquireSuccess, Action acquireFailed) {
+            Scope scope = tryLockOwner(timeout, 1);
+            tryLockWith(scope, acquireSuccess, acquireFailed);
+        }
+
+        private void tryLockWith(Scope scope, Action acquireSuccess, Action acquireFailed) {
+            if (scope != null) {
+                try {
+                    acquireSuccess.execute();
+                } catch (Throwable throwable) {
+                    log.error("unexpected exception in 'acquireSuccess'", throwable);
+                } finally {
+                    scope.close();
+                }
+            } else {
+                try {
+                    acquireFailed.execute();
+                } catch (Throwable throwable) {
+                    log.error("unexpected exception in 'acquireFailed'", throwable);
+                }
+            }
+        }
+
+        @Override
+        public long getFencingToken() {
+            LockOwner owner = releasableOwner();
+            return owner != null ? owner.fencingToken : 0;
+        }
+
+        /**
+         * 释放时直接唤醒等待者，没有需要重试的场景，返回原锁
+         */
+        @Override
+        public Lock withRetryPolicy(RetryPolicy retryPolicy) {
+            return this;
+        }
+
+        @Override
+        public boolean isHeldByCurrentThread() {
+            LockOwner owner = findOwner(true);
+            return owner != null && owner.thread == Thread.currentThread();
+        }
+    }
+
+    /**
+     * 一次异步加锁，等待期间不占用线程
+     * 所有的尝试都在异步线程中执行：被唤醒后重试，定时任务检查租约与超时并主动重试
+     */
+    private static class AsyncAttempt {
+        private final Locker locker;
+        private final CompletableFuture<Scope> result;
+        private final long startNanos;
+        private final long timeoutNanos;
+        private volatile CompletableFuture<Boolean> waiter;
+        private volatile ScheduledFuture<?> timer;
+        /**
+         * 定时检查的次数，由依次执行的定时任务访问
+         */
+        private int failures;
+
+        private AsyncAttempt(Locker locker, CompletableFuture<Scope> result, long startNanos, long timeoutNanos) {
+            this.locker = locker;
+            this.result = result;
+            this.startNanos = startNanos;
+            this.timeoutNanos = timeoutNanos;
+        }
+
+        private void start() {
+            if (locker.kind == LockKind.WRITE) {
+                locker.states[0].writerWaiting();
+                result.whenComplete((scope, throwable) -> locker.states[0].writerLeft());
+            }
+            scheduleTimer();
+            //所有的尝试都在异步线程中依次执行
+            locker.lockManager.asyncExecutor.execute(this::attempt);
+        }
+
+        private void attempt() {
+            CompletableFuture<Boolean> waiter = new CompletableFuture<>();
+            this.waiter = waiter;
+            locker.enqueue(waiter);
+            boolean acquired;
+            try {
+                acquired = locker.tryAcquireStates(1, waiter);
+            } catch (RuntimeException e) {
+                fail(waiter, e);
+                return;
+            }
+            if (acquired) {
+                locker.leave(waiter);
+                complete();
+                return;
+            }
+            if (timeoutNanos - (System.nanoTime() - startNanos) <= 0) {
+                giveUp(waiter);
+                return;
+            }
+            waiter.thenAccept(signal -> locker.lockManager.asyncExecutor.execute(() -> {
+                if (signal == LocalLockState.HandedOff) {
+                    complete();
+                } else if (!result.isDone()) {
+                    //定时重试可能已经加锁成功
+                    locker.woken(waiter);
+                    attempt();
+                }
+            }));
+        }
+
+        /**
+         * 未被唤醒时保留在队列中的位置主动重试，已经被唤醒时由唤醒后的重试处理
+         * 与唤醒后的重试都在异步线程中执行，不会同时进行
+         */
+        private void retry() {
+            CompletableFuture<Boolean> waiter = this.waiter;
+            if (waiter == null || waiter.isDone()) {
+                return;
+            }
+            boolean acquired;
+            try {
+                acquired = locker.tryAcquireStates(1, waiter);
+            } catch (RuntimeException e) {
+                fail(waiter, e);
+                return;
+            }
+            if (acquired) {
+                locker.leave(waiter);
+                complete();
+            }
+        }
+
+        private void fail(CompletableFuture<Boolean> waiter, RuntimeException e) {
+            locker.leave(waiter);
+            timer.cancel(false);
+            locker.lockManager.metrics.acquireFailed(System.nanoTime() - startNanos, 0);
+            result.completeExceptionally(e);
+        }
+
+        /**
+         * 超时后放弃等待，放弃的同时被移交了锁时仍然加锁成功
+         */
+        private void giveUp(CompletableFuture<Boolean> waiter) {
+            locker.leave(waiter);
+            if (!waiter.isCancelled()) {
+                if (waiter.join() == LocalLockState.HandedOff) {
+                    complete();
+                }
+                return;
+            }
+            timer.cancel(false);
+            log.info("tryLock timeout,duration: {}ms", TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+            locker.lockManager.metrics.acquireTimedOut(locker.name, System.nanoTime() - startNanos, 0);
+            result.completeExceptionally(new TimeoutException());
+        }
+
+        /**
+         * 已经获得锁，超时的同时获得锁时释放
+         */
+        private void complete() {
+            timer.cancel(false);
+            LockOwner owner;
+            try {
+                owner = locker.onAcquired(null, 1, startNanos, System.nanoTime() - startNanos);
+            } catch (RuntimeException e) {
+                locker.lockManager.metrics.acquireFailed(System.nanoTime() - startNanos, 0);
+                result.completeExceptionally(e);
+                return;
+            }
+            if (!result.complete(owner)) {
+                owner.close();
+            }
+        }
+
+        /**
+         * 在超时时间与{@link LocalLockManager#waitNanos(int)}中较早的时间检查，持有者所在线程已经结束时回收其租约
+         */
+        private void scheduleTimer() {
+            long remaining = timeoutNanos - (System.nanoTime() - startNanos);
+            long delayNanos = Math.min(remaining, locker.lockManager.waitNanos(++failures));
+            timer = locker.lockManager.asyncExecutor.schedule(this::onTimer, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void onTimer() {
+            if (result.isDone()) {
+                return;
+            }
+            locker.expireLeases();
+            if (timeoutNanos - (System.nanoTime() - startNanos) > 0) {
+                scheduleTimer();
+                retry();
+                return;
+            }
+            //尚未尝试或者已经被唤醒时由之后的尝试处理超时
+            CompletableFuture<Boolean> waiter = this.waiter;
+            if (waiter != null && !waiter.isDone()) {
+                giveUp(waiter);
+            }
+        }
+    }
+
+    /**
+     * 锁的持有者，每次加锁成功都会产生一个新的持有者
+     * <ol>
+     *     <li>绑定线程时，只能由加锁的线程关闭</li>
+     *     <li>不绑定线程时，可以在任意线程中关闭</li>
+     * </ol>
+     */
+    static class LockOwner implements Scope {
+        final Locker locker;
+        /**
+         * 占用的许可数，写锁为全部许可
+         */
+        final int permits;
+        /**
+         * 绑定的线程，不绑定线程时为空
+         */
+        private final Thread thread;
+        private final long sequence;
+        private final long fencingToken;
+        /**
+         * 持有次数，只有可重入锁会大于1，减到零时解锁
+         */
+        private final AtomicInteger holds;
+        /**
+         * 解锁、强制解锁以及租约到期只有一个生效
+         */
+        private final AtomicBoolean released;
+        /**
+         * 不记录时长时为0
+         */
+        private long acquiredNanos;
+        /**
+         * 租约的到期时间，检查时持有者仍然有效则顺延
+         * 第一次被其他加锁请求检查时才开始计时，之前为0，加锁时不读取时钟
+         */
+        private volatile long leaseExpiresNanos;
+        private List<Runnable> leaseLostCallbacks;
+        private boolean leaseLost;
+
+        private LockOwner(Locker locker, int permits, Thread thread, long sequence, long fencingToken) {
+            this.locker = locker;
+            this.permits = permits;
+            this.thread = thread;
+            this.sequence = sequence;
+            this.fencingToken = fencingToken;
+            this.holds = new AtomicInteger(1);
+            this.released = new AtomicBoolean();
+        }
+
+        private boolean isReleasableByCurrentThread() {
+            return thread == null || thread == Thread.currentThread();
+        }
+
+        /**
+         * 租约到期且持有者所在的线程已经结束，不绑定线程的持有者在解锁前一直有效
+         */
+        private boolean isLeaseExpired(long nowNanos) {
+            long expiresNanos = leaseExpiresNanos;
+            if (expiresNanos != 0 && nowNanos - expiresNanos < 0) {
+                return false;
+            }
+            if (expiresNanos == 0 || thread == null || thread.isAlive()) {
+                leaseExpiresNanos = nowNanos + locker.lockManager.leaseNanos;
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * 同一把锁的持有者的token各不相同
+         */
+        @Override
+        public String getToken() {
+            return locker.name + ":" + sequence;
+        }
+
+        private HeldLock toHeldLock(long nowNanos) {
+            long heldMillis = acquiredNanos != 0 ? TimeUnit.NANOSECONDS.toMillis(nowNanos - acquiredNanos) : -1;
+            return new HeldLock(locker.name, locker.kind.name().toLowerCase(Locale.ROOT), getToken(), fencingToken, heldMillis, -1);
+        }
+
+        @Override
+        public long getFencingToken() {
+            return fencingToken;
+        }
+
+        @Override
+        public synchronized boolean isLeaseLost() {
+            return leaseLost;
+        }
+
+        @Override
+        public void onLeaseLost(Runnable callback) {
+            synchronized (this) {
+                if (!leaseLost) {
+                    if (leaseLostCallbacks == null) {
+                        leaseLostCallbacks = new ArrayList<>(1);
+                    }
+                    leaseLostCallbacks.add(callback);
+                    return;
+                }
+            }
+            runLeaseLostCallback(callback);
+        }
+
+        /**
+         * 被强制解锁或者租约到期，在异步线程中执行回调
+         */
+        private void leaseLost() {
+            List<Runnable> callbacks;
+            synchronized (this) {
+                if (leaseLost) {
+                    return;
+                }
+                leaseLost = true;
+                callbacks = leaseLostCallbacks;
+                leaseLostCallbacks = null;
+            }
+            if (callbacks != null) {
+                for (Runnable callback : callbacks) {
+                    try {
+                        locker.lockManager.asyncExecutor.execute(() -> runLeaseLostCallback(callback));
+                    } catch (RejectedExecutionException e) {
+                        //锁管理器已经关闭
+                        runLeaseLostCallback(callback);
+                    }
+                }
+            }
+        }
+
+        private void runLeaseLostCallback(Runnable callback) {
+            try {
+                callback.run();
+            } catch (Throwable throwable) {
+                log.error("unexpected exception in lease lost callback of '{}'", locker.getName(), throwable);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!isReleasableByCurrentThread()) {
+                log.error("attempt to unlock '{}', not locked by current thread.", locker.getName());
+                throw new UnlockException();
+            }
+            int remaining = holds.updateAndGet(count -> count > 0 ? count - 1 : -1);
+            if (remaining < 0) {
+                log.error("attempt to unlock '{}', the scope has been closed.", locker.getName());
+                throw new UnlockException();
+            }
+            if (remaining == 0) {
+                locker.unlock(this);
+            }
+        }
+    }
+}
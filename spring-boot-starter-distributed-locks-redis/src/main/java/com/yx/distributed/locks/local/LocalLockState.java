@@ -0,0 +1,282 @@
+package com.yx.distributed.locks.local;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 一把本地锁的状态，由同名的锁共享
+ * <ol>
+ *     <li>以占用的许可数表示：排他锁的容量为1，信号量的容量为总许可数，读锁占用1个许可，写锁占用全部许可</li>
+ *     <li>没有竞争时加锁、解锁都只是一次CAS，不使用互斥锁</li>
+ *     <li>无法加锁时先在无锁队列中登记等待者，再检查一次，释放时唤醒等待者，不会错过唤醒</li>
+ *     <li>公平模式下释放时直接把锁交给队首的等待者，存在等待者时新的加锁请求不能插队</li>
+ *     <li>子类可以在许可之外获取进程外的资源，例如{@link FileLockState}的文件锁，获取失败时归还许可，等待者需要定期重试</li>
+ * </ol>
+ */
+class LocalLockState {
+    /**
+     * 等待者被唤醒后重新竞争
+     */
+    static final Boolean Signaled = Boolean.FALSE;
+    /**
+     * 公平模式下锁已经直接交给该等待者
+     */
+    static final Boolean HandedOff = Boolean.TRUE;
+
+    private final int capacity;
+    private final boolean fair;
+    private final AtomicInteger used;
+    /**
+     * 正在等待的写锁的数量，大于0时新的读锁不能加锁，避免写锁饥饿
+     */
+    private final AtomicInteger writersWaiting;
+    private final AtomicLong fencing;
+    private final ConcurrentLinkedQueue<CompletableFuture<Boolean>> waiters;
+    /**
+     * 容量为1时的当前持有者，容量大于1时为空，持有者保存在{@code holders}中
+     */
+    private volatile LocalLockManager.LockOwner owner;
+    private final Set<LocalLockManager.LockOwner> holders;
+
+    LocalLockState(int capacity, boolean fair) {
+        this.capacity = capacity;
+        this.fair = fair;
+        this.used = new AtomicInteger();
+        this.writersWaiting = new AtomicInteger();
+        this.fencing = new AtomicLong();
+        this.waiters = new ConcurrentLinkedQueue<>();
+        this.holders = capacity > 1 ? ConcurrentHashMap.newKeySet() : null;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @param reader 读锁，存在等待中的写锁时失败
+     * @param waiter 已经登记的等待者，公平模式下只有队首的等待者可以加锁；未登记时为空
+     */
+    boolean tryAcquire(int permits, boolean reader, CompletableFuture<Boolean> waiter) {
+        if (fair && waiters.peek() != waiter) {
+            return false;
+        }
+        if (reader && writersWaiting.get() > 0) {
+            return false;
+        }
+        while (true) {
+            int current = used.get();
+            if (capacity - current < permits) {
+                return false;
+            }
+            if (used.compareAndSet(current, current + permits)) {
+                boolean acquired = false;
+                try {
+                    acquired = acquireExternal(permits);
+                } finally {
+                    //进程外的资源被占用时归还许可，等待者会定期重试，不需要唤醒
+                    if (!acquired) {
+                        used.addAndGet(-permits);
+                    }
+                }
+                return acquired;
+            }
+        }
+    }
+
+    /**
+     * 许可已经获取，再获取进程外的资源
+     * 许可总是在资源释放之后才归还，因此获得许可时本进程之前的持有者已经释放了资源
+     *
+     * @param permits 本次获取的许可数
+     * @return 资源被其他进程占用时返回 false
+     */
+    boolean acquireExternal(int permits) {
+        return true;
+    }
+
+    /**
+     * 归还许可之前释放进程外的资源
+     *
+     * @param permits 本次归还的许可数
+     */
+    void releaseExternal(int permits) {
+    }
+
+    /**
+     * @param permits 持有者占用的许可数，等于容量时没有其他持有者
+     */
+    long nextFencingToken(int permits) {
+        return fencing.incrementAndGet();
+    }
+
+    void addHolder(LocalLockManager.LockOwner owner) {
+        if (holders == null) {
+            this.owner = owner;
+        } else {
+            holders.add(owner);
+        }
+    }
+
+    /**
+     * 移除持有者并归还许可，调用方保证同一持有者只释放一次
+     */
+    void release(LocalLockManager.LockOwner owner, int permits) {
+        if (holders == null) {
+            this.owner = null;
+        } else {
+            holders.remove(owner);
+        }
+        releasePermits(permits, null);
+    }
+
+    /**
+     * 归还许可并唤醒等待者
+     *
+     * @param except 不唤醒的等待者，一组锁部分获取失败时归还许可，不应唤醒自己
+     */
+    void releasePermits(int permits, CompletableFuture<Boolean> except) {
+        if (fair) {
+            handOff();
+            return;
+        }
+        releaseExternal(permits);
+        used.addAndGet(-permits);
+        if (capacity == 1) {
+            signalOne(except);
+        } else {
+            signalAll();
+        }
+    }
+
+    /**
+     * 容量为1时的当前持有者
+     */
+    LocalLockManager.LockOwner getOwner() {
+        return owner;
+    }
+
+    /**
+     * 容量大于1时的所有持有者，容量为1时为空
+     */
+    Set<LocalLockManager.LockOwner> getHolders() {
+        return holders;
+    }
+
+    void forEachHolder(Consumer<LocalLockManager.LockOwner> action) {
+        if (holders == null) {
+            LocalLockManager.LockOwner owner = this.owner;
+            if (owner != null) {
+                action.accept(owner);
+            }
+            return;
+        }
+        holders.forEach(action);
+    }
+
+    void enqueue(CompletableFuture<Boolean> waiter) {
+        waiters.add(waiter);
+    }
+
+    /**
+     * 等待者离开队列
+     *
+     * @param cancelled 是否成功取消了等待，未能取消说明等待者已经被唤醒，非公平的排他锁需要把唤醒转交给下一个等待者
+     */
+    void leave(CompletableFuture<Boolean> waiter, boolean cancelled) {
+        waiters.remove(waiter);
+        if (cancelled) {
+            //公平模式下放弃的等待者可能挡在队首，使后面的等待者无法加锁
+            if (fair && used.compareAndSet(0, 1) && acquireExternalForHandOff()) {
+                handOff();
+            }
+            return;
+        }
+        if (!fair && capacity == 1) {
+            signalOne(null);
+        }
+    }
+
+    /**
+     * 被唤醒的等待者从其他队列中移除，一组锁的等待者同时在组内每把锁的队列中
+     */
+    void remove(CompletableFuture<Boolean> waiter) {
+        waiters.remove(waiter);
+    }
+
+    void writerWaiting() {
+        writersWaiting.incrementAndGet();
+    }
+
+    /**
+     * 写锁停止等待，因其被挡住的读锁重新竞争
+     */
+    void writerLeft() {
+        if (writersWaiting.decrementAndGet() == 0) {
+            signalAll();
+        }
+    }
+
+    /**
+     * 唤醒第一个仍在等待的等待者，已经放弃的等待者被跳过
+     */
+    private void signalOne(CompletableFuture<Boolean> except) {
+        CompletableFuture<Boolean> next;
+        while ((next = waiters.poll()) != null) {
+            if (next != except && next.complete(Signaled)) {
+                return;
+            }
+        }
+    }
+
+    private void signalAll() {
+        CompletableFuture<Boolean> next;
+        while ((next = waiters.poll()) != null) {
+            next.complete(Signaled);
+        }
+    }
+
+    /**
+     * 公平模式下释放，锁直接交给队首的等待者，没有等待者时才真正释放
+     */
+    private void handOff() {
+        while (true) {
+            CompletableFuture<Boolean> next = waiters.poll();
+            if (next == null) {
+                releaseExternal(1);
+                used.set(0);
+                //释放前登记的等待者可能看到锁仍被持有，释放后重新检查队列
+                if (waiters.isEmpty() || !used.compareAndSet(0, 1)) {
+                    return;
+                }
+                if (!acquireExternalForHandOff()) {
+                    return;
+                }
+                continue;
+            }
+            if (next.complete(HandedOff)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 公平模式下已经通过CAS占用了许可，移交之前获取进程外的资源
+     * 获取失败时归还许可，不向调用方（释放锁或者放弃等待的一方）抛出异常，由等待者重试时再次获取
+     */
+    private boolean acquireExternalForHandOff() {
+        try {
+            if (acquireExternal(1)) {
+                return true;
+            }
+        } catch (RuntimeException ignored) {
+            //实现已经记录了日志
+        }
+        used.set(0);
+        return false;
+    }
+}
@@ -0,0 +1,298 @@
+package com.yx.distributed.locks.metrics;
+
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntSupplier;
+
+/**
+ * 锁竞争分析器，找出竞争最激烈以及累计持有时间最长的锁，用于排查加锁延迟的尖刺
+ * <ol>
+ *     <li>通过{@link #profile(LockMetrics)}装饰锁管理器的监控指标，所有事件仍然转发给被装饰的指标</li>
+ *     <li>锁的名称可能无限多，竞争与持有各自只跟踪{@code capacity}个名称，见{@link SpaceSavingSketch}</li>
+ *     <li>名称按哈希分散到多个分段，每个分段是一个独立的sketch并由自己的监视器同步，不同的锁很少争用同一个监视器，读取时合并各分段的结果，误差的保证在每个分段内成立</li>
+ *     <li>等待时长超过{@code threshold}或者访问Redis多于一次的加锁，以及加锁超时，记为一次竞争，每个名称保留最近几次的等待时长</li>
+ *     <li>持有时长达到{@code holdThreshold}的解锁总是记录，更短的按持有时长占{@code holdThreshold}的比例抽样并按{@code holdThreshold}计入，
+ *     累计持有时间的期望不变，平均每累计持有{@code holdThreshold}最多记录一次，大部分解锁只多一次比较以及一次随机数</li>
+ * </ol>
+ */
+public class LockContentionProfiler {
+    private static final int WaitSamples = 8;
+    private static final int MaxStripes = 64;
+    private static final double NanosPerMilli = 1_000_000d;
+
+    private final long thresholdNanos;
+    private final long holdThresholdNanos;
+    private final int stripeMask;
+    private final SpaceSavingSketch[] contended;
+    private final SpaceSavingSketch[] held;
+
+    /**
+     * @param capacity      竞争与持有各自跟踪的名称的数量，平均分配给各分段
+     * @param threshold     等待时长超过该值时记为竞争
+     * @param holdThreshold 持有时长达到该值时总是记录，更短的按比例抽样，为0时全部记录
+     */
+    public LockContentionProfiler(int capacity, Duration threshold, Duration holdThreshold) {
+        //分段数为不小于CPU数的2的幂
+        this(capacity, threshold, holdThreshold, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)));
+    }
+
+    /**
+     * @param stripes 分段数，向下取2的幂，并且不超过{@code capacity}，每个分段至少跟踪一个名称
+     */
+    LockContentionProfiler(int capacity, Duration threshold, Duration holdThreshold, int stripes) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("stripes must be positive");
+        }
+        if (holdThreshold.isNegative()) {
+            throw new IllegalArgumentException("holdThreshold must not be negative");
+        }
+        this.thresholdNanos = threshold.toNanos();
+        this.holdThresholdNanos = holdThreshold.toNanos();
+        stripes = Integer.highestOneBit(Math.min(Math.min(MaxStripes, capacity), stripes));
+        int stripeCapacity = (capacity + stripes - 1) / stripes;
+        this.stripeMask = stripes - 1;
+        this.contended = new SpaceSavingSketch[stripes];
+        this.held = new SpaceSavingSketch[stripes];
+        for (int i = 0; i < stripes; i++) {
+            contended[i] = new SpaceSavingSketch(stripeCapacity, WaitSamples);
+            held[i] = new SpaceSavingSketch(stripeCapacity, 0);
+        }
+    }
+
+    /**
+     * 装饰锁管理器的监控指标，同一个分析器可以装饰多个锁管理器
+     *
+     * @param metrics 被装饰的指标，不记录时为{@link LockMetrics#None}
+     * @return 记录竞争并转发所有事件的指标
+     */
+    public LockMetrics profile(LockMetrics metrics) {
+        return new ProfilingLockMetrics(metrics);
+    }
+
+    /**
+     * 竞争次数最多的锁，按竞争次数从大到小排列
+     *
+     * @param limit 返回的最大数量
+     * @return 竞争统计，每个分段各取前{@code limit}个后合并
+     */
+    public List<ContendedLock> getContendedLocks(int limit) {
+        List<ContendedLock> locks = new ArrayList<>();
+        for (SpaceSavingSketch stripe : contended) {
+            synchronized (stripe) {
+                for (SpaceSavingSketch.Counter counter : stripe.top(limit)) {
+                    long[] samples = counter.recentSamples();
+                    double[] recentWaitMillis = new double[samples.length];
+                    for (int i = 0; i < samples.length; i++) {
+                        recentWaitMillis[i] = samples[i] / NanosPerMilli;
+                    }
+                    locks.add(new ContendedLock(counter.name, counter.weight, counter.error, counter.timeouts,
+                            counter.totalNanos / NanosPerMilli, counter.maxNanos / NanosPerMilli, recentWaitMillis));
+                }
+            }
+        }
+        locks.sort(Comparator.comparingLong(ContendedLock::getContentions).reversed());
+        return locks.size() > limit ? new ArrayList<>(locks.subList(0, limit)) : locks;
+    }
+
+    /**
+     * 累计持有时间最长的锁，按累计持有时间从大到小排列
+     *
+     * @param limit 返回的最大数量
+     * @return 持有统计，每个分段各取前{@code limit}个后合并
+     */
+    public List<LongHeldLock> getLongestHeldLocks(int limit) {
+        List<LongHeldLock> locks = new ArrayList<>();
+        for (SpaceSavingSketch stripe : held) {
+            synchronized (stripe) {
+                for (SpaceSavingSketch.Counter counter : stripe.top(limit)) {
+                    locks.add(new LongHeldLock(counter.name, counter.weight / NanosPerMilli, counter.error / NanosPerMilli,
+                            counter.maxNanos / NanosPerMilli, counter.events));
+                }
+            }
+        }
+        locks.sort(Comparator.comparingDouble(LongHeldLock::getTotalHoldMillis).reversed());
+        return locks.size() > limit ? new ArrayList<>(locks.subList(0, limit)) : locks;
+    }
+
+    /**
+     * 清空统计，例如在排查开始前排除历史数据
+     */
+    public void reset() {
+        for (int i = 0; i <= stripeMask; i++) {
+            synchronized (contended[i]) {
+                contended[i].clear();
+            }
+            synchronized (held[i]) {
+                held[i].clear();
+            }
+        }
+    }
+
+    /**
+     * 同一个名称总是位于同一个分段
+     */
+    private int stripe(String name) {
+        int h = name.hashCode();
+        return (h ^ (h >>> 16)) & stripeMask;
+    }
+
+    private void contended(String name, long waitNanos, boolean timedOut) {
+        SpaceSavingSketch stripe = contended[stripe(name)];
+        synchronized (stripe) {
+            SpaceSavingSketch.Counter counter = stripe.add(name, 1, waitNanos);
+            if (timedOut) {
+                counter.timeouts++;
+            }
+        }
+    }
+
+    private void released(String name, long holdNanos) {
+        long weight = holdNanos;
+        if (holdNanos < holdThresholdNanos) {
+            //记录的概率为holdNanos / holdThresholdNanos，按holdThresholdNanos计入，期望等于holdNanos
+            if (ThreadLocalRandom.current().nextLong(holdThresholdNanos) >= holdNanos) {
+                return;
+            }
+            weight = holdThresholdNanos;
+        }
+        SpaceSavingSketch stripe = held[stripe(name)];
+        synchronized (stripe) {
+            stripe.add(name, weight, holdNanos);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LockContentionProfiler(threshold=" + thresholdNanos / NanosPerMilli + "ms, holdThreshold=" + holdThresholdNanos / NanosPerMilli
+                + "ms, stripes=" + (stripeMask + 1) + ")";
+    }
+
+    /**
+     * 一把锁的竞争统计
+     */
+    @Getter
+    public static class ContendedLock {
+        private final String name;
+        /**
+         * 竞争次数，可能被高估，真实值不小于{@code contentions - error}
+         */
+        private final long contentions;
+        private final long error;
+        /**
+         * 以下只统计该名称被跟踪之后的竞争
+         */
+        private final long timeouts;
+        private final double totalWaitMillis;
+        private final double maxWaitMillis;
+        /**
+         * 最近几次竞争的等待时长，从旧到新排列，超时为超时前等待的时长
+         */
+        private final double[] recentWaitMillis;
+
+        private ContendedLock(String name, long contentions, long error, long timeouts, double totalWaitMillis, double maxWaitMillis,
+                              double[] recentWaitMillis) {
+            this.name = name;
+            this.contentions = contentions;
+            this.error = error;
+            this.timeouts = timeouts;
+            this.totalWaitMillis = totalWaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+            this.recentWaitMillis = recentWaitMillis;
+        }
+    }
+
+    /**
+     * 一把锁的持有统计
+     */
+    @Getter
+    public static class LongHeldLock {
+        private final String name;
+        /**
+         * 按抽样估计的累计持有时间，可能被高估，真实值不小于{@code totalHoldMillis - errorMillis}
+         */
+        private final double totalHoldMillis;
+        private final double errorMillis;
+        /**
+         * 以下只统计该名称被跟踪之后被记录的解锁，持有时长达到{@code holdThreshold}的解锁总是被记录
+         */
+        private final double maxHoldMillis;
+        /**
+         * 被记录的解锁次数，持有时长较短的解锁被抽样，少于实际的解锁次数
+         */
+        private final long events;
+
+        private LongHeldLock(String name, double totalHoldMillis, double errorMillis, double maxHoldMillis, long events) {
+            this.name = name;
+            this.totalHoldMillis = totalHoldMillis;
+            this.errorMillis = errorMillis;
+            this.maxHoldMillis = maxHoldMillis;
+            this.events = events;
+        }
+    }
+
+    private class ProfilingLockMetrics implements LockMetrics {
+        private final LockMetrics metrics;
+
+        private ProfilingLockMetrics(LockMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void bindHeldLocks(IntSupplier heldLocks) {
+            metrics.bindHeldLocks(heldLocks);
+        }
+
+        @Override
+        public void acquired(long latencyNanos, long waitNanos, int roundTrips) {
+            metrics.acquired(latencyNanos, waitNanos, roundTrips);
+        }
+
+        @Override
+        public void acquired(String name, long latencyNanos, long waitNanos, int roundTrips) {
+            if (waitNanos > thresholdNanos || roundTrips > 1) {
+                contended(name, waitNanos, false);
+            }
+            metrics.acquired(name, latencyNanos, waitNanos, roundTrips);
+        }
+
+        @Override
+        public void acquireTimedOut(long latencyNanos, int roundTrips) {
+            metrics.acquireTimedOut(latencyNanos, roundTrips);
+        }
+
+        @Override
+        public void acquireTimedOut(String name, long latencyNanos, int roundTrips) {
+            contended(name, latencyNanos, true);
+            metrics.acquireTimedOut(name, latencyNanos, roundTrips);
+        }
+
+        @Override
+        public void acquireFailed(long latencyNanos, int roundTrips) {
+            metrics.acquireFailed(latencyNanos, roundTrips);
+        }
+
+        @Override
+        public void released(long holdNanos) {
+            metrics.released(holdNanos);
+        }
+
+        @Override
+        public void released(String name, long holdNanos) {
+            LockContentionProfiler.this.released(name, holdNanos);
+            metrics.released(name, holdNanos);
+        }
+
+        @Override
+        public void renewed(long durationNanos, int renewed, int failed) {
+            metrics.renewed(durationNanos, renewed, failed);
+        }
+    }
+}
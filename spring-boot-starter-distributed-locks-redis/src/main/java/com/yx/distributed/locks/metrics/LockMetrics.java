@@ -0,0 +1,90 @@
+package com.yx.distributed.locks.metrics;
+
+import java.util.function.IntSupplier;
+
+/**
+ * 锁管理器的监控指标
+ * <ol>
+ *     <li>在加锁、解锁以及续期的路径上同步调用，实现不能阻塞，也不应在每次调用时分配对象</li>
+ *     <li>所有时长的单位都是纳秒</li>
+ *     <li>锁管理器调用带有锁名称的方法，默认忽略名称，转发给不带名称的方法</li>
+ *     <li>默认实现{@link #None}不记录任何指标</li>
+ * </ol>
+ */
+public interface LockMetrics {
+    LockMetrics None = new LockMetrics() {
+    };
+
+    /**
+     * 注册当前持有的锁的数量，只在采集指标时调用{@code heldLocks}
+     */
+    default void bindHeldLocks(IntSupplier heldLocks) {
+    }
+
+    /**
+     * 加锁成功
+     *
+     * @param latencyNanos 从调用加锁到加锁成功的总时长
+     * @param waitNanos    加锁成功前等待的时长，包括本地排队以及等待释放通知，不包括最后一次访问Redis
+     * @param roundTrips   访问Redis的次数，重入时为0
+     */
+    default void acquired(long latencyNanos, long waitNanos, int roundTrips) {
+    }
+
+    /**
+     * 加锁成功
+     *
+     * @param name 锁的名称，一组锁为以逗号分隔的名称
+     */
+    default void acquired(String name, long latencyNanos, long waitNanos, int roundTrips) {
+        acquired(latencyNanos, waitNanos, roundTrips);
+    }
+
+    /**
+     * 在超时时间内未能加锁，包括{@code tryLock()}立即失败
+     */
+    default void acquireTimedOut(long latencyNanos, int roundTrips) {
+    }
+
+    /**
+     * 在超时时间内未能加锁
+     *
+     * @param name 锁的名称，一组锁为以逗号分隔的名称
+     */
+    default void acquireTimedOut(String name, long latencyNanos, int roundTrips) {
+        acquireTimedOut(latencyNanos, roundTrips);
+    }
+
+    /**
+     * 加锁时发生异常
+     */
+    default void acquireFailed(long latencyNanos, int roundTrips) {
+    }
+
+    /**
+     * 解锁，可重入锁只在最后一次解锁时调用
+     *
+     * @param holdNanos 从加锁成功到解锁的时长
+     */
+    default void released(long holdNanos) {
+    }
+
+    /**
+     * 解锁
+     *
+     * @param name 锁的名称，一组锁为以逗号分隔的名称
+     */
+    default void released(String name, long holdNanos) {
+        released(holdNanos);
+    }
+
+    /**
+     * 完成一次续期
+     *
+     * @param durationNanos 本次续期的耗时
+     * @param renewed       续期成功的锁的数量
+     * @param failed        续期失败的锁的数量
+     */
+    default void renewed(long durationNanos, int renewed, int failed) {
+    }
+}
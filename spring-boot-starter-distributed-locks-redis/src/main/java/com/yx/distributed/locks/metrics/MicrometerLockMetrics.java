@@ -0,0 +1,124 @@
+package com.yx.distributed.locks.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * 基于Micrometer的监控指标
+ * 所有的计量器在构造时创建，记录时不再查找计量器或者创建标签
+ * <ol>
+ *     <li>distributed.lock.acquire: 加锁的总耗时，按result=success/timeout/error区分，其计数即为各结果的次数</li>
+ *     <li>distributed.lock.wait: 加锁成功前的等待时长</li>
+ *     <li>distributed.lock.hold: 持有锁的时长</li>
+ *     <li>distributed.lock.round.trips: 每次加锁访问Redis的次数</li>
+ *     <li>distributed.lock.renew: 每次续期的耗时，distributed.lock.renew.failed: 续期失败的累计次数</li>
+ *     <li>distributed.lock.held: 当前持有的锁的数量</li>
+ * </ol>
+ */
+public class MicrometerLockMetrics implements LockMetrics {
+    private final MeterRegistry registry;
+    private final Tags tags;
+    private final Timer acquireSucceeded;
+    private final Timer acquireTimedOut;
+    private final Timer acquireFailed;
+    private final Timer waitTime;
+    private final Timer holdTime;
+    private final DistributionSummary roundTrips;
+    private final Timer renewTime;
+    private final Counter renewFailed;
+
+    public MicrometerLockMetrics(MeterRegistry registry) {
+        this(registry, Tags.empty());
+    }
+
+    /**
+     * @param tags 所有计量器共用的标签，同一个注册表中有多个锁管理器时用于区分
+     */
+    public MicrometerLockMetrics(MeterRegistry registry, Tags tags) {
+        this.registry = registry;
+        this.tags = tags;
+        this.acquireSucceeded = acquireTimer("success");
+        this.acquireTimedOut = acquireTimer("timeout");
+        this.acquireFailed = acquireTimer("error");
+        this.waitTime = Timer.builder("distributed.lock.wait")
+                .description("time spent waiting before the lock was acquired")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry);
+        this.holdTime = Timer.builder("distributed.lock.hold")
+                .description("time the lock was held")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry);
+        this.roundTrips = DistributionSummary.builder("distributed.lock.round.trips")
+                .description("redis round trips per acquisition")
+                .tags(tags)
+                .register(registry);
+        this.renewTime = Timer.builder("distributed.lock.renew")
+                .description("duration of a renew pass")
+                .tags(tags)
+                .register(registry);
+        this.renewFailed = Counter.builder("distributed.lock.renew.failed")
+                .description("renewals that failed or found the lease lost")
+                .tags(tags)
+                .register(registry);
+    }
+
+    private Timer acquireTimer(String result) {
+        return Timer.builder("distributed.lock.acquire")
+                .description("time from calling lock to the result")
+                .tags(tags)
+                .tag("result", result)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    @Override
+    public void bindHeldLocks(IntSupplier heldLocks) {
+        Gauge.builder("distributed.lock.held", heldLocks, IntSupplier::getAsInt)
+                .description("locks currently held")
+                .tags(tags)
+                //注册时传入的通常是方法引用，没有其他引用持有
+                .strongReference(true)
+                .register(registry);
+    }
+
+    @Override
+    public void acquired(long latencyNanos, long waitNanos, int roundTrips) {
+        acquireSucceeded.record(latencyNanos, TimeUnit.NANOSECONDS);
+        waitTime.record(waitNanos, TimeUnit.NANOSECONDS);
+        this.roundTrips.record(roundTrips);
+    }
+
+    @Override
+    public void acquireTimedOut(long latencyNanos, int roundTrips) {
+        acquireTimedOut.record(latencyNanos, TimeUnit.NANOSECONDS);
+        this.roundTrips.record(roundTrips);
+    }
+
+    @Override
+    public void acquireFailed(long latencyNanos, int roundTrips) {
+        acquireFailed.record(latencyNanos, TimeUnit.NANOSECONDS);
+        this.roundTrips.record(roundTrips);
+    }
+
+    @Override
+    public void released(long holdNanos) {
+        holdTime.record(holdNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void renewed(long durationNanos, int renewed, int failed) {
+        renewTime.record(durationNanos, TimeUnit.NANOSECONDS);
+        if (failed > 0) {
+            renewFailed.increment(failed);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.yx.distributed.locks.metrics;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按space-saving算法统计计数最大的名称，占用的内存与名称的总数无关
+ * <ol>
+ *     <li>最多跟踪{@code capacity}个名称，计数器按计数组成最小堆，更新一次的复杂度为O(log capacity)</li>
+ *     <li>未被跟踪的名称替换计数最小的名称并继承其计数，继承的部分记为误差，真实计数在{@code weight - error}与{@code weight}之间</li>
+ *     <li>真实计数超过总计数{@code 1/capacity}的名称一定被跟踪</li>
+ * </ol>
+ * 不是线程安全的，由调用方同步
+ */
+final class SpaceSavingSketch {
+    private static final Comparator<Counter> ByWeightDescending = (a, b) -> Long.compare(b.weight, a.weight);
+
+    private final Map<String, Counter> counters;
+    private final Counter[] heap;
+    /**
+     * 每个名称保留的最近样本的数量，为0时不保留
+     */
+    private final int samples;
+    private int size;
+
+    SpaceSavingSketch(int capacity, int samples) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.counters = new HashMap<>(capacity * 2);
+        this.heap = new Counter[capacity];
+        this.samples = samples;
+    }
+
+    /**
+     * @param weight 本次的计数
+     * @param nanos  本次的时长，计入总时长、最大时长以及样本
+     * @return 名称对应的计数器，调用方可以继续更新其他统计
+     */
+    Counter add(String name, long weight, long nanos) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            if (size < heap.length) {
+                counter = new Counter(size, samples);
+                heap[size++] = counter;
+            } else {
+                counter = heap[0];
+                counters.remove(counter.name);
+            }
+            counter.reset(name);
+            counters.put(name, counter);
+        }
+        counter.weight += weight;
+        counter.events++;
+        counter.totalNanos += nanos;
+        counter.maxNanos = Math.max(counter.maxNanos, nanos);
+        if (counter.samples != null) {
+            counter.samples[(int) (counter.sampled++ % counter.samples.length)] = nanos;
+        }
+        //新增的计数器位于堆尾，可能需要上浮；已有的计数器只会增加计数
+        siftUp(counter.index);
+        siftDown(counter.index);
+        return counter;
+    }
+
+    /**
+     * @return 计数最大的{@code limit}个计数器，按计数从大到小排列，调用方在同步期间读取
+     */
+    Counter[] top(int limit) {
+        Counter[] sorted = Arrays.copyOf(heap, size);
+        Arrays.sort(sorted, ByWeightDescending);
+        return sorted.length > limit ? Arrays.copyOf(sorted, limit) : sorted;
+    }
+
+    void clear() {
+        counters.clear();
+        Arrays.fill(heap, null);
+        size = 0;
+    }
+
+    private void siftUp(int index) {
+        Counter counter = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent].weight <= counter.weight) {
+                break;
+            }
+            place(heap[parent], index);
+            index = parent;
+        }
+        place(counter, index);
+    }
+
+    private void siftDown(int index) {
+        Counter counter = heap[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && heap[right].weight < heap[child].weight) {
+                child = right;
+            }
+            if (counter.weight <= heap[child].weight) {
+                break;
+            }
+            place(heap[child], index);
+            index = child;
+        }
+        place(counter, index);
+    }
+
+    private void place(Counter counter, int index) {
+        heap[index] = counter;
+        counter.index = index;
+    }
+
+    static final class Counter {
+        String name;
+        long weight;
+        /**
+         * 替换时继承的计数，计数可能被高估的上界
+         */
+        long error;
+        /**
+         * 以下只统计成为该名称之后的事件
+         */
+        long events;
+        long timeouts;
+        long totalNanos;
+        long maxNanos;
+        private final long[] samples;
+        private long sampled;
+        private int index;
+
+        private Counter(int index, int samples) {
+            this.index = index;
+            this.samples = samples > 0 ? new long[samples] : null;
+        }
+
+        private void reset(String name) {
+            this.name = name;
+            this.error = weight;
+            this.events = 0;
+            this.timeouts = 0;
+            this.totalNanos = 0;
+            this.maxNanos = 0;
+            this.sampled = 0;
+        }
+
+        /**
+         * @return 最近的样本，从旧到新排列
+         */
+        long[] recentSamples() {
+            if (samples == null) {
+                return new long[0];
+            }
+            int count = (int) Math.min(sampled, samples.length);
+            long[] recent = new long[count];
+            for (int i = 0; i < count; i++) {
+                recent[i] = samples[(int) ((sampled - count + i) % samples.length)];
+            }
+            return recent;
+        }
+    }
+}
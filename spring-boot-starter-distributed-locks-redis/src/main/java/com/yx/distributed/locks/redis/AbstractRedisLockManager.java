@@ -0,0 +1,1814 @@
+package com.yx.distributed.locks.redis;
+
+import com.yx.distributed.locks.Action;
+import com.yx.distributed.locks.DistributedLockManager;
+import com.yx.distributed.locks.DistributedSemaphore;
+import com.yx.distributed.locks.HeldLock;
+import com.yx.distributed.locks.Lock;
+import com.yx.distributed.locks.LockOwnership;
+import com.yx.distributed.locks.ReadWriteLock;
+import com.yx.distributed.locks.Scope;
+import com.yx.distributed.locks.exception.LockException;
+import com.yx.distributed.locks.exception.TimeoutException;
+import com.yx.distributed.locks.exception.UnlockException;
+import com.yx.distributed.locks.metrics.LockMetrics;
+import com.yx.distributed.locks.retry.RetryPolicy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.util.StringUtils;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 基于Redis的锁管理器的公共部分
+ * <ol>
+ *     <li>锁的注册、本地排队、等待释放通知以及续期调度</li>
+ *     <li>脚本如何在Redis上执行由子类决定：单节点直接执行，多节点按多数派执行</li>
+ *     <li>作为Bean时随容器关闭，停止续期以及释放通知的订阅</li>
+ * </ol>
+ */
+@Slf4j
+abstract class AbstractRedisLockManager implements DistributedLockManager, DisposableBean {
+    private static final Duration MinimumLeaseMilliseconds = Duration.ofSeconds(30);
+    /**
+     * 公平锁的等待者只在轮到自己时被唤醒，无论重试策略如何，最多等待登记有效期的1/3就主动重试以刷新登记
+     */
+    private static final long FairPollMilliseconds = RedisLockScripts.FairWaitMilliseconds / 3;
+    /**
+     * {@link Lock#lock()}不设超时，超时后重新排队会让公平锁的等待者失去在队列中的位置
+     */
+    private static final Duration Unbounded = Duration.ofMillis(Long.MAX_VALUE);
+    /**
+     * 续期时间轮的刻度以及槽数，同一刻度内到期的锁在一个pipeline中续期
+     */
+    private static final long RenewTickMilliseconds = 100;
+    private static final int RenewTicksPerWheel = 512;
+    /**
+     * 续期时间在续期间隔的该比例内随机提前，避免同时加锁的大量锁总是在同一时刻续期
+     */
+    private static final double RenewJitterFactor = 0.1;
+    /**
+     * 续期出错（无法确认租约是否仍然有效）时，在租约到期前按该间隔重试
+     */
+    private static final long RenewRetryMilliseconds = 1000;
+    private static final byte[] Waiting = serialize("1");
+    private static final byte[] NotWaiting = serialize("0");
+    private static final byte[] ReleasedSuffix = serialize(".released");
+    private static final byte[] FencingSuffix = serialize(".fencing");
+    private final String namePrefix;
+    private final long renewInterval;
+    private final HashedWheelTimer<LockOwner> renewals;
+    final long leaseTimeMillis;
+    final byte[] leaseTimeBytes;
+    /**
+     * 每种锁各自的注册表，以调用方传入的名称为键，查找已注册的锁时不需要拼接名称
+     * 注册表只弱引用锁，不再使用的锁被回收后由{@link #collectedLockers}清理
+     */
+    private final EnumMap<LockKind, ConcurrentHashMap<String, LockerReference>> lockers;
+    private final ReferenceQueue<Locker> collectedLockers;
+    /**
+     * 存在持有者的锁，持有期间保持强引用，不会被回收
+     */
+    private final ConcurrentHashMap<Locker, Boolean> heldLockers;
+    private final RedisLockReleaseSubscriber releaseSubscriber;
+    private final AtomicLong failedRenewals;
+    private final LockOwnership ownership;
+    /**
+     * 执行异步加锁的重试以及超时调度，线程只在与Redis交互时被占用，等待期间不占用线程
+     */
+    private final ScheduledExecutorService asyncExecutor;
+    private volatile LockMetrics metrics = LockMetrics.None;
+    /**
+     * 释放通知可能丢失，等待者在收到通知或者按重试策略等待超时后主动重试
+     */
+    private volatile RetryPolicy retryPolicy = RetryPolicy.Default;
+    /**
+     * 偏向模式下解锁后保留租约的时长，为0时不启用
+     */
+    private volatile long biasedLingerNanos;
+    private Thread renewThread;
+    private volatile boolean closed;
+
+    AbstractRedisLockManager(String namePrefix, Duration leaseTime, LockOwnership ownership, RedisLockReleaseSubscriber releaseSubscriber) {
+        this.namePrefix = namePrefix;
+        this.ownership = ownership;
+        this.leaseTimeMillis = MinimumLeaseMilliseconds.compareTo(leaseTime) > 0 ? MinimumLeaseMilliseconds.toMillis() : leaseTime.toMillis();
+        this.lockers = new EnumMap<>(LockKind.class);
+        for (LockKind kind : LockKind.values()) {
+            this.lockers.put(kind, new ConcurrentHashMap<>());
+        }
+        this.collectedLockers = new ReferenceQueue<>();
+        this.heldLockers = new ConcurrentHashMap<>();
+        this.failedRenewals = new AtomicLong();
+        this.leaseTimeBytes = serialize(String.valueOf(leaseTimeMillis));
+        this.renewInterval = leaseTimeMillis / 3;
+        this.renewals = new HashedWheelTimer<>(RenewTickMilliseconds, TimeUnit.MILLISECONDS, RenewTicksPerWheel);
+        this.releaseSubscriber = releaseSubscriber;
+        this.asyncExecutor = createAsyncExecutor();
+        log.info("namePrefix = {}, leaseTime = {}ms, ownership = {}", namePrefix, leaseTimeMillis, ownership);
+    }
+
+    /**
+     * 子类完成初始化后调用，预先加载脚本并启动续期
+     */
+    void start() {
+        loadScripts();
+        startRenew();
+    }
+
+    /**
+     * 预先加载脚本，之后的调用只需发送脚本的SHA1
+     * 加载失败不影响使用，执行时遇到NOSCRIPT会自动退化为EVAL
+     */
+    abstract void loadScripts();
+
+    /**
+     * 执行{@code locker}的加锁脚本，成功时将{@code owner}标记为持有租约并记录fencing token
+     *
+     * @param waiting 失败后是否继续等待，等待中的写锁会阻止新的读锁加锁
+     */
+    abstract boolean tryLockInner(Locker locker, LockOwner owner, boolean waiting);
+
+    /**
+     * 执行{@code locker}的解锁脚本
+     */
+    abstract boolean tryUnlockInner(Locker locker, LockOwner owner);
+
+    /**
+     * 续期{@code renewing}中的所有持有者，按顺序返回每个持有者的结果，成功为1，失败为其他值或异常
+     * 包内可见，基准测试直接调用以测量一次续期的开销
+     */
+    abstract List<Object> renew(List<LockOwner> renewing, byte[] now);
+
+    /**
+     * 删除{@code locker}的所有键并发布释放通知
+     */
+    abstract void forceUnlock(Locker locker);
+
+    private static ScheduledExecutorService createAsyncExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "distributed-lock-async-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * 超时的截止时间，超时时间过长时不溢出
+     */
+    private static long deadlineMillis(Duration timeout) {
+        long now = System.currentTimeMillis();
+        long timeoutMillis = timeout.toMillis();
+        return timeoutMillis > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + timeoutMillis;
+    }
+
+    static byte[] serialize(String str) {
+        return StringRedisSerializer.UTF_8.serialize(str);
+    }
+
+    static String deserialize(byte[] bytes) {
+        return StringRedisSerializer.UTF_8.deserialize(bytes);
+    }
+
+    @Override
+    public Lock acquire(String name) {
+        Locker locker = registered(LockKind.EXCLUSIVE, name);
+        if (locker != null) {
+            return locker;
+        }
+        byte[] key = serialize(lockName(name, ".lock"));
+        return register(LockKind.EXCLUSIVE, name, new Locker(new byte[][]{key}, LockKind.EXCLUSIVE, this));
+    }
+
+    @Override
+    public Lock acquireReentrant(String name) {
+        Locker locker = registered(LockKind.REENTRANT, name);
+        if (locker != null) {
+            return locker;
+        }
+        byte[] key = serialize(lockName(name, ".rlock"));
+        return register(LockKind.REENTRANT, name, new Locker(new byte[][]{key}, LockKind.REENTRANT, this));
+    }
+
+    @Override
+    public ReadWriteLock acquireReadWrite(String name) {
+        Locker readLocker = registered(LockKind.READ, name);
+        Locker writeLocker = registered(LockKind.WRITE, name);
+        if (readLocker == null || writeLocker == null) {
+            String lockName = lockName(name, ".rwlock");
+            //读锁与写锁共用同一个hash以及等待中的写锁的zset
+            byte[][] keys = new byte[][]{serialize(lockName), serialize(lockName + ".writers")};
+            if (readLocker == null) {
+                readLocker = register(LockKind.READ, name, new Locker(keys, LockKind.READ, this));
+            }
+            if (writeLocker == null) {
+                writeLocker = register(LockKind.WRITE, name, new Locker(keys, LockKind.WRITE, this));
+            }
+        }
+        return new ReadWriteLocker(readLocker, writeLocker);
+    }
+
+    @Override
+    public Lock acquireFair(String name) {
+        Locker locker = registered(LockKind.FAIR, name);
+        if (locker != null) {
+            return locker;
+        }
+        String lockName = lockName(name, ".fairlock");
+        //锁、等待队列以及等待者的到期时间
+        byte[][] keys = new byte[][]{serialize(lockName), serialize(lockName + ".queue"), serialize(lockName + ".timeouts")};
+        return register(LockKind.FAIR, name, new Locker(keys, LockKind.FAIR, this));
+    }
+
+    @Override
+    public Lock acquireAll(Collection<String> names) {
+        if (names == null || names.isEmpty()) {
+            throw new IllegalArgumentException("names can not be null or empty");
+        }
+        //排序去重，保证所有调用方以相同的顺序访问这组锁
+        TreeSet<String> sortedNames = new TreeSet<>();
+        for (String name : names) {
+            if (StringUtils.isEmpty(name)) {
+                throw new IllegalArgumentException("name can not be null or empty");
+            }
+            sortedNames.add(name);
+        }
+        String groupKey = groupKey(sortedNames);
+        Locker locker = registered(LockKind.GROUP, groupKey);
+        if (locker != null) {
+            return locker;
+        }
+        byte[][] keys = new byte[sortedNames.size()][];
+        int i = 0;
+        for (String name : sortedNames) {
+            keys[i++] = serialize(lockName(name, ".lock"));
+        }
+        return register(LockKind.GROUP, groupKey, new Locker(keys, LockKind.GROUP, this));
+    }
+
+    /**
+     * 一组锁在注册表中的键，每个名称前加上其长度
+     * 名称中可能包含逗号，以逗号拼接时["a,b"]与["a", "b"]会得到相同的键
+     */
+    private static String groupKey(TreeSet<String> sortedNames) {
+        StringBuilder key = new StringBuilder();
+        for (String name : sortedNames) {
+            key.append(name.length()).append(':').append(name);
+        }
+        return key.toString();
+    }
+
+    @Override
+    public DistributedSemaphore acquireSemaphore(String name, int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("permits must be positive");
+        }
+        Locker locker = registered(LockKind.SEMAPHORE, name);
+        if (locker == null) {
+            byte[] key = serialize(lockName(name, ".semaphore"));
+            locker = register(LockKind.SEMAPHORE, name, new Locker(new byte[][]{key}, LockKind.SEMAPHORE, permits, this));
+        }
+        if (locker.capacity != permits) {
+            throw new IllegalArgumentException("semaphore '" + locker.name + "' has been acquired with " + locker.capacity + " permits");
+        }
+        return new Semaphore(locker, permits);
+    }
+
+    /**
+     * 锁在Redis中的键，同一把锁的其他键在此基础上追加后缀
+     * 子类可以改变键的格式，例如集群模式下加上hash tag
+     */
+    String lockName(String name, String suffix) {
+        if (StringUtils.isEmpty(namePrefix)) {
+            return name + suffix;
+        }
+        return new StringBuilder(namePrefix.length() + name.length() + suffix.length() + 1)
+                .append(namePrefix).append('.').append(name).append(suffix).toString();
+    }
+
+    /**
+     * 查找已注册且尚未被回收的锁，不存在时返回空
+     */
+    private Locker registered(LockKind kind, String name) {
+        if (StringUtils.isEmpty(name)) {
+            throw new IllegalArgumentException("name can not be null or empty");
+        }
+        LockerReference reference = lockers.get(kind).get(name);
+        return reference != null ? reference.get() : null;
+    }
+
+    /**
+     * 注册{@code locker}，已有其他线程注册了同名的锁时返回已注册的锁
+     */
+    private Locker register(LockKind kind, String name, Locker locker) {
+        expungeCollectedLockers();
+        ConcurrentHashMap<String, LockerReference> registry = lockers.get(kind);
+        LockerReference created = new LockerReference(kind, name, locker, collectedLockers);
+        while (true) {
+            LockerReference exists = registry.putIfAbsent(name, created);
+            if (exists == null) {
+                return locker;
+            }
+            Locker registered = exists.get();
+            if (registered != null) {
+                return registered;
+            }
+            if (registry.replace(name, exists, created)) {
+                return locker;
+            }
+        }
+    }
+
+    /**
+     * 清理已被回收的锁在注册表中留下的引用
+     */
+    private void expungeCollectedLockers() {
+        Reference<? extends Locker> reference;
+        while ((reference = collectedLockers.poll()) != null) {
+            LockerReference collected = (LockerReference) reference;
+            lockers.get(collected.kind).remove(collected.name, collected);
+        }
+    }
+
+    /**
+     * 注册表中的锁的数量，包括已不再使用但尚未被回收的锁
+     *
+     * @return
+     */
+    public int getRegisteredLocks() {
+        expungeCollectedLockers();
+        int registered = 0;
+        for (ConcurrentHashMap<String, LockerReference> registry : lockers.values()) {
+            registered += registry.size();
+        }
+        return registered;
+    }
+
+    @Override
+    public void forceUnlock(Lock lock) {
+        if (lock instanceof RetryPolicyLocker) {
+            lock = ((RetryPolicyLocker) lock).locker;
+        }
+        if (!(lock instanceof Locker)) {
+            throw new IllegalArgumentException("unexpected lock instance: " + lock.getClass().getName());
+        }
+        forceUnlock((Locker) lock);
+    }
+
+    /**
+     * 续期失败的累计次数，包括锁已不存在以及执行续期命令出错
+     *
+     * @return
+     */
+    public long getFailedRenewals() {
+        return failedRenewals.get();
+    }
+
+    /**
+     * 当前持有租约的锁的数量，共享锁的每个持有者各算一个
+     *
+     * @return
+     */
+    public int getHeldLocks() {
+        AtomicInteger held = new AtomicInteger();
+        heldLockers.forEach((locker, ignored) -> locker.forEachOwner(owner -> {
+            if (owner.leased) {
+                held.incrementAndGet();
+            }
+        }));
+        return held.get();
+    }
+
+    /**
+     * 剩余租约按本地记录的到期时间计算，偏向模式下解锁后保留的租约不计入
+     */
+    @Override
+    public List<HeldLock> listHeldLocks() {
+        long nowNanos = System.nanoTime();
+        List<HeldLock> held = new ArrayList<>();
+        heldLockers.forEach((locker, ignored) -> locker.forEachOwner(owner -> {
+            if (owner.leased) {
+                held.add(owner.toHeldLock(nowNanos));
+            }
+        }));
+        return held;
+    }
+
+    /**
+     * 设置监控指标，默认不记录
+     */
+    public void setMetrics(LockMetrics metrics) {
+        this.metrics = metrics;
+        metrics.bindHeldLocks(this::getHeldLocks);
+    }
+
+    /**
+     * 设置所有锁默认的重试策略，单把锁可以通过{@link Lock#withRetryPolicy(RetryPolicy)}使用其他策略
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        log.info("retry policy = {}", retryPolicy);
+    }
+
+    /**
+     * 启用偏向模式，只对{@link #acquire(String)}获取的排他锁生效，适用于同一节点连续多次获取同一把锁的场景
+     * <ol>
+     *     <li>解锁后Redis中的租约在{@code linger}内仍由本节点保留，期间本节点再次加锁直接接管该租约，不访问Redis</li>
+     *     <li>保留期满，或者其他节点正在等待该锁时，交还租约并发送释放通知</li>
+     *     <li>接管租约的持有者沿用原来的fencing token，与可重入锁的重入相同</li>
+     *     <li>等待者只在本节点启用偏向模式时请求交还，共用锁的所有节点应当同样启用</li>
+     * </ol>
+     *
+     * @param linger 为0时关闭偏向模式，已经保留的租约在期满后交还
+     */
+    public void setBiasedLinger(Duration linger) {
+        this.biasedLingerNanos = linger.toNanos();
+        log.info("biased linger = {}ms", linger.toMillis());
+    }
+
+    /**
+     * 续期线程按时间轮的刻度运行，每个刻度取出到期的持有者一次续期
+     */
+    private void startRenew() {
+        Thread thread = new Thread(() -> {
+            log.info("start renew with {}ms interval", renewInterval);
+            List<LockOwner> due = new ArrayList<>();
+            while (true) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(renewals.nanosUntilNextTick(System.nanoTime()));
+                } catch (InterruptedException e) {
+                    if (closed) {
+                        log.info("stop renew task, the lock manager has been closed");
+                    } else {
+                        log.error("stop renew task,because thread was interrupted", e);
+                    }
+                    return;
+                }
+                renewals.expire(System.nanoTime(), due);
+                if (due.isEmpty()) {
+                    continue;
+                }
+                try {
+                    renewDue(due);
+                } catch (Throwable throwable) {
+                    log.error("failed to renew locks", throwable);
+                } finally {
+                    due.clear();
+                }
+            }
+        });
+        thread.setName("distributed-lock-renew");
+        thread.start();
+        this.renewThread = thread;
+    }
+
+    /**
+     * 停止续期、异步加锁的调度以及释放通知的订阅
+     * 仍被持有的锁不再续期，在Redis中的租约到期后自动释放；等待中的异步加锁不会完成
+     */
+    @Override
+    public void destroy() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (renewThread != null) {
+            renewThread.interrupt();
+        }
+        asyncExecutor.shutdownNow();
+        releaseSubscriber.close();
+        log.info("lock manager closed, {} held locks will expire with their leases", getHeldLocks());
+    }
+
+    /**
+     * 加锁成功后安排首次续期
+     */
+    private void scheduleRenewal(LockOwner owner) {
+        scheduleRenewal(owner, jitteredRenewInterval());
+    }
+
+    private void scheduleRenewal(LockOwner owner, long delayMillis) {
+        owner.renewal = renewals.schedule(owner, TimeUnit.MILLISECONDS.toNanos(delayMillis));
+    }
+
+    private void cancelRenewal(LockOwner owner) {
+        HashedWheelTimer.Timeout<LockOwner> renewal = owner.renewal;
+        if (renewal != null) {
+            renewals.cancel(renewal);
+        }
+    }
+
+    private long jitteredRenewInterval() {
+        return renewInterval - ThreadLocalRandom.current().nextLong((long) (renewInterval * RenewJitterFactor) + 1);
+    }
+
+    /**
+     * 一次续期所有到期的持有者，按顺序将结果对应回每个{@link LockOwner}
+     * <ol>
+     *     <li>续期成功的安排下一次续期</li>
+     *     <li>锁已经不属于该持有者的，标记为租约丢失</li>
+     *     <li>续期出错的，在租约到期前稍后重试，到期后标记为租约丢失</li>
+     * </ol>
+     */
+    private void renewDue(List<LockOwner> due) {
+        List<LockOwner> renewing = new ArrayList<>(due.size());
+        for (LockOwner owner : due) {
+            //已经释放的持有者不再续期
+            if (owner.leased) {
+                renewing.add(owner);
+            }
+        }
+        if (renewing.isEmpty()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        List<Object> results;
+        try {
+            results = renew(renewing, serialize(String.valueOf(start)));
+        } catch (Throwable throwable) {
+            log.error("failed to renew {} locks", renewing.size(), throwable);
+            results = new ArrayList<>(renewing.size());
+            for (int i = 0; i < renewing.size(); i++) {
+                results.add(throwable);
+            }
+        }
+
+        int failed = 0;
+        for (int i = 0; i < renewing.size(); i++) {
+            LockOwner owner = renewing.get(i);
+            Object result = i < results.size() ? results.get(i) : null;
+            if (!owner.leased) {
+                continue;
+            }
+            if (Long.valueOf(1).equals(result)) {
+                owner.leaseExpiresNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(leaseTimeMillis);
+                scheduleRenewal(owner);
+                continue;
+            }
+            failed++;
+            long remaining = TimeUnit.NANOSECONDS.toMillis(owner.leaseExpiresNanos - System.nanoTime());
+            if (result instanceof Throwable && remaining > RenewRetryMilliseconds) {
+                log.error("failed to renew lock {}, retry in {}ms", owner.locker.name, RenewRetryMilliseconds, (Throwable) result);
+                scheduleRenewal(owner, RenewRetryMilliseconds);
+                continue;
+            }
+            log.warn("failed to renew lock {}, the lease has been lost", owner.locker.name);
+            owner.leaseLost();
+        }
+        if (failed > 0) {
+            failedRenewals.addAndGet(failed);
+        }
+        metrics.renewed(System.nanoTime() - startNanos, renewing.size() - failed, failed);
+        long elapsed = System.currentTimeMillis() - start;
+        log.debug("renewed {} locks in {}ms, {} failed", renewing.size(), elapsed, failed);
+        if (elapsed > RenewTickMilliseconds) {
+            log.warn("renewing {} locks took {}ms, longer than the {}ms renew tick", renewing.size(), elapsed, RenewTickMilliseconds);
+        }
+    }
+
+    /**
+     * 在一个pipeline中通过{@code connection}续期所有持有者
+     * 脚本缓存被清空时，对NOSCRIPT的持有者使用EVAL重新续期
+     */
+    final List<Object> renewInPipeline(RedisConnection connection, List<LockOwner> renewing, byte[] now) {
+        List<Object> results = renewInPipeline(connection, renewing, now, false);
+        List<Integer> retries = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            Object result = results.get(i);
+            if (result instanceof Throwable && RedisLuaScript.isNoScript((Throwable) result)) {
+                retries.add(i);
+            }
+        }
+        if (!retries.isEmpty()) {
+            List<LockOwner> retryOwners = new ArrayList<>(retries.size());
+            for (Integer index : retries) {
+                retryOwners.add(renewing.get(index));
+            }
+            List<Object> retryResults = renewInPipeline(connection, retryOwners, now, true);
+            for (int i = 0; i < retries.size() && i < retryResults.size(); i++) {
+                results.set(retries.get(i), retryResults.get(i));
+            }
+        }
+        return results;
+    }
+
+    private List<Object> renewInPipeline(RedisConnection connection, List<LockOwner> renewing, byte[] now, boolean eval) {
+        try {
+            connection.openPipeline();
+            for (LockOwner owner : renewing) {
+                Locker locker = owner.locker;
+                byte[][] keysAndArgs = locker.keysAndArgs(owner.token, leaseTimeBytes, now);
+                if (eval) {
+                    locker.kind.renewScript.eval(connection, ReturnType.INTEGER, locker.keys.length, keysAndArgs);
+                } else {
+                    locker.kind.renewScript.executeInPipeline(connection, ReturnType.INTEGER, locker.keys.length, keysAndArgs);
+                }
+            }
+            return new ArrayList<>(connection.closePipeline());
+        } catch (RedisPipelineException e) {
+            return new ArrayList<>(e.getPipelineResult());
+        }
+    }
+
+    /**
+     * 锁的类型，决定使用的脚本以及本地的持有方式
+     */
+    enum LockKind {
+        EXCLUSIVE(RedisLockScripts.Lock, RedisLockScripts.Unlock, RedisLockScripts.Renew, false, false),
+        /**
+         * 在Redis中使用hash保存持有者的token，持有次数只在本地计数，持有者重入时不访问Redis
+         */
+        REENTRANT(RedisLockScripts.ReentrantLock, RedisLockScripts.ReentrantUnlock, RedisLockScripts.ReentrantRenew, true, false),
+        /**
+         * 共享锁，同一JVM内的多个持有者不经过本地队列，各自持有独立的token
+         */
+        READ(RedisLockScripts.ReadLock, RedisLockScripts.ReadWriteUnlock, RedisLockScripts.ReadWriteRenew, false, true),
+        WRITE(RedisLockScripts.WriteLock, RedisLockScripts.ReadWriteUnlock, RedisLockScripts.ReadWriteRenew, false, false),
+        /**
+         * 信号量，每个持有者占用若干许可，与读锁相同不经过本地队列
+         */
+        SEMAPHORE(RedisLockScripts.SemaphoreAcquire, RedisLockScripts.SemaphoreRelease, RedisLockScripts.SemaphoreRenew, false, true),
+        /**
+         * 一组排他锁，使用与{@link #EXCLUSIVE}相同的键，整组共用一个token
+         */
+        GROUP(RedisLockScripts.MultiLock, RedisLockScripts.MultiUnlock, RedisLockScripts.MultiRenew, false, false),
+        /**
+         * 公平锁，在Redis中排队，释放时只唤醒队首的等待者，续期与{@link #EXCLUSIVE}相同
+         */
+        FAIR(RedisLockScripts.FairLock, RedisLockScripts.FairUnlock, RedisLockScripts.Renew, false, false);
+
+        final RedisLuaScript lockScript;
+        final RedisLuaScript unlockScript;
+        final RedisLuaScript renewScript;
+        private final boolean reentrant;
+        private final boolean shared;
+
+        LockKind(RedisLuaScript lockScript, RedisLuaScript unlockScript, RedisLuaScript renewScript, boolean reentrant, boolean shared) {
+            this.lockScript = lockScript;
+            this.unlockScript = unlockScript;
+            this.renewScript = renewScript;
+            this.reentrant = reentrant;
+            this.shared = shared;
+        }
+    }
+
+    private static class ReadWriteLocker implements ReadWriteLock {
+        private final Locker readLocker;
+        private final Locker writeLocker;
+
+        private ReadWriteLocker(Locker readLocker, Locker writeLocker) {
+            this.readLocker = readLocker;
+            this.writeLocker = writeLocker;
+        }
+
+        @Override
+        public Lock readLock() {
+            return readLocker;
+        }
+
+        @Override
+        public Lock writeLock() {
+            return writeLocker;
+        }
+    }
+
+    private static class Semaphore implements DistributedSemaphore {
+        private final Locker locker;
+        private final int permits;
+
+        private Semaphore(Locker locker, int permits) {
+            this.locker = locker;
+            this.permits = permits;
+        }
+
+        @Override
+        public String getName() {
+            return locker.name;
+        }
+
+        @Override
+        public int getPermits() {
+            return permits;
+        }
+
+        @Override
+        public Scope acquire(int permits, Duration timeout) throws TimeoutException {
+            checkPermits(permits);
+            LockOwner owner = locker.tryLockOwner(timeout, permits, locker.lockManager.retryPolicy);
+            if (owner != null) {
+                return owner;
+            }
+            throw new TimeoutException();
+        }
+
+        @Override
+        public Scope tryAcquire(int permits) {
+            checkPermits(permits);
+            return locker.tryLockOnce(permits);
+        }
+
+        @Override
+        public void release(Scope scope) {
+            if (!(scope instanceof LockOwner) || ((LockOwner) scope).locker != locker) {
+                throw new IllegalArgumentException("the scope is not acquired from semaphore '" + getName() + "'");
+            }
+            scope.close();
+        }
+
+        private void checkPermits(int permits) {
+            if (permits <= 0 || permits > this.permits) {
+                throw new IllegalArgumentException("permits must be between 1 and " + this.permits);
+            }
+        }
+    }
+
+    /**
+     * 使用指定重试策略的锁，与原锁是同一把锁，共享持有状态
+     */
+    private static class RetryPolicyLocker implements Lock {
+        private final Locker locker;
+        private final RetryPolicy retryPolicy;
+
+        private RetryPolicyLocker(Locker locker, RetryPolicy retryPolicy) {
+            this.locker = locker;
+            this.retryPolicy = retryPolicy;
+        }
+
+        @Override
+        public Scope lock() {
+            return locker.lock(retryPolicy);
+        }
+
+        @Override
+        public Scope lock(Duration timeout) throws TimeoutException {
+            return locker.lock(timeout, retryPolicy);
+        }
+
+        @Override
+        public CompletableFuture<Scope> lockAsync(Duration timeout) {
+            return locker.lockAsync(timeout, retryPolicy);
+        }
+
+        @Override
+        public String getName() {
+            return locker.getName();
+        }
+
+        @Override
+        public boolean tryLock() {
+            return locker.tryLock();
+        }
+
+        @Override
+        public boolean isHeldByCurrentThread() {
+            return locker.isHeldByCurrentThread();
+        }
+
+        @Override
+        public long getFencingToken() {
+            return locker.getFencingToken();
+        }
+
+        @Override
+        public boolean tryLock(Duration timeout) {
+            return locker.tryLockOwner(timeout, 1, retryPolicy) != null;
+        }
+
+        @Override
+        public void unlock() {
+            locker.unlock();
+        }
+
+        @Override
+        public void tryLockWith(Action acquireSuccess, Action acquireFailed) {
+            locker.tryLockWith(acquireSuccess, acquireFailed);
+        }
+
+        @Override
+        public void tryLockWith(Duration timeout, Action acquireSuccess, Action acquireFailed) {
+            locker.tryLockWith(timeout, acquireSuccess, acquireFailed, retryPolicy);
+        }
+
+        @Override
+        public Lock withRetryPolicy(RetryPolicy retryPolicy) {
+            return locker.withRetryPolicy(retryPolicy);
+        }
+    }
+
+    /**
+     * 注册表对锁的弱引用，锁被回收后用于从对应的注册表中移除
+     */
+    private static class LockerReference extends WeakReference<Locker> {
+        private final LockKind kind;
+        private final String name;
+
+        private LockerReference(LockKind kind, String name, Locker locker, ReferenceQueue<Locker> queue) {
+            super(locker, queue);
+            this.kind = kind;
+            this.name = name;
+        }
+    }
+
+    @Slf4j
+    static class Locker implements Lock {
+        final String name;
+        /**
+         * 脚本使用的键，第一个总是锁本身
+         */
+        final byte[][] keys;
+        /**
+         * 加锁脚本使用的键，在{@link #keys}之后依次加上fencing token的计数器
+         * 一组锁对应组内每把锁各自的计数器，读锁与写锁共用一个计数器
+         */
+        final byte[][] lockKeys;
+        /**
+         * 释放通知的频道，一组锁对应组内每把锁各自的频道
+         */
+        final String[] channels;
+        final byte[] channelBytes;
+        final LockKind kind;
+        /**
+         * 信号量的总许可数，其他类型的锁为0，{@code capacityBytes}为空
+         */
+        private final int capacity;
+        private final byte[] capacityBytes;
+        /**
+         * 排他锁的本地队列，共享锁为空
+         */
+        private final LocalLockQueue localQueue;
+        /**
+         * 共享锁的所有持有者，排他锁为空
+         */
+        private final Set<LockOwner> sharedOwners;
+        private final AbstractRedisLockManager lockManager;
+        /**
+         * 排他锁的当前持有者，持有本地锁期间不为空
+         */
+        private volatile LockOwner owner;
+        /**
+         * 偏向模式下解锁后仍保留在Redis中的租约及保留的截止时间，由锁对象同步
+         */
+        private volatile LockOwner parked;
+        private long parkedUntilNanos;
+        private ScheduledFuture<?> parkTimer;
+        /**
+         * 偏向模式下持有租约期间订阅其他节点请求该锁的通知，{@code wanted}表示已经收到
+         */
+        private volatile RedisLockReleaseSubscriber.Subscription wantedSubscription;
+        private boolean wanted;
+
+        private Locker(byte[][] keys, LockKind kind, AbstractRedisLockManager lockManager) {
+            this(keys, kind, 0, lockManager);
+        }
+
+        /**
+         * 锁的名称、频道以及计数器的键都由{@code keys}生成，只在注册新的锁时执行一次
+         */
+        private Locker(byte[][] keys, LockKind kind, int capacity, AbstractRedisLockManager lockManager) {
+            this.keys = keys;
+            this.kind = kind;
+            this.capacity = capacity;
+            this.capacityBytes = capacity > 0 ? serialize(String.valueOf(capacity)) : null;
+            this.lockManager = lockManager;
+            if (kind == LockKind.GROUP) {
+                String[] names = new String[keys.length];
+                this.channels = new String[keys.length];
+                for (int i = 0; i < keys.length; i++) {
+                    names[i] = deserialize(keys[i]);
+                    this.channels[i] = names[i] + ".released";
+                }
+                this.name = String.join(",", names);
+            } else {
+                this.name = deserialize(keys[0]);
+                this.channels = new String[]{name + ".released"};
+            }
+            this.channelBytes = concat(keys[0], ReleasedSuffix);
+            int locks = kind == LockKind.GROUP ? keys.length : 1;
+            this.lockKeys = Arrays.copyOf(keys, keys.length + locks);
+            for (int i = 0; i < locks; i++) {
+                this.lockKeys[keys.length + i] = concat(keys[i], FencingSuffix);
+            }
+            this.localQueue = kind.shared ? null : new LocalLockQueue();
+            this.sharedOwners = kind.shared ? ConcurrentHashMap.newKeySet() : null;
+        }
+
+        private static byte[] concat(byte[] key, byte[] suffix) {
+            byte[] bytes = Arrays.copyOf(key, key.length + suffix.length);
+            System.arraycopy(suffix, 0, bytes, key.length, suffix.length);
+            return bytes;
+        }
+
+        /**
+         * 拼接解锁及续期脚本的参数，键在前
+         */
+        byte[][] keysAndArgs(byte[]... args) {
+            return concat(keys, args);
+        }
+
+        /**
+         * 拼接加锁脚本的参数，键的数量为{@code lockKeys.length}
+         * 排他锁的等待标记只用于请求偏向模式下保留租约的节点交还，未启用偏向模式时不发送，避免每次失败都发布通知
+         */
+        byte[][] lockArgs(LockOwner owner, byte[] leaseTimeBytes, byte[] now, boolean waiting) {
+            boolean flagged = kind == LockKind.EXCLUSIVE ? waiting && lockManager.biasedLingerNanos > 0 : waiting;
+            byte[] waitingBytes = flagged ? Waiting : NotWaiting;
+            if (capacityBytes != null) {
+                return concat(lockKeys, owner.token, leaseTimeBytes, now, waitingBytes, capacityBytes);
+            }
+            return concat(lockKeys, owner.token, leaseTimeBytes, now, waitingBytes);
+        }
+
+        private static byte[][] concat(byte[][] keys, byte[]... args) {
+            byte[][] keysAndArgs = Arrays.copyOf(keys, keys.length + args.length);
+            System.arraycopy(args, 0, keysAndArgs, keys.length, args.length);
+            return keysAndArgs;
+        }
+
+        private void forEachOwner(Consumer<LockOwner> action) {
+            if (kind.shared) {
+                sharedOwners.forEach(action);
+                return;
+            }
+            LockOwner owner = this.owner;
+            if (owner != null) {
+                action.accept(owner);
+            }
+        }
+
+        /**
+         * 当前线程可以释放的持有者，不存在时返回空
+         */
+        private LockOwner releasableOwner() {
+            if (!kind.shared) {
+                LockOwner owner = this.owner;
+                return owner != null && owner.isReleasableByCurrentThread() ? owner : null;
+            }
+            for (LockOwner owner : sharedOwners) {
+                if (owner.isReleasableByCurrentThread()) {
+                    return owner;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 按照锁管理器的所有权模式决定持有者是否绑定当前线程
+         * 可重入锁需要通过线程识别重入，总是绑定线程
+         */
+        private long currentOwnerThread() {
+            return kind.reentrant || lockManager.ownership == LockOwnership.THREAD ? Thread.currentThread().getId() : LockOwner.NoThread;
+        }
+
+        /**
+         * 可重入锁的本地快速路径，当前线程已经持有锁时只增加持有次数，不访问Redis
+         */
+        private LockOwner tryReenter(long startNanos) {
+            if (!kind.reentrant) {
+                return null;
+            }
+            LockOwner owner = this.owner;
+            if (owner == null || owner.thread != Thread.currentThread().getId()) {
+                return null;
+            }
+            owner.holds.incrementAndGet();
+            lockManager.metrics.acquired(name, System.nanoTime() - startNanos, 0, 0);
+            return owner;
+        }
+
+        /**
+         * 尝试获取本地锁，同一JVM内同一时刻只有一个持有者能够进入分布式锁竞争
+         */
+        private LockOwner tryAcquireLocal(long startNanos, int permits) {
+            if (localQueue != null && !localQueue.tryAcquire()) {
+                return null;
+            }
+            return onLocalAcquired(currentOwnerThread(), startNanos, permits);
+        }
+
+        /**
+         * 在本地等待队列中排队获取本地锁，释放时直接交给下一个等待者
+         */
+        private LockOwner tryAcquireLocal(long timeoutMillis, long startNanos, int permits) throws InterruptedException {
+            if (localQueue != null && !localQueue.acquire(timeoutMillis)) {
+                return null;
+            }
+            return onLocalAcquired(currentOwnerThread(), startNanos, permits);
+        }
+
+        /**
+         * @param startNanos 调用加锁的时间，用于统计加锁耗时
+         * @param permits    信号量的持有者在token中携带占用的许可数，格式为{@code permits:uuid}
+         */
+        private LockOwner onLocalAcquired(long thread, long startNanos, int permits) {
+            LockOwner parked = claimParked();
+            if (parked != null) {
+                LockOwner owner = new LockOwner(this, parked.token, thread, startNanos);
+                inheritLease(parked, owner);
+                this.owner = owner;
+                return owner;
+            }
+            String token = kind == LockKind.SEMAPHORE ? permits + ":" + UUID.randomUUID() : UUID.randomUUID().toString();
+            LockOwner owner = new LockOwner(this, serialize(token), thread, startNanos);
+            if (kind.shared) {
+                sharedOwners.add(owner);
+            } else {
+                this.owner = owner;
+            }
+            return owner;
+        }
+
+        /**
+         * 访问Redis尝试加锁，记录访问次数以及加锁成功的时间
+         */
+        private boolean tryLockRemote(LockOwner owner, boolean waiting) {
+            owner.lastAttemptNanos = System.nanoTime();
+            if (owner.leased) {
+                //已经接管了本节点保留的租约
+                owner.acquiredNanos = owner.lastAttemptNanos;
+                lockManager.heldLockers.put(this, Boolean.TRUE);
+                lockManager.metrics.acquired(name, owner.acquiredNanos - owner.startNanos, owner.lastAttemptNanos - owner.startNanos, 0);
+                return true;
+            }
+            owner.roundTrips++;
+            if (!lockManager.tryLockInner(this, owner, waiting)) {
+                return false;
+            }
+            owner.acquiredNanos = System.nanoTime();
+            owner.leaseExpiresNanos = owner.lastAttemptNanos + TimeUnit.MILLISECONDS.toNanos(lockManager.leaseTimeMillis);
+            lockManager.heldLockers.put(this, Boolean.TRUE);
+            lockManager.scheduleRenewal(owner);
+            if (isBiased()) {
+                watchWanted();
+            }
+            lockManager.metrics.acquired(name, owner.acquiredNanos - owner.startNanos, owner.lastAttemptNanos - owner.startNanos, owner.roundTrips);
+            return true;
+        }
+
+        private void timedOut(LockOwner owner) {
+            lockManager.metrics.acquireTimedOut(name, System.nanoTime() - owner.startNanos, owner.roundTrips);
+        }
+
+        private void failed(LockOwner owner) {
+            lockManager.metrics.acquireFailed(System.nanoTime() - owner.startNanos, owner.roundTrips);
+        }
+
+        private void releaseLocal(LockOwner owner) {
+            owner.leased = false;
+            if (kind.shared) {
+                sharedOwners.remove(owner);
+                releaseHeld();
+                return;
+            }
+            releaseLocalQueue();
+        }
+
+        private void releaseLocalQueue() {
+            this.owner = null;
+            releaseHeld();
+            this.localQueue.release();
+        }
+
+        private boolean isBiased() {
+            return kind == LockKind.EXCLUSIVE && lockManager.biasedLingerNanos > 0;
+        }
+
+        /**
+         * 偏向模式下解锁时保留Redis中的租约，续期照常进行，只释放本地锁
+         * 其他节点正在等待该锁或者租约已经丢失时不保留
+         */
+        private boolean tryPark(LockOwner owner) {
+            long lingerNanos = lockManager.biasedLingerNanos;
+            if (kind != LockKind.EXCLUSIVE || (lingerNanos <= 0 && wantedSubscription == null)) {
+                return false;
+            }
+            synchronized (this) {
+                if (lingerNanos <= 0 || wanted || !owner.leased) {
+                    unwatchWanted();
+                    return false;
+                }
+                owner.detachLeaseLostCallbacks();
+                parked = owner;
+                parkedUntilNanos = System.nanoTime() + lingerNanos;
+                if (parkTimer == null) {
+                    parkTimer = lockManager.asyncExecutor.schedule(this::parkExpired, lingerNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+            releaseLocalQueue();
+            return true;
+        }
+
+        /**
+         * 取出保留的租约由新的持有者接管，保留期间租约已经丢失时交还并返回空
+         */
+        private LockOwner claimParked() {
+            if (parked == null) {
+                return null;
+            }
+            LockOwner claimed;
+            synchronized (this) {
+                claimed = parked;
+                if (claimed == null) {
+                    return null;
+                }
+                parked = null;
+                if (claimed.leased) {
+                    return claimed;
+                }
+                unwatchWanted();
+            }
+            lockManager.asyncExecutor.execute(() -> handBack(claimed));
+            return null;
+        }
+
+        /**
+         * 新的持有者沿用保留的租约的token、fencing token以及续期时间
+         */
+        private void inheritLease(LockOwner parked, LockOwner owner) {
+            owner.fencingToken = parked.fencingToken;
+            owner.leaseExpiresNanos = parked.leaseExpiresNanos;
+            owner.leased = true;
+            parked.leased = false;
+            lockManager.cancelRenewal(parked);
+            long leasedNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lockManager.leaseTimeMillis) - owner.leaseExpiresNanos;
+            lockManager.scheduleRenewal(owner, Math.max(0, lockManager.renewInterval - TimeUnit.NANOSECONDS.toMillis(leasedNanos)));
+        }
+
+        /**
+         * 保留期满时交还租约，期间被接管后再次保留的，按最近一次保留的截止时间重新计时
+         */
+        private void parkExpired() {
+            LockOwner expired;
+            synchronized (this) {
+                parkTimer = null;
+                if (parked == null) {
+                    return;
+                }
+                long remaining = parkedUntilNanos - System.nanoTime();
+                if (remaining > 0) {
+                    parkTimer = lockManager.asyncExecutor.schedule(this::parkExpired, remaining, TimeUnit.NANOSECONDS);
+                    return;
+                }
+                expired = parked;
+                parked = null;
+                unwatchWanted();
+            }
+            handBack(expired);
+        }
+
+        /**
+         * 订阅其他节点请求该锁的通知，收到后立即交还保留的租约，持有期间收到的在解锁时不再保留
+         */
+        private synchronized void watchWanted() {
+            if (wantedSubscription != null) {
+                return;
+            }
+            wanted = false;
+            RedisLockReleaseSubscriber.Subscription subscription = lockManager.releaseSubscriber.subscribe(name + ".wanted");
+            wantedSubscription = subscription;
+            subscription.nextRelease().thenRunAsync(() -> {
+                LockOwner wantedParked;
+                synchronized (this) {
+                    if (wantedSubscription != subscription) {
+                        return;
+                    }
+                    wanted = true;
+                    wantedParked = parked;
+                    if (wantedParked == null) {
+                        return;
+                    }
+                    parked = null;
+                    unwatchWanted();
+                }
+                handBack(wantedParked);
+            }, lockManager.asyncExecutor);
+        }
+
+        private synchronized void unwatchWanted() {
+            RedisLockReleaseSubscriber.Subscription subscription = wantedSubscription;
+            if (subscription != null) {
+                wantedSubscription = null;
+                subscription.close();
+            }
+        }
+
+        /**
+         * 交还保留的租约，释放通知唤醒其他节点的等待者，失败时租约在到期后自动释放
+         */
+        private void handBack(LockOwner parked) {
+            parked.leased = false;
+            lockManager.cancelRenewal(parked);
+            try {
+                lockManager.tryUnlockInner(this, parked);
+            } catch (Throwable throwable) {
+                log.warn("failed to hand back the lease of '{}', it will expire", name, throwable);
+            }
+        }
+
+        /**
+         * 没有持有者时不再强引用，其他线程已经重新持有时保留
+         */
+        private void releaseHeld() {
+            lockManager.heldLockers.computeIfPresent(this, (locker, held) -> locker.hasOwners() ? held : null);
+        }
+
+        private boolean hasOwners() {
+            return kind.shared ? !sharedOwners.isEmpty() : owner != null;
+        }
+
+        @Override
+        public Scope lock() {
+            return lock(lockManager.retryPolicy);
+        }
+
+        private Scope lock(RetryPolicy retryPolicy) {
+            while (true) {
+                LockOwner owner = tryLockOwner(Unbounded, 1, retryPolicy);
+                if (owner != null) {
+                    return owner;
+                }
+            }
+        }
+
+        @Override
+        public Scope lock(Duration timeout) throws TimeoutException {
+            return lock(timeout, lockManager.retryPolicy);
+        }
+
+        private Scope lock(Duration timeout, RetryPolicy retryPolicy) throws TimeoutException {
+            LockOwner owner = tryLockOwner(timeout, 1, retryPolicy);
+            if (owner != null) {
+                return owner;
+            }
+            throw new TimeoutException();
+        }
+
+        @Override
+        public CompletableFuture<Scope> lockAsync(Duration timeout) {
+            return lockAsync(timeout, lockManager.retryPolicy);
+        }
+
+        private CompletableFuture<Scope> lockAsync(Duration timeout, RetryPolicy retryPolicy) {
+            long startNanos = System.nanoTime();
+            long maxMillis = deadlineMillis(timeout);
+            CompletableFuture<Scope> result = new CompletableFuture<>();
+            //本地锁竞争，排队期间不占用线程，共享锁不需要本地排队
+            CompletableFuture<Void> local = localQueue != null ? localQueue.acquireAsync() : CompletableFuture.completedFuture(null);
+            if (!local.isDone()) {
+                ScheduledFuture<?> timer = lockManager.asyncExecutor.schedule(() -> {
+                    if (localQueue.cancel(local)) {
+                        log.info("tryLock timeout,duration: {}ms", timeout.toMillis());
+                        lockManager.metrics.acquireTimedOut(name, System.nanoTime() - startNanos, 0);
+                        result.completeExceptionally(new TimeoutException());
+                    }
+                }, timeout.toMillis(), TimeUnit.MILLISECONDS);
+                local.thenRun(() -> timer.cancel(false));
+            }
+            //异步加锁的持有者总是不绑定线程
+            local.thenRunAsync(() -> tryLockAsync(onLocalAcquired(LockOwner.NoThread, startNanos, 1), maxMillis, timeout, retryPolicy, result, null),
+                    lockManager.asyncExecutor);
+            return result;
+        }
+
+        /**
+         * 异步的分布式锁竞争，失败后在收到释放通知或等待超时后再由{@code asyncExecutor}重试
+         */
+        private void tryLockAsync(LockOwner owner, long maxMillis, Duration timeout, RetryPolicy retryPolicy, CompletableFuture<Scope> result,
+                                  RedisLockReleaseSubscriber.Subscription subscription) {
+            CompletableFuture<byte[]> released = subscription != null ? subscription.nextRelease() : null;
+            try {
+                if (tryLockRemote(owner, true)) {
+                    closeQuietly(subscription);
+                    //调用方已经取消了等待，直接释放
+                    if (!result.complete(owner)) {
+                        owner.close();
+                    }
+                    return;
+                }
+            } catch (Throwable throwable) {
+                closeQuietly(subscription);
+                leaveQueue(owner);
+                releaseLocal(owner);
+                failed(owner);
+                log.error("failed to lock", throwable);
+                result.completeExceptionally(new LockException());
+                return;
+            }
+
+            long remaining = maxMillis - System.currentTimeMillis();
+            if (remaining <= 0 || result.isDone()) {
+                closeQuietly(subscription);
+                leaveQueue(owner);
+                releaseLocal(owner);
+                timedOut(owner);
+                log.info("tryLock timeout,duration: {}ms", timeout.toMillis());
+                result.completeExceptionally(new TimeoutException());
+                return;
+            }
+            if (owner.retryBackoffMillis > 0) {
+                lockManager.asyncExecutor.schedule(() -> tryLockAsync(owner, maxMillis, timeout, retryPolicy, result, subscription),
+                        Math.min(owner.retryBackoffMillis, remaining), TimeUnit.MILLISECONDS);
+                return;
+            }
+            if (subscription == null) {
+                //订阅完成前的释放通知会丢失，订阅后立即重试一次
+                RedisLockReleaseSubscriber.Subscription subscribed = lockManager.releaseSubscriber.subscribe(channels);
+                lockManager.asyncExecutor.execute(() -> tryLockAsync(owner, maxMillis, timeout, retryPolicy, result, subscribed));
+                return;
+            }
+
+            AtomicBoolean retried = new AtomicBoolean();
+            Runnable retry = () -> {
+                if (retried.compareAndSet(false, true)) {
+                    tryLockAsync(owner, maxMillis, timeout, retryPolicy, result, subscription);
+                }
+            };
+            ScheduledFuture<?> timer = lockManager.asyncExecutor.schedule(retry, retryDelayMillis(owner, retryPolicy, remaining), TimeUnit.MILLISECONDS);
+            whenReleased(owner, subscription, released, timer, retry);
+        }
+
+        /**
+         * 收到唤醒{@code owner}的释放通知后取消兜底的轮询并重试，其他通知只继续等待下一次通知
+         */
+        private void whenReleased(LockOwner owner, RedisLockReleaseSubscriber.Subscription subscription, CompletableFuture<byte[]> released,
+                                  ScheduledFuture<?> timer, Runnable retry) {
+            released.thenAcceptAsync(message -> {
+                if (!isWokenBy(owner, message)) {
+                    if (!timer.isDone()) {
+                        whenReleased(owner, subscription, subscription.nextRelease(), timer, retry);
+                    }
+                    return;
+                }
+                timer.cancel(false);
+                retry.run();
+            }, lockManager.asyncExecutor);
+        }
+
+        /**
+         * 阻塞等待唤醒{@code owner}的释放通知，最多等待{@code timeoutMillis}，超时后由调用方主动重试
+         */
+        private void awaitRelease(LockOwner owner, RedisLockReleaseSubscriber.Subscription subscription, CompletableFuture<byte[]> released,
+                                  long timeoutMillis) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (true) {
+                try {
+                    if (isWokenBy(owner, released.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))) {
+                        return;
+                    }
+                } catch (java.util.concurrent.TimeoutException | ExecutionException ignored) {
+                    //未收到通知，主动重试
+                    return;
+                }
+                released = subscription.nextRelease();
+            }
+        }
+
+        /**
+         * 公平锁的释放通知以下一个等待者的token为内容，只唤醒该等待者，强制删除锁时唤醒所有等待者
+         * 其他类型的锁收到任何通知都重新竞争
+         */
+        private boolean isWokenBy(LockOwner owner, byte[] message) {
+            return kind != LockKind.FAIR || message == null || Arrays.equals(message, owner.token)
+                    || Arrays.equals(message, RedisLockScripts.ReleasedMessage);
+        }
+
+        /**
+         * 按重试策略计算下一次主动重试前的等待时长，不超过剩余的超时时间
+         */
+        private long retryDelayMillis(LockOwner owner, RetryPolicy retryPolicy, long remainingMillis) {
+            long delay = Math.min(retryPolicy.nextDelayMillis(owner.roundTrips, owner.lockTtlMillis), remainingMillis);
+            return kind == LockKind.FAIR ? Math.min(delay, FairPollMilliseconds) : delay;
+        }
+
+        /**
+         * 公平锁的等待者放弃等待时移出Redis中的等待队列，否则排在其后的等待者要等到其登记过期
+         */
+        private void leaveQueue(LockOwner owner) {
+            if (kind != LockKind.FAIR || owner.roundTrips == 0) {
+                return;
+            }
+            try {
+                lockManager.tryUnlockInner(this, owner);
+            } catch (Throwable throwable) {
+                log.warn("failed to leave the wait queue of '{}'", name, throwable);
+            }
+        }
+
+        private static void closeQuietly(RedisLockReleaseSubscriber.Subscription subscription) {
+            if (subscription != null) {
+                subscription.close();
+            }
+        }
+
+        @Override
+        public String getName() {
+            return this.name;
+        }
+
+        @Override
+        public boolean tryLock() {
+            return tryLockOnce(1) != null;
+        }
+
+        private LockOwner tryLockOnce(int permits) {
+            long startNanos = System.nanoTime();
+            LockOwner reentered = tryReenter(startNanos);
+            if (reentered != null) {
+                return reentered;
+            }
+            LockOwner owner = tryAcquireLocal(startNanos, permits);
+            if (owner == null) {
+                lockManager.metrics.acquireTimedOut(name, System.nanoTime() - startNanos, 0);
+                return null;
+            }
+            try {
+                if (tryLockRemote(owner, false)) {
+                    return owner;
+                }
+                releaseLocal(owner);
+                timedOut(owner);
+            } catch (Throwable throwable) {
+                releaseLocal(owner);
+                failed(owner);
+                log.error("failed to lock", throwable);
+                throw new LockException();
+            }
+            return null;
+        }
+
+        @Override
+        public boolean tryLock(Duration timeout) {
+            return tryLockOwner(timeout, 1, lockManager.retryPolicy) != null;
+        }
+
+        private LockOwner tryLockOwner(Duration timeout, int permits, RetryPolicy retryPolicy) {
+            long startNanos = System.nanoTime();
+            long maxMillis = deadlineMillis(timeout);
+            LockOwner reentered = tryReenter(startNanos);
+            if (reentered != null) {
+                return reentered;
+            }
+            //线程模式下不可重入，信号量允许同一线程持有多份许可
+            if (kind != LockKind.SEMAPHORE && isHeldByCurrentThread()) {
+                throw new LockException();
+            }
+
+            //本地锁竞争，在本地队列中排队，同一JVM内只有队首的持有者会访问Redis
+            LockOwner owner;
+            try {
+                owner = tryAcquireLocal(timeout.toMillis(), startNanos, permits);
+                if (owner == null) {
+                    log.info("tryLock timeout,duration: {}ms", timeout.toMillis());
+                    lockManager.metrics.acquireTimedOut(name, System.nanoTime() - startNanos, 0);
+                    return null;
+                }
+            } catch (InterruptedException e) {
+                lockManager.metrics.acquireFailed(System.nanoTime() - startNanos, 0);
+                log.error("failed to lock,the thread is interrupted", e);
+                throw new LockException();
+            }
+
+            //分布式锁竞争，首次失败后订阅释放通知，收到通知或等待超时后再重试
+            RedisLockReleaseSubscriber.Subscription subscription = null;
+            try {
+                while (true) {
+                    CompletableFuture<byte[]> released = subscription != null ? subscription.nextRelease() : null;
+                    if (tryLockRemote(owner, true)) {
+                        return owner;
+                    }
+                    long remaining = maxMillis - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        log.info("tryLock timeout,duration: {}ms", timeout.toMillis());
+                        timedOut(owner);
+                        break;
+                    }
+                    if (owner.retryBackoffMillis > 0) {
+                        TimeUnit.MILLISECONDS.sleep(Math.min(owner.retryBackoffMillis, remaining));
+                        continue;
+                    }
+                    if (subscription == null) {
+                        //订阅完成前的释放通知会丢失，订阅后立即重试一次
+                        subscription = lockManager.releaseSubscriber.subscribe(channels);
+                        continue;
+                    }
+                    awaitRelease(owner, subscription, released, retryDelayMillis(owner, retryPolicy, remaining));
+                }
+                leaveQueue(owner);
+                releaseLocal(owner);
+            } catch (InterruptedException e) {
+                leaveQueue(owner);
+                releaseLocal(owner);
+                failed(owner);
+                log.error("failed to lock,the thread is interrupted", e);
+                throw new LockException();
+            } catch (Throwable throwable) {
+                leaveQueue(owner);
+                releaseLocal(owner);
+                failed(owner);
+                log.error("failed to lock", throwable);
+            } finally {
+                closeQuietly(subscription);
+            }
+
+            return null;
+        }
+
+        @Override
+        public void unlock() {
+            LockOwner owner = releasableOwner();
+            if (owner == null) {
+                log.error("attempt to unlock '{}', not locked by current thread.", getName());
+                throw new UnlockException();
+            }
+            owner.close();
+        }
+
+        /**
+         * 释放{@code owner}持有的锁
+         */
+        private void unlock(LockOwner owner) {
+            if (kind.shared ? !sharedOwners.contains(owner) : this.owner != owner) {
+                log.error("attempt to unlock '{}', the scope is not the current owner.", getName());
+                throw new UnlockException();
+            }
+
+            lockManager.metrics.released(name, System.nanoTime() - owner.acquiredNanos);
+            if (tryPark(owner)) {
+                return;
+            }
+            //无论Redis中的锁是否释放成功，本地锁都必须交给下一个等待者，否则本地队列将永久阻塞
+            boolean unlocked = false;
+            owner.leased = false;
+            lockManager.cancelRenewal(owner);
+            try {
+                unlocked = lockManager.tryUnlockInner(this, owner);
+            } catch (Throwable throwable) {
+                log.error("failed to unlock", throwable);
+                throw new UnlockException();
+            } finally {
+                releaseLocal(owner);
+            }
+
+            if (!unlocked) {
+                log.error("attempt to unlock '{}', not locked by current owner.", getName());
+                throw new UnlockException();
+            }
+        }
+
+        @Override
+        public void tryLockWith(Action acquireSuccess, Action acquireFailed) {
+            if (tryLock()) {
+                try {
+                    acquireSuccess.execute();
+                } catch (Throwable throwable) {
+                    log.error("unexpected exception in 'acquireSuccess'", throwable);
+                } finally {
+                    unlock();
+                }
+            } else {
+                try {
+                    acquireFailed.execute();
+                } catch (Throwable throwable) {
+                    log.error("unexpected exception in 'acquireFailed'", throwable);
+                }
+            }
+        }
+
+        @Override
+        public void tryLockWith(Duration timeout, Action acquireSuccess, Action acquireFailed) {
+            tryLockWith(timeout, acquireSuccess, acquireFailed, lockManager.retryPolicy);
+        }
+
+        private void tryLockWith(Duration timeout, Action acquireSuccess, Action acquireFailed, RetryPolicy retryPolicy) {
+            Scope scope = tryLockOwner(timeout, 1, retryPolicy);
+            if (scope != null) {
+                try {
+                    acquireSuccess.execute();
+                } catch (Throwable throwable) {
+                    log.error("unexpected exception in 'acquireSuccess'", throwable);
+                } finally {
+                    scope.close();
+                }
+            } else {
+                try {
+                    acquireFailed.execute();
+                } catch (Throwable throwable) {
+                    log.error("unexpected exception in 'acquireFailed'", throwable);
+                }
+            }
+        }
+
+        @Override
+        public long getFencingToken() {
+            LockOwner owner = releasableOwner();
+            return owner != null ? owner.fencingToken : 0;
+        }
+
+        @Override
+        public Lock withRetryPolicy(RetryPolicy retryPolicy) {
+            return new RetryPolicyLocker(this, retryPolicy);
+        }
+
+        @Override
+        public boolean isHeldByCurrentThread() {
+            long thread = Thread.currentThread().getId();
+            if (!kind.shared) {
+                LockOwner owner = this.owner;
+                return owner != null && owner.thread == thread;
+            }
+            for (LockOwner owner : sharedOwners) {
+                if (owner.thread == thread) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 锁的持有者，每次加锁成功都会产生一个新的持有者，携带本次加锁的token
+     * <ol>
+     *     <li>绑定线程时，只能由加锁的线程关闭</li>
+     *     <li>不绑定线程时，可以在任意线程中关闭</li>
+     * </ol>
+     */
+    static class LockOwner implements Scope {
+        private static final long NoThread = 0;
+        final Locker locker;
+        final byte[] token;
+        private final long thread;
+        /**
+         * 持有次数，只有可重入锁会大于1，减到零时解锁
+         */
+        private final AtomicInteger holds;
+        /**
+         * 是否持有Redis中的租约，只有持有租约的锁才需要续期
+         */
+        volatile boolean leased;
+        /**
+         * 加锁成功时由加锁脚本返回，可重入锁重入时不变
+         */
+        volatile long fencingToken;
+        /**
+         * 最近一次加锁失败时由加锁脚本返回的锁的剩余租约时长（毫秒），未知时为0，供重试策略使用
+         * 只由正在加锁的线程读写
+         */
+        long lockTtlMillis;
+        /**
+         * 最近一次加锁失败后重试前至少等待的时长（毫秒），期间收到的释放通知不会提前唤醒，不需要等待时为0
+         * 多节点模式下只获得部分节点时设置，只由正在加锁的线程读写
+         */
+        long retryBackoffMillis;
+        /**
+         * 以下用于统计，加锁期间只由正在加锁的线程读写，加锁成功后不再修改
+         */
+        private final long startNanos;
+        private long lastAttemptNanos;
+        private long acquiredNanos;
+        private int roundTrips;
+        /**
+         * 租约的到期时间，加锁以及续期成功时更新，只由加锁线程和续期线程读写
+         */
+        volatile long leaseExpiresNanos;
+        /**
+         * 下一次续期在时间轮中的位置，释放时从时间轮中移除
+         */
+        private volatile HashedWheelTimer.Timeout<LockOwner> renewal;
+        /**
+         * 租约丢失时执行的回调，丢失后为空
+         */
+        private List<Runnable> leaseLostCallbacks;
+        private boolean leaseLost;
+
+        private LockOwner(Locker locker, byte[] token, long thread, long startNanos) {
+            this.locker = locker;
+            this.token = token;
+            this.thread = thread;
+            this.startNanos = startNanos;
+            this.holds = new AtomicInteger(1);
+        }
+
+        private boolean isReleasableByCurrentThread() {
+            return thread == NoThread || thread == Thread.currentThread().getId();
+        }
+
+        @Override
+        public String getToken() {
+            return deserialize(token);
+        }
+
+        private HeldLock toHeldLock(long nowNanos) {
+            long ttlMillis = Math.max(0, TimeUnit.NANOSECONDS.toMillis(leaseExpiresNanos - nowNanos));
+            return new HeldLock(locker.name, locker.kind.name().toLowerCase(Locale.ROOT), getToken(), fencingToken,
+                    TimeUnit.NANOSECONDS.toMillis(nowNanos - acquiredNanos), ttlMillis);
+        }
+
+        @Override
+        public long getFencingToken() {
+            return fencingToken;
+        }
+
+        @Override
+        public synchronized boolean isLeaseLost() {
+            return leaseLost;
+        }
+
+        @Override
+        public void onLeaseLost(Runnable callback) {
+            synchronized (this) {
+                if (!leaseLost) {
+                    if (leaseLostCallbacks == null) {
+                        leaseLostCallbacks = new ArrayList<>(1);
+                    }
+                    leaseLostCallbacks.add(callback);
+                    return;
+                }
+            }
+            runLeaseLostCallback(callback);
+        }
+
+        /**
+         * 续期时发现锁已经不属于该持有者，停止续期并在异步线程中执行回调
+         */
+        private void leaseLost() {
+            List<Runnable> callbacks;
+            synchronized (this) {
+                if (leaseLost) {
+                    return;
+                }
+                leaseLost = true;
+                leased = false;
+                callbacks = leaseLostCallbacks;
+                leaseLostCallbacks = null;
+            }
+            if (callbacks != null) {
+                for (Runnable callback : callbacks) {
+                    locker.lockManager.asyncExecutor.execute(() -> runLeaseLostCallback(callback));
+                }
+            }
+        }
+
+        /**
+         * 偏向模式下保留租约时，原持有者的回调不再执行
+         */
+        private synchronized void detachLeaseLostCallbacks() {
+            leaseLostCallbacks = null;
+        }
+
+        private void runLeaseLostCallback(Runnable callback) {
+            try {
+                callback.run();
+            } catch (Throwable throwable) {
+                log.error("unexpected exception in lease lost callback of '{}'", locker.getName(), throwable);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!isReleasableByCurrentThread()) {
+                log.error("attempt to unlock '{}', not locked by current thread.", locker.getName());
+                throw new UnlockException();
+            }
+            int remaining = holds.updateAndGet(count -> count > 0 ? count - 1 : -1);
+            if (remaining < 0) {
+                log.error("attempt to unlock '{}', the scope has been closed.", locker.getName());
+                throw new UnlockException();
+            }
+            if (remaining == 0) {
+                locker.unlock(this);
+            }
+        }
+    }
+}
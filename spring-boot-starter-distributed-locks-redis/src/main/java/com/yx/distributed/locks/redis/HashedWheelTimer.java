@@ -0,0 +1,134 @@
+package com.yx.distributed.locks.redis;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 哈希时间轮，按到期时间将任务分散到固定数量的槽中
+ * <ol>
+ *     <li>添加的开销与任务总数无关，取消只需遍历任务所在的槽</li>
+ *     <li>自身不含线程，由调用方按固定间隔调用{@link #expire(long, List)}取出到期的任务</li>
+ *     <li>添加只放入待处理队列，由调用{@link #expire(long, List)}的线程在扫描前放入对应的槽，扫描期间添加的任务不会被跳过</li>
+ *     <li>到期时间超过一轮的任务留在槽中，直到到期时间到达，精度为一个刻度</li>
+ * </ol>
+ */
+class HashedWheelTimer<T> {
+    private final long startNanos;
+    private final long tickNanos;
+    private final ConcurrentLinkedQueue<Timeout<T>>[] wheel;
+    /**
+     * 已添加但尚未放入槽中的任务
+     */
+    private final ConcurrentLinkedQueue<Timeout<T>> pending;
+    private final int mask;
+    /**
+     * 最后一个已经处理的刻度，只由调用{@link #expire(long, List)}的线程读写
+     */
+    private long lastTick;
+
+    /**
+     * @param ticksPerWheel 槽的数量，必须是2的幂
+     */
+    HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (ticksPerWheel <= 0 || (ticksPerWheel & (ticksPerWheel - 1)) != 0) {
+            throw new IllegalArgumentException("ticksPerWheel must be a power of 2");
+        }
+        this.startNanos = System.nanoTime();
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.wheel = newWheel(ticksPerWheel);
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.mask = ticksPerWheel - 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> ConcurrentLinkedQueue<Timeout<T>>[] newWheel(int ticksPerWheel) {
+        ConcurrentLinkedQueue<Timeout<T>>[] wheel = (ConcurrentLinkedQueue<Timeout<T>>[]) new ConcurrentLinkedQueue<?>[ticksPerWheel];
+        for (int i = 0; i < ticksPerWheel; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        return wheel;
+    }
+
+    /**
+     * 在{@code delayNanos}后到期，可以在任意线程中调用
+     */
+    Timeout<T> schedule(T task, long delayNanos) {
+        Timeout<T> timeout = new Timeout<>(task, System.nanoTime() + delayNanos);
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * 可以在任意线程中调用，与{@link #expire(long, List)}并发时任务可能仍然到期
+     */
+    void cancel(Timeout<T> timeout) {
+        timeout.cancelled = true;
+        int bucket = timeout.bucket;
+        //仍在待处理队列中，或者正在被放入槽中，后者留在槽中直到被扫描时丢弃
+        if (bucket < 0) {
+            pending.remove(timeout);
+        } else {
+            wheel[bucket].remove(timeout);
+        }
+    }
+
+    /**
+     * 将到{@code nowNanos}为止所有到期的任务移出时间轮并加入{@code expired}，只能由一个线程调用
+     */
+    void expire(long nowNanos, List<T> expired) {
+        long currentTick = (nowNanos - startNanos) / tickNanos;
+        Timeout<T> added;
+        while ((added = pending.poll()) != null) {
+            if (added.cancelled) {
+                continue;
+            }
+            if (added.deadline - nowNanos <= 0) {
+                expired.add(added.task);
+                continue;
+            }
+            //尚未到期的任务所在的刻度一定在当前刻度之后
+            long tick = (added.deadline - startNanos + tickNanos - 1) / tickNanos;
+            added.bucket = (int) (tick & mask);
+            wheel[added.bucket].add(added);
+        }
+        //落后超过一轮时，每个槽只需扫描一次
+        long from = Math.max(lastTick + 1, currentTick - mask);
+        for (long tick = from; tick <= currentTick; tick++) {
+            Iterator<Timeout<T>> iterator = wheel[(int) (tick & mask)].iterator();
+            while (iterator.hasNext()) {
+                Timeout<T> timeout = iterator.next();
+                if (timeout.cancelled) {
+                    iterator.remove();
+                } else if (timeout.deadline - nowNanos <= 0) {
+                    iterator.remove();
+                    expired.add(timeout.task);
+                }
+            }
+        }
+        lastTick = Math.max(lastTick, currentTick);
+    }
+
+    /**
+     * 距离下一个刻度的时长
+     */
+    long nanosUntilNextTick(long nowNanos) {
+        return tickNanos - (nowNanos - startNanos) % tickNanos;
+    }
+
+    static final class Timeout<T> {
+        private final T task;
+        private final long deadline;
+        /**
+         * 所在的槽，仍在待处理队列中时为-1
+         */
+        private volatile int bucket = -1;
+        private volatile boolean cancelled;
+
+        private Timeout(T task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.yx.distributed.locks.redis;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 同一JVM内的本地锁队列
+ * <ol>
+ *     <li>先到先得，释放时直接交给队首的等待者，不存在插队</li>
+ *     <li>等待者既可以阻塞等待，也可以通过{@link CompletableFuture}异步等待，异步等待不占用线程</li>
+ * </ol>
+ */
+class LocalLockQueue {
+    private final ArrayDeque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private boolean locked;
+
+    synchronized boolean tryAcquire() {
+        if (locked) {
+            return false;
+        }
+        locked = true;
+        return true;
+    }
+
+    /**
+     * 排队获取本地锁，返回的future完成时表示已获得本地锁
+     * 放弃等待时必须调用{@link #cancel(CompletableFuture)}
+     */
+    synchronized CompletableFuture<Void> acquireAsync() {
+        if (!locked) {
+            locked = true;
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> waiter = new CompletableFuture<>();
+        waiters.addLast(waiter);
+        return waiter;
+    }
+
+    boolean acquire(long timeoutMillis) throws InterruptedException {
+        CompletableFuture<Void> waiter = acquireAsync();
+        if (waiter.isDone()) {
+            return true;
+        }
+        try {
+            waiter.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            //取消失败说明超时的同时已经被移交了本地锁
+            return !cancel(waiter);
+        } catch (InterruptedException e) {
+            if (!cancel(waiter)) {
+                release();
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 放弃等待
+     *
+     * @return 成功放弃返回 true；若本地锁已经移交给该等待者，返回 false，此时调用方持有本地锁
+     */
+    boolean cancel(CompletableFuture<Void> waiter) {
+        if (!waiter.cancel(false)) {
+            return false;
+        }
+        synchronized (this) {
+            waiters.remove(waiter);
+        }
+        return true;
+    }
+
+    /**
+     * 释放本地锁，存在等待者时直接移交给队首的等待者
+     */
+    void release() {
+        while (true) {
+            CompletableFuture<Void> next;
+            synchronized (this) {
+                next = waiters.pollFirst();
+                if (next == null) {
+                    locked = false;
+                    return;
+                }
+            }
+            //在锁外唤醒，等待者可能已经放弃，此时继续移交给下一个
+            if (next.complete(null)) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.yx.distributed.locks.redis;
+
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+
+import java.time.Duration;
+
+/**
+ * 基于Redis Cluster的响应式实现，需要使用Lettuce
+ * 与{@link RedisClusterLockManager}相同，锁的名称作为hash tag，例如{@code prefix.{name}.lock}
+ * 锁、fencing token计数器以及释放通知的频道位于同一个slot，与同名的{@link RedisClusterLockManager}的排他锁互斥
+ */
+public class ReactiveRedisClusterLockManager extends ReactiveRedisSingleNodeLockManager {
+
+    public ReactiveRedisClusterLockManager(String namePrefix, Duration leaseTime, ReactiveRedisConnectionFactory connectionFactory) {
+        super(namePrefix, leaseTime, connectionFactory);
+    }
+
+    @Override
+    String lockName(String name, String suffix) {
+        return RedisClusterLockManager.hashTaggedLockName(name, suffix, super::lockName);
+    }
+}
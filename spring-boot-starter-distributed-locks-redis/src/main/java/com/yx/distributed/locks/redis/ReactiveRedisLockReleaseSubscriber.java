@@ -0,0 +1,238 @@
+package com.yx.distributed.locks.redis;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.ReactiveRedisConnection;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.ReactiveSubscription;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 锁释放通知的响应式订阅者
+ * 与{@link RedisLockReleaseSubscriber}相同，所有锁共用同一个订阅连接，按需订阅/退订各个锁的频道
+ * 订阅连接断开后重新建立，并在新的连接上重新订阅仍有等待者的频道，{@link #close()}之后不再重新建立
+ */
+@Slf4j
+class ReactiveRedisLockReleaseSubscriber {
+    /**
+     * 重新建立订阅连接失败后的重试间隔
+     */
+    private static final Duration ReconnectDelay = Duration.ofSeconds(1);
+    private final ReactiveRedisConnectionFactory connectionFactory;
+    private final ConcurrentHashMap<String, Subscription> subscriptions;
+    private volatile Mono<ReactiveSubscription> pubSub;
+    /**
+     * 当前的订阅以及创建它的连接，重新建立或者关闭时释放
+     */
+    private final AtomicReference<PubSub> current;
+    private volatile boolean closed;
+
+    ReactiveRedisLockReleaseSubscriber(ReactiveRedisConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+        this.subscriptions = new ConcurrentHashMap<>();
+        this.current = new AtomicReference<>();
+        this.pubSub = createPubSub();
+    }
+
+    private Mono<ReactiveSubscription> createPubSub() {
+        return Mono.defer(() -> {
+            ReactiveRedisConnection connection = connectionFactory.getReactiveConnection();
+            return connection.pubSubCommands().createSubscription()
+                    .doOnNext(subscription -> opened(connection, subscription))
+                    .doOnError(e -> closeQuietly(connection));
+        }).cache();
+    }
+
+    private void opened(ReactiveRedisConnection connection, ReactiveSubscription subscription) {
+        PubSub opened = new PubSub(connection, subscription);
+        PubSub previous = current.getAndSet(opened);
+        if (previous != null) {
+            previous.close(channels());
+        }
+        //期间已经关闭，close()可能没有看到这个连接
+        if (closed) {
+            current.compareAndSet(opened, null);
+            opened.close(channels());
+            return;
+        }
+        subscription.receive().subscribe(this::onMessage, this::onError,
+                () -> onError(new IllegalStateException("release subscription completed")));
+    }
+
+    private void onMessage(ReactiveSubscription.Message<ByteBuffer, ByteBuffer> message) {
+        String channel = StringRedisSerializer.UTF_8.deserialize(toBytes(message.getChannel()));
+        Subscription subscription = subscriptions.get(channel);
+        if (subscription != null) {
+            log.debug("received release notification: {}", channel);
+            subscription.signal();
+        }
+    }
+
+    private void onError(Throwable throwable) {
+        if (closed) {
+            log.debug("release subscription terminated after close", throwable);
+            return;
+        }
+        log.error("release subscription terminated, reconnecting", throwable);
+        reconnect();
+    }
+
+    /**
+     * 建立新的订阅连接并重新订阅所有频道，连接失败时稍后重试
+     * 重新订阅完成后唤醒等待者，断开期间的释放通知已经丢失
+     */
+    private void reconnect() {
+        if (closed) {
+            return;
+        }
+        Mono<ReactiveSubscription> reconnected = createPubSub();
+        this.pubSub = reconnected;
+        subscriptions.values().forEach(Subscription::resubscribe);
+        reconnected.subscribe(null, e -> {
+            if (closed) {
+                return;
+            }
+            log.warn("failed to reconnect release subscription, retry in {}ms", ReconnectDelay.toMillis(), e);
+            Mono.delay(ReconnectDelay).subscribe(tick -> {
+                //期间已经由其他连接错误触发了重连
+                if (this.pubSub == reconnected) {
+                    reconnect();
+                }
+            });
+        });
+    }
+
+    /**
+     * 关闭订阅连接，之后不再重新建立，等待者只能依靠兜底的轮询
+     */
+    void close() {
+        closed = true;
+        PubSub pubSub = current.getAndSet(null);
+        if (pubSub != null) {
+            pubSub.close(channels());
+        }
+    }
+
+    /**
+     * 所有订阅过的频道，包括尚未收到订阅确认的
+     */
+    private ByteBuffer[] channels() {
+        return subscriptions.values().stream()
+                .map(subscription -> ByteBuffer.wrap(subscription.channelBytes))
+                .toArray(ByteBuffer[]::new);
+    }
+
+    private static void closeQuietly(ReactiveRedisConnection connection) {
+        try {
+            connection.close();
+        } catch (Exception e) {
+            log.warn("failed to close release subscription", e);
+        }
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        ByteBuffer duplicate = buffer.duplicate();
+        byte[] bytes = new byte[duplicate.remaining()];
+        duplicate.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 订阅指定频道，订阅生效后发出{@link Subscription}，使用完毕后必须调用{@link Subscription#close()}
+     */
+    Mono<Subscription> subscribe(String channel) {
+        Subscription subscription = subscriptions.compute(channel, (key, exists) -> {
+            if (exists == null) {
+                exists = new Subscription(key);
+            }
+            exists.references++;
+            return exists;
+        });
+        return subscription.subscribed
+                .thenReturn(subscription)
+                .doOnError(e -> subscription.close());
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        subscriptions.computeIfPresent(subscription.channel, (key, exists) -> {
+            if (--exists.references > 0) {
+                return exists;
+            }
+            pubSub.flatMap(connection -> connection.unsubscribe(ByteBuffer.wrap(exists.channelBytes)))
+                    .subscribe(null, e -> log.warn("failed to unsubscribe {}", key, e));
+            return null;
+        });
+    }
+
+    /**
+     * 退订所有频道并结束{@link ReactiveSubscription#receive()}，然后关闭连接
+     * Spring Data Redis 2.1关闭连接时不关闭其中的订阅连接，退订后的订阅连接在连接工厂销毁时关闭
+     * {@link ReactiveSubscription#cancel()}只退订已经收到确认的频道，仍在订阅中的频道需要按名称退订
+     */
+    private static class PubSub {
+        private final ReactiveRedisConnection connection;
+        private final ReactiveSubscription subscription;
+
+        private PubSub(ReactiveRedisConnection connection, ReactiveSubscription subscription) {
+            this.connection = connection;
+            this.subscription = subscription;
+        }
+
+        private void close(ByteBuffer[] channels) {
+            subscription.unsubscribe(channels)
+                    .then(subscription.cancel())
+                    .doFinally(signal -> closeQuietly(connection))
+                    .subscribe(null, e -> log.warn("failed to cancel release subscription", e));
+        }
+    }
+
+    class Subscription implements AutoCloseable {
+        private final String channel;
+        private final byte[] channelBytes;
+        /**
+         * 在当前订阅连接上订阅该频道，重新建立连接后替换
+         */
+        private volatile Mono<Void> subscribed;
+        private final AtomicReference<CompletableFuture<Void>> released;
+        /**
+         * 仅在{@link ConcurrentHashMap#compute}中读写
+         */
+        private int references;
+
+        private Subscription(String channel) {
+            this.channel = channel;
+            this.channelBytes = StringRedisSerializer.UTF_8.serialize(channel);
+            //关闭之后不再订阅，等待者只依靠兜底的轮询
+            this.subscribed = closed ? Mono.empty() : pubSub.flatMap(connection -> connection.subscribe(ByteBuffer.wrap(channelBytes))).cache();
+            this.released = new AtomicReference<>(new CompletableFuture<>());
+        }
+
+        private void resubscribe() {
+            Mono<Void> resubscribed = pubSub.flatMap(connection -> connection.subscribe(ByteBuffer.wrap(channelBytes))).cache();
+            this.subscribed = resubscribed;
+            resubscribed.subscribe(null, e -> log.warn("failed to resubscribe {}", channel, e), this::signal);
+        }
+
+        private void signal() {
+            released.getAndSet(new CompletableFuture<>()).complete(null);
+        }
+
+        /**
+         * 返回下一次释放通知对应的future，应在尝试加锁之前获取，避免错过尝试期间到达的通知
+         */
+        CompletableFuture<Void> nextRelease() {
+            return released.get();
+        }
+
+        @Override
+        public void close() {
+            unsubscribe(this);
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package com.yx.distributed.locks.redis;
+
+import com.yx.distributed.locks.ReactiveDistributedLockManager;
+import com.yx.distributed.locks.ReactiveLock;
+import com.yx.distributed.locks.ReactiveScope;
+import com.yx.distributed.locks.exception.LockException;
+import com.yx.distributed.locks.exception.TimeoutException;
+import com.yx.distributed.locks.exception.UnlockException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.ReactiveRedisConnection;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.util.StringUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 基于Redis set的响应式实现
+ * <ol>
+ *     <li>与{@link RedisSingleNodeLockManager}使用相同的键和脚本，两者可以互斥；连接Redis Cluster时使用{@link ReactiveRedisClusterLockManager}，与{@link RedisClusterLockManager}互斥</li>
+ *     <li>等待期间只订阅释放通知并在兜底的轮询间隔后重试，不占用线程</li>
+ *     <li>所有持有的锁由同一个定时任务续期，锁已经不属于持有者，或者续期一直出错直到租约到期时，停止续期并通知租约丢失</li>
+ *     <li>不保留租约，但与偏向模式的{@link RedisSingleNodeLockManager}共用锁时需要通过{@link #setBiasedLinger(Duration)}同样启用，等待时才会请求交还</li>
+ * </ol>
+ */
+@Slf4j
+public class ReactiveRedisSingleNodeLockManager implements ReactiveDistributedLockManager, DisposableBean {
+    private static final Duration MinimumLeaseMilliseconds = Duration.ofSeconds(30);
+    /**
+     * 释放通知可能丢失，等待者最多等待该时长后主动重试一次
+     */
+    private static final Duration FallbackPollInterval = Duration.ofSeconds(1);
+    private static final byte[] Waiting = serialize("1");
+    private static final byte[] NotWaiting = serialize("0");
+    private final String namePrefix;
+    private final long leaseTimeMillis;
+    private final byte[] leaseTimeBytes;
+    private final ReactiveRedisConnectionFactory connectionFactory;
+    private final ReactiveRedisLockReleaseSubscriber releaseSubscriber;
+    private final Set<ReactiveLockScope> scopes;
+    private final AtomicLong failedRenewals;
+    private final Disposable renewal;
+    private volatile boolean closed;
+    private volatile boolean biased;
+
+    public ReactiveRedisSingleNodeLockManager(String namePrefix, Duration leaseTime, ReactiveRedisConnectionFactory connectionFactory) {
+        this.namePrefix = namePrefix;
+        long leaseTimeMills = MinimumLeaseMilliseconds.compareTo(leaseTime) > 0 ? MinimumLeaseMilliseconds.toMillis() : leaseTime.toMillis();
+        this.connectionFactory = connectionFactory;
+        this.leaseTimeMillis = leaseTimeMills;
+        this.leaseTimeBytes = serialize(String.valueOf(leaseTimeMills));
+        this.releaseSubscriber = new ReactiveRedisLockReleaseSubscriber(connectionFactory);
+        this.scopes = ConcurrentHashMap.newKeySet();
+        this.failedRenewals = new AtomicLong();
+        log.info("namePrefix = {}, leaseTime = {}ms", namePrefix, leaseTimeMills);
+        this.renewal = startRenew(Duration.ofMillis(leaseTimeMills / 3));
+    }
+
+    private static byte[] serialize(String str) {
+        return StringRedisSerializer.UTF_8.serialize(str);
+    }
+
+    @Override
+    public ReactiveLock acquire(String name) {
+        if (StringUtils.isEmpty(name)) {
+            throw new IllegalArgumentException("name can not be null or empty");
+        }
+        return new ReactiveLocker(lockName(name, ".lock"), this);
+    }
+
+    /**
+     * 锁在Redis中的键，与{@link AbstractRedisLockManager}相同，子类可以改变键的格式，例如集群模式下加上hash tag
+     */
+    String lockName(String name, String suffix) {
+        if (StringUtils.isEmpty(namePrefix)) {
+            return name + suffix;
+        }
+        return namePrefix + "." + name + suffix;
+    }
+
+    @Override
+    public Mono<Void> forceUnlock(ReactiveLock lock) {
+        if (!(lock instanceof ReactiveLocker)) {
+            return Mono.error(new IllegalArgumentException("unexpected lock instance: " + lock.getClass().getName()));
+        }
+        ReactiveLocker locker = (ReactiveLocker) lock;
+        return execute(connection -> connection.keyCommands().del(ByteBuffer.wrap(locker.nameBytes))
+                .then(connection.pubSubCommands().publish(ByteBuffer.wrap(locker.channelBytes), ByteBuffer.wrap(RedisLockScripts.ReleasedMessage))))
+                .then();
+    }
+
+    /**
+     * 与{@link AbstractRedisLockManager#setBiasedLinger(Duration)}使用相同的配置
+     * 响应式锁解锁时总是立即释放，不保留租约；{@code linger}大于0时等待中的加锁失败后请求保留租约的节点交还，否则需要等到保留期满
+     *
+     * @param linger 为0时等待者不请求交还
+     */
+    public void setBiasedLinger(Duration linger) {
+        this.biased = !linger.isZero() && !linger.isNegative();
+        log.info("biased linger = {}ms", linger.toMillis());
+    }
+
+    /**
+     * 续期失败的累计次数，包括锁已不存在以及执行续期命令出错
+     *
+     * @return
+     */
+    public long getFailedRenewals() {
+        return failedRenewals.get();
+    }
+
+    /**
+     * 借用一个连接执行{@code callback}，执行完毕后归还
+     */
+    private <T> Mono<T> execute(Function<ReactiveRedisConnection, Mono<T>> callback) {
+        return Mono.using(connectionFactory::getReactiveConnection, callback, ReactiveRedisConnection::close);
+    }
+
+    private Disposable startRenew(Duration renewInterval) {
+        log.info("start renew with {}ms interval", renewInterval.toMillis());
+        return Flux.interval(renewInterval)
+                .onBackpressureDrop()
+                .concatMap(tick -> renewAll().onErrorResume(e -> {
+                    log.error("failed to renew locks", e);
+                    return Mono.empty();
+                }))
+                .subscribe();
+    }
+
+    /**
+     * 停止续期以及释放通知的订阅，与{@link AbstractRedisLockManager#destroy()}相同
+     * 仍被持有的锁不再续期，在Redis中的租约到期后自动释放
+     */
+    @Override
+    public void destroy() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        renewal.dispose();
+        releaseSubscriber.close();
+        log.info("reactive lock manager closed, {} held locks will expire with their leases", scopes.size());
+    }
+
+    /**
+     * 在同一个连接上并发续期所有已持有的锁，命令由Lettuce自动流水线发送
+     * 续期出错时保留持有者，下一次续期时重试
+     */
+    private Mono<Void> renewAll() {
+        if (scopes.isEmpty()) {
+            return Mono.empty();
+        }
+        List<ReactiveLockScope> renewing = new ArrayList<>(scopes);
+        return execute(connection -> Flux.fromIterable(renewing)
+                .flatMap(scope -> {
+                    long startNanos = System.nanoTime();
+                    return RedisLockScripts.Renew.<Long>execute(connection, ReturnType.INTEGER, 1,
+                            scope.locker.nameBytes, scope.token, leaseTimeBytes)
+                            .next()
+                            .doOnNext(returnVal -> {
+                                if (returnVal == 1) {
+                                    scope.leaseExpiresNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(leaseTimeMillis);
+                                    return;
+                                }
+                                failedRenewals.incrementAndGet();
+                                log.warn("failed to renew lock {}, the lease has been lost", scope.locker.name);
+                                leaseLost(scope);
+                            })
+                            .onErrorResume(e -> {
+                                failedRenewals.incrementAndGet();
+                                if (System.nanoTime() - scope.leaseExpiresNanos >= 0) {
+                                    log.error("failed to renew lock {}, the lease has expired", scope.locker.name, e);
+                                    leaseLost(scope);
+                                } else {
+                                    log.error("failed to renew lock {}", scope.locker.name, e);
+                                }
+                                return Mono.empty();
+                            });
+                })
+                .then());
+    }
+
+    /**
+     * 停止续期并通知持有者，已经解锁的持有者不受影响
+     */
+    private void leaseLost(ReactiveLockScope scope) {
+        if (scopes.remove(scope)) {
+            scope.leaseLost.complete(null);
+        }
+    }
+
+    /**
+     * 加锁成功时返回fencing token，失败时返回0
+     *
+     * @param waiting 偏向模式下失败后是否请求保留租约的节点交还，与{@link AbstractRedisLockManager.Locker#lockArgs}相同
+     */
+    private Mono<Long> tryLockInner(ReactiveLocker locker, byte[] token, boolean waiting) {
+        byte[] now = serialize(String.valueOf(System.currentTimeMillis()));
+        byte[] waitingBytes = waiting && biased ? Waiting : NotWaiting;
+        return execute(connection -> RedisLockScripts.Lock.<Long>execute(connection, ReturnType.INTEGER, 2,
+                locker.nameBytes, locker.fencingBytes, token, leaseTimeBytes, now, waitingBytes).next())
+                .doOnNext(returnVal -> log.debug("tryLockInner command response: {}", returnVal))
+                .onErrorMap(e -> {
+                    log.error("failed to lock", e);
+                    return new LockException();
+                });
+    }
+
+    private Mono<Boolean> tryUnlockInner(ReactiveLocker locker, byte[] token) {
+        return execute(connection -> RedisLockScripts.Unlock.<Long>execute(connection, ReturnType.INTEGER, 1,
+                locker.nameBytes, token, locker.channelBytes, RedisLockScripts.ReleasedMessage).next())
+                .map(returnVal -> {
+                    log.debug("tryUnlockInner command response: {}", returnVal);
+                    return returnVal == 1;
+                });
+    }
+
+    private static class ReactiveLocker implements ReactiveLock {
+        private final String name;
+        private final byte[] nameBytes;
+        /**
+         * fencing token的计数器，与{@link RedisSingleNodeLockManager}的排他锁相同
+         */
+        private final byte[] fencingBytes;
+        private final String channel;
+        private final byte[] channelBytes;
+        private final ReactiveRedisSingleNodeLockManager lockManager;
+
+        private ReactiveLocker(String name, ReactiveRedisSingleNodeLockManager lockManager) {
+            this.name = name;
+            this.lockManager = lockManager;
+            this.nameBytes = serialize(name);
+            this.fencingBytes = serialize(name + ".fencing");
+            this.channel = name + ".released";
+            this.channelBytes = serialize(channel);
+        }
+
+        @Override
+        public String getName() {
+            return this.name;
+        }
+
+        @Override
+        public Mono<ReactiveScope> tryLock() {
+            return Mono.defer(() -> {
+                byte[] token = serialize(UUID.randomUUID().toString());
+                return tryLockInner(token, false);
+            });
+        }
+
+        @Override
+        public Mono<ReactiveScope> lock(Duration timeout) {
+            return Mono.defer(() -> {
+                byte[] token = serialize(UUID.randomUUID().toString());
+                return tryLockInner(token, true)
+                        //首次失败后订阅释放通知，订阅生效后立即重试，之后在收到通知或等待超时后再重试
+                        .switchIfEmpty(Mono.defer(() -> lockManager.releaseSubscriber.subscribe(channel))
+                                .flatMap(subscription -> awaitAndLock(token, subscription)
+                                        .doFinally(signal -> subscription.close())))
+                        //超时取消时加锁命令可能已经执行，按token尝试释放，token不匹配时不会产生影响
+                        .doOnCancel(() -> {
+                            lockManager.scopes.removeIf(scope -> scope.token == token);
+                            lockManager.tryUnlockInner(this, token).subscribe(null, e -> log.warn("failed to unlock", e));
+                        })
+                        .timeout(timeout, Mono.defer(() -> {
+                            log.info("tryLock timeout,duration: {}ms", timeout.toMillis());
+                            return Mono.error(new TimeoutException());
+                        }));
+            });
+        }
+
+        private Mono<ReactiveScope> awaitAndLock(byte[] token, ReactiveRedisLockReleaseSubscriber.Subscription subscription) {
+            return Mono.defer(() -> {
+                Mono<Void> released = Mono.fromFuture(subscription.nextRelease().thenApply(Function.identity()));
+                return tryLockInner(token, true)
+                        .switchIfEmpty(released
+                                .timeout(FallbackPollInterval, Mono.empty())
+                                .then(Mono.empty()));
+            }).repeatWhenEmpty(repeat -> repeat);
+        }
+
+        private Mono<ReactiveScope> tryLockInner(byte[] token, boolean waiting) {
+            return lockManager.tryLockInner(this, token, waiting)
+                    .filter(fencingToken -> fencingToken > 0)
+                    .map(fencingToken -> {
+                        long leaseExpiresNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lockManager.leaseTimeMillis);
+                        ReactiveLockScope scope = new ReactiveLockScope(this, token, fencingToken, leaseExpiresNanos);
+                        lockManager.scopes.add(scope);
+                        return scope;
+                    });
+        }
+    }
+
+    private static class ReactiveLockScope implements ReactiveScope {
+        private final ReactiveLocker locker;
+        private final byte[] token;
+        private final long fencingToken;
+        /**
+         * 按加锁以及续期成功的时间估算的租约到期时间，只由续期任务读写
+         */
+        private volatile long leaseExpiresNanos;
+        private final CompletableFuture<Void> leaseLost;
+
+        private ReactiveLockScope(ReactiveLocker locker, byte[] token, long fencingToken, long leaseExpiresNanos) {
+            this.locker = locker;
+            this.token = token;
+            this.fencingToken = fencingToken;
+            this.leaseExpiresNanos = leaseExpiresNanos;
+            this.leaseLost = new CompletableFuture<>();
+        }
+
+        @Override
+        public long getFencingToken() {
+            return fencingToken;
+        }
+
+        @Override
+        public boolean isLeaseLost() {
+            return leaseLost.isDone();
+        }
+
+        /**
+         * 订阅者取消时不影响其他订阅者
+         */
+        @Override
+        public Mono<Void> leaseLost() {
+            return Mono.fromFuture(leaseLost.thenApply(Function.identity()));
+        }
+
+        @Override
+        public Mono<Void> unlock() {
+            return Mono.defer(() -> {
+                if (!locker.lockManager.scopes.remove(this)) {
+                    if (isLeaseLost()) {
+                        log.error("attempt to unlock '{}', the lease has been lost.", locker.name);
+                    } else {
+                        log.error("attempt to unlock '{}', the scope has been unlocked.", locker.name);
+                    }
+                    return Mono.error(new UnlockException());
+                }
+                return locker.lockManager.tryUnlockInner(locker, token)
+                        .onErrorMap(e -> {
+                            log.error("failed to unlock", e);
+                            return new UnlockException();
+                        })
+                        .flatMap(unlocked -> {
+                            if (!unlocked) {
+                                log.error("attempt to unlock '{}', not locked by current scope.", locker.name);
+                                return Mono.error(new UnlockException());
+                            }
+                            return Mono.<Void>empty();
+                        });
+            });
+        }
+    }
+}
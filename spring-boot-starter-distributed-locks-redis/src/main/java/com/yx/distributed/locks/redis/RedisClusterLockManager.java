@@ -0,0 +1,180 @@
+package com.yx.distributed.locks.redis;
+
+import com.yx.distributed.locks.Lock;
+import com.yx.distributed.locks.LockOwnership;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.SlotHash;
+import io.lettuce.core.cluster.api.async.RedisAdvancedClusterAsyncCommands;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.util.StringUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BinaryOperator;
+
+/**
+ * 基于Redis Cluster，需要使用Lettuce
+ * <ol>
+ *     <li>锁的名称作为hash tag，例如{@code prefix.{name}.lock}，同一把锁的所有键（fencing token计数器、等待队列等）位于同一个slot，脚本不会因CROSSSLOT失败</li>
+ *     <li>名称中已有hash tag时保持不变，{@link #acquireAll(Collection)}要求组内的锁位于同一个slot，例如{@code order{42}.items}与{@code order{42}.payment}，前缀中有hash tag时所有的锁位于同一个slot</li>
+ *     <li>加锁、解锁只访问锁所在的主节点，吞吐量随分片数增加</li>
+ *     <li>续期按slot排序后依次发出、不等待响应，Lettuce按slot将命令路由到各主节点，每个主节点上的命令以pipeline的方式执行，各主节点之间并行，最后统一等待结果</li>
+ *     <li>也可以连接单个Redis节点，此时只有一个分片，续期与{@link RedisSingleNodeLockManager}相同</li>
+ * </ol>
+ */
+@Slf4j
+public class RedisClusterLockManager extends RedisSingleNodeLockManager {
+    /**
+     * 一次续期等待所有结果的最长时间，超时的续期按出错处理，稍后重试
+     */
+    private static final long RenewTimeoutMilliseconds = 3000;
+
+    public RedisClusterLockManager(String namePrefix, Duration leaseTime, RedisConnectionFactory connectionFactory) {
+        this(namePrefix, leaseTime, LockOwnership.THREAD, connectionFactory);
+    }
+
+    public RedisClusterLockManager(String namePrefix, Duration leaseTime, LockOwnership ownership, RedisConnectionFactory connectionFactory) {
+        super(namePrefix, leaseTime, ownership, connectionFactory);
+    }
+
+    @Override
+    String lockName(String name, String suffix) {
+        return hashTaggedLockName(name, suffix, super::lockName);
+    }
+
+    /**
+     * 名称中没有hash tag时将名称作为hash tag，{@link ReactiveRedisClusterLockManager}使用相同的规则
+     * 空的hash tag（{@code {}}）会使Redis按整个键计算slot，同一把锁的键将分散到不同的slot，因此不允许
+     *
+     * @param plainLockName 不带hash tag时锁在Redis中的键，参数为名称和后缀
+     */
+    static String hashTaggedLockName(String name, String suffix, BinaryOperator<String> plainLockName) {
+        String lockName = plainLockName.apply(name, "");
+        int start = lockName.indexOf('{');
+        int end = start < 0 ? -1 : lockName.indexOf('}', start + 1);
+        if (end == start + 1) {
+            throw new IllegalArgumentException("lock name '" + lockName + "' contains an empty hash tag");
+        }
+        if (end > start + 1) {
+            return lockName + suffix;
+        }
+        return plainLockName.apply("{" + name + "}", suffix);
+    }
+
+    /**
+     * 一组锁由一个脚本加锁，必须位于同一个slot
+     */
+    @Override
+    public Lock acquireAll(Collection<String> names) {
+        if (names != null) {
+            int slot = -1;
+            for (String name : names) {
+                if (StringUtils.isEmpty(name)) {
+                    continue;
+                }
+                int lockSlot = SlotHash.getSlot(serialize(lockName(name, ".lock")));
+                if (slot >= 0 && lockSlot != slot) {
+                    throw new IllegalArgumentException("locks " + names + " are not in the same hash slot, use a common hash tag such as 'order{42}.items'");
+                }
+                slot = lockSlot;
+            }
+        }
+        return super.acquireAll(names);
+    }
+
+    /**
+     * 按slot分组续期，单个节点的Lettuce连接同样实现了{@link RedisClusterAsyncCommands}，因此按集群的命令接口判断
+     * 非集群的连接以及非Lettuce的连接退化为单连接的pipeline
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    List<Object> renew(List<LockOwner> renewing, byte[] now) {
+        return execute(connection -> {
+            Object nativeConnection = connection.getNativeConnection();
+            if (!(nativeConnection instanceof RedisAdvancedClusterAsyncCommands)) {
+                return renewInPipeline(connection, renewing, now);
+            }
+            return renewBySlot((RedisAdvancedClusterAsyncCommands<byte[], byte[]>) nativeConnection, renewing, now);
+        });
+    }
+
+    /**
+     * 先发出所有续期命令再等待结果，脚本缓存被清空时对NOSCRIPT的持有者使用EVAL重新续期
+     */
+    private List<Object> renewBySlot(RedisClusterAsyncCommands<byte[], byte[]> commands, List<LockOwner> renewing, byte[] now) {
+        RedisFuture<?>[] futures = new RedisFuture<?>[renewing.size()];
+        byte[][] keys = new byte[renewing.size()][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = renewing.get(i).locker.keys[0];
+        }
+        for (int index : sortedBySlot(keys)) {
+            futures[index] = renewAsync(commands, renewing.get(index), now, false);
+        }
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RenewTimeoutMilliseconds);
+        List<Object> results = new ArrayList<>(renewing.size());
+        List<Integer> retries = new ArrayList<>();
+        for (int i = 0; i < futures.length; i++) {
+            Object result = await(futures[i], deadlineNanos);
+            if (result instanceof Throwable && RedisLuaScript.isNoScript((Throwable) result)) {
+                retries.add(i);
+                futures[i] = renewAsync(commands, renewing.get(i), now, true);
+            }
+            results.add(result);
+        }
+        for (Integer index : retries) {
+            results.set(index, await(futures[index], deadlineNanos));
+        }
+        return results;
+    }
+
+    /**
+     * 键的下标按所在的slot排序，slot相同时保持原来的顺序，slot相同的续期连续发出
+     */
+    static int[] sortedBySlot(byte[][] keys) {
+        long[] slotAndIndex = new long[keys.length];
+        for (int i = 0; i < slotAndIndex.length; i++) {
+            slotAndIndex[i] = (long) SlotHash.getSlot(keys[i]) << 32 | i;
+        }
+        Arrays.sort(slotAndIndex);
+        int[] indexes = new int[slotAndIndex.length];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = (int) slotAndIndex[i];
+        }
+        return indexes;
+    }
+
+    private RedisFuture<Long> renewAsync(RedisClusterAsyncCommands<byte[], byte[]> commands, LockOwner owner, byte[] now, boolean eval) {
+        Locker locker = owner.locker;
+        RedisLuaScript script = locker.kind.renewScript;
+        byte[][] args = new byte[][]{owner.token, leaseTimeBytes, now};
+        if (eval) {
+            return commands.eval(script.getSource(), ScriptOutputType.INTEGER, locker.keys, args);
+        }
+        return commands.evalsha(script.getSha1(), ScriptOutputType.INTEGER, locker.keys, args);
+    }
+
+    /**
+     * 等待{@code future}完成，返回结果或者异常
+     */
+    private static Object await(RedisFuture<?> future, long deadlineNanos) {
+        try {
+            return future.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause() != null ? e.getCause() : e;
+        } catch (TimeoutException e) {
+            return e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return e;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.yx.distributed.locks.redis;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 锁释放通知的订阅者
+ * <ol>
+ *     <li>所有锁共用同一个订阅连接，按锁的名称动态订阅/退订对应的频道</li>
+ *     <li>只有存在等待者时才订阅，最后一个等待者离开后退订</li>
+ *     <li>收到释放通知后立即唤醒等待者重新竞争锁，等待者可以根据通知内容决定是否重新竞争</li>
+ *     <li>多个节点时每个节点各有一个订阅连接，任意节点上的通知都会唤醒等待者</li>
+ *     <li>多个节点时订阅/退订按节点顺序异步执行，故障节点不会阻塞等待者，订阅生效前的通知由兜底的轮询弥补</li>
+ * </ol>
+ */
+@Slf4j
+class RedisLockReleaseSubscriber implements MessageListener {
+    /**
+     * 始终保持订阅的频道
+     * 最后一个频道被退订时，订阅连接会被关闭，而容器仍认为订阅有效，此时并发的订阅会失败
+     */
+    private static final ChannelTopic KeepAliveTopic = new ChannelTopic("distributed-lock.subscriber.keepalive");
+    private final List<RedisMessageListenerContainer> containers;
+    /**
+     * 与{@code containers}一一对应，只有一个节点时为空，订阅/退订直接在调用线程上执行
+     */
+    private final List<ExecutorService> containerExecutors;
+    private final ConcurrentHashMap<String, Channel> channels;
+
+    RedisLockReleaseSubscriber(RedisConnectionFactory connectionFactory) {
+        this(Collections.singletonList(connectionFactory));
+    }
+
+    RedisLockReleaseSubscriber(List<RedisConnectionFactory> connectionFactories) {
+        this.channels = new ConcurrentHashMap<>();
+        SimpleAsyncTaskExecutor subscriptionExecutor = new SimpleAsyncTaskExecutor("distributed-lock-subscription-");
+        subscriptionExecutor.setDaemon(true);
+        this.containers = new ArrayList<>(connectionFactories.size());
+        this.containerExecutors = new ArrayList<>(connectionFactories.size());
+        for (RedisConnectionFactory connectionFactory : connectionFactories) {
+            RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+            container.setConnectionFactory(connectionFactory);
+            container.setSubscriptionExecutor(subscriptionExecutor);
+            //通知的处理只是唤醒等待者，直接在订阅线程上执行，避免每条消息创建线程
+            container.setTaskExecutor(new SyncTaskExecutor());
+            container.afterPropertiesSet();
+            container.addMessageListener(this, KeepAliveTopic);
+            this.containers.add(container);
+            if (connectionFactories.size() == 1) {
+                container.start();
+                continue;
+            }
+            ExecutorService containerExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "distributed-lock-subscription-" + this.containerExecutors.size());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.containerExecutors.add(containerExecutor);
+            //启动时等待订阅生效，故障节点上会一直等到超时，在该节点的执行器上启动，不阻塞锁管理器的创建
+            containerExecutor.execute(() -> {
+                try {
+                    container.start();
+                } catch (Throwable throwable) {
+                    log.warn("failed to start the subscription on a node", throwable);
+                }
+            });
+        }
+    }
+
+    /**
+     * 订阅指定的频道，任意一个频道收到通知都会唤醒等待者，使用完毕后必须调用{@link Subscription#close()}
+     */
+    Subscription subscribe(String... channelNames) {
+        Channel[] subscribed = new Channel[channelNames.length];
+        for (int i = 0; i < channelNames.length; i++) {
+            subscribed[i] = channels.compute(channelNames[i], (key, channel) -> {
+                if (channel == null) {
+                    channel = new Channel(key);
+                    ChannelTopic topic = channel.topic;
+                    forEachContainer(container -> container.addMessageListener(this, topic));
+                }
+                channel.references++;
+                return channel;
+            });
+        }
+        return new Subscription(subscribed);
+    }
+
+    private void unsubscribe(Channel channel) {
+        channels.computeIfPresent(channel.name, (key, exists) -> {
+            if (--exists.references > 0) {
+                return exists;
+            }
+            forEachContainer(container -> container.removeMessageListener(this, exists.topic));
+            return null;
+        });
+    }
+
+    /**
+     * 在每个节点的容器上执行{@code action}，多个节点时提交到该节点的执行器按顺序执行
+     * 在{@link ConcurrentHashMap#compute}中调用，同一频道的订阅与退订在各节点上保持先后顺序
+     */
+    private void forEachContainer(Consumer<RedisMessageListenerContainer> action) {
+        if (containerExecutors.isEmpty()) {
+            containers.forEach(action);
+            return;
+        }
+        for (int i = 0; i < containers.size(); i++) {
+            RedisMessageListenerContainer container = containers.get(i);
+            containerExecutors.get(i).execute(() -> {
+                try {
+                    action.accept(container);
+                } catch (Throwable throwable) {
+                    log.warn("failed to update release subscription", throwable);
+                }
+            });
+        }
+    }
+
+    /**
+     * 关闭所有节点的订阅连接，之后的订阅不再生效
+     */
+    void close() {
+        containerExecutors.forEach(ExecutorService::shutdownNow);
+        for (RedisMessageListenerContainer container : containers) {
+            try {
+                container.destroy();
+            } catch (Exception e) {
+                log.warn("failed to stop release subscription", e);
+            }
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String name = StringRedisSerializer.UTF_8.deserialize(message.getChannel());
+        Channel channel = channels.get(name);
+        if (channel != null) {
+            log.debug("received release notification: {}", name);
+            channel.signal(message.getBody());
+        }
+    }
+
+    /**
+     * 一个频道的订阅状态，由所有订阅了该频道的等待者共享
+     */
+    private static class Channel {
+        private final String name;
+        private final ChannelTopic topic;
+        private final AtomicReference<CompletableFuture<byte[]>> released;
+        /**
+         * 仅在{@link ConcurrentHashMap#compute}中读写
+         */
+        private int references;
+
+        private Channel(String name) {
+            this.name = name;
+            this.topic = new ChannelTopic(name);
+            this.released = new AtomicReference<>(new CompletableFuture<>());
+        }
+
+        private void signal(byte[] message) {
+            released.getAndSet(new CompletableFuture<>()).complete(message);
+        }
+    }
+
+    class Subscription implements AutoCloseable {
+        private final Channel[] subscribed;
+
+        private Subscription(Channel[] subscribed) {
+            this.subscribed = subscribed;
+        }
+
+        /**
+         * 返回下一次释放通知对应的future，以通知内容完成，应在尝试加锁之前获取，避免错过尝试期间到达的通知
+         * 通知可能丢失，等待时必须设置超时
+         */
+        CompletableFuture<byte[]> nextRelease() {
+            if (subscribed.length == 1) {
+                return subscribed[0].released.get();
+            }
+            CompletableFuture<?>[] released = new CompletableFuture<?>[subscribed.length];
+            for (int i = 0; i < subscribed.length; i++) {
+                released[i] = subscribed[i].released.get();
+            }
+            return CompletableFuture.anyOf(released).thenApply(message -> (byte[]) message);
+        }
+
+        @Override
+        public void close() {
+            for (Channel channel : subscribed) {
+                unsubscribe(channel);
+            }
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package com.yx.distributed.locks.redis;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+/**
+ * 阻塞式与响应式锁管理器共用的Lua脚本
+ * 加锁脚本成功时返回从锁的计数器递增得到的fencing token（从1开始），失败时返回锁的剩余租约时长（毫秒）的相反数，未知时返回0
+ * 计数器的键紧跟在锁的键之后，不设置过期时间，强制解锁时也不会删除，保证同一把锁的fencing token单调递增
+ */
+final class RedisLockScripts {
+    static final byte[] ReleasedMessage = StringRedisSerializer.UTF_8.serialize("released");
+    /**
+     * 等待中的写锁的登记有效期，等待者每次重试都会刷新，放弃等待后最多在该时长后失效
+     */
+    static final long WriterWaitMilliseconds = 3000;
+    /**
+     * 公平锁中等待者的登记有效期，等待者每次重试都会刷新，超过该时长未刷新的等待者在排到队首时被移出队列
+     */
+    static final long FairWaitMilliseconds = 6000;
+    /**
+     * 加锁失败时的返回值，KEYS[1]的剩余租约时长的相反数，不存在或未设置过期时间时为0
+     */
+    private static final String LockTtl = "-math.max(redis.call('pttl', KEYS[1]), 0)";
+    /**
+     * 读写锁清理已过期的持有者，持有者的租约到期时间由客户端时间计算
+     */
+    private static final String PurgeExpiredHolders = "" +
+            "local holders = redis.call('hgetall', KEYS[1]); " +
+            "for i = 1, #holders, 2 do " +
+            "if (holders[i] ~= 'mode') and (tonumber(holders[i + 1]) <= tonumber(ARGV[3])) then " +
+            "redis.call('hdel', KEYS[1], holders[i]); " +
+            "end; " +
+            "end; " +
+            "if (redis.call('hlen', KEYS[1]) <= 1) then " +
+            "redis.call('del', KEYS[1]); " +
+            "end; " +
+            "redis.call('zremrangebyscore', KEYS[2], '-inf', ARGV[3]); ";
+    /**
+     * 偏向模式下等待中的加锁失败时在{@code 锁.wanted}频道上发布token，通知保留租约的节点交还
+     * KEYS[1]: 锁, KEYS[2]: fencing token计数器, ARGV[1]: token, ARGV[2]: 租约时长（毫秒）, ARGV[4]: 失败后是否请求交还
+     */
+    static final RedisLuaScript Lock = new RedisLuaScript("" +
+            "if (redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2])) then " +
+            "return redis.call('incr', KEYS[2]); " +
+            "end; " +
+            "if (ARGV[4] == '1') then " +
+            "redis.call('publish', KEYS[1] .. '.wanted', ARGV[1]); " +
+            "end; " +
+            "return " + LockTtl + ";");
+    /**
+     * KEYS[1]: 锁, ARGV[1]: token, ARGV[2]: 释放通知的频道, ARGV[3]: 通知内容, ARGV[4]: 租约时长（毫秒，未使用）
+     */
+    static final RedisLuaScript Unlock = new RedisLuaScript("" +
+            "if (redis.call('get', KEYS[1]) == ARGV[1]) then " +
+            "redis.call('del', KEYS[1]);" +
+            "redis.call('publish', ARGV[2], ARGV[3]);" +
+            "return 1;" +
+            "end;" +
+            "return 0;");
+    /**
+     * KEYS[1]: 锁, ARGV[1]: token, ARGV[2]: 租约时长（毫秒）
+     */
+    static final RedisLuaScript Renew = new RedisLuaScript("" +
+            "if (redis.call('get', KEYS[1]) == ARGV[1]) then " +
+            "redis.call('pexpire', KEYS[1], ARGV[2]);" +
+            "return 1;" +
+            "end;" +
+            "return 0;");
+
+    /**
+     * 可重入锁，使用hash保存持有者的token，持有次数只在本地的持有者上计数，重入不访问Redis
+     * 同一个token重复执行（例如响应丢失后重试）时仍然成功，不会累加
+     * KEYS[1]: 锁, KEYS[2]: fencing token计数器, ARGV[1]: token, ARGV[2]: 租约时长（毫秒）
+     */
+    static final RedisLuaScript ReentrantLock = new RedisLuaScript("" +
+            "if (redis.call('exists', KEYS[1]) == 0) or (redis.call('hexists', KEYS[1], ARGV[1]) == 1) then " +
+            "redis.call('hset', KEYS[1], ARGV[1], 1); " +
+            "redis.call('pexpire', KEYS[1], ARGV[2]); " +
+            "return redis.call('incr', KEYS[2]); " +
+            "end; " +
+            "return " + LockTtl + ";");
+    /**
+     * 本地的持有次数减到零后才执行，删除锁并发布释放通知
+     * KEYS[1]: 锁, ARGV[1]: token, ARGV[2]: 释放通知的频道, ARGV[3]: 通知内容, ARGV[4]: 租约时长（毫秒，未使用）
+     */
+    static final RedisLuaScript ReentrantUnlock = new RedisLuaScript("" +
+            "if (redis.call('hexists', KEYS[1], ARGV[1]) == 0) then " +
+            "return 0; " +
+            "end; " +
+            "redis.call('del', KEYS[1]); " +
+            "redis.call('publish', ARGV[2], ARGV[3]); " +
+            "return 1;");
+    /**
+     * KEYS[1]: 锁, ARGV[1]: token, ARGV[2]: 租约时长（毫秒）
+     */
+    static final RedisLuaScript ReentrantRenew = new RedisLuaScript("" +
+            "if (redis.call('hexists', KEYS[1], ARGV[1]) == 1) then " +
+            "redis.call('pexpire', KEYS[1], ARGV[2]); " +
+            "return 1; " +
+            "end; " +
+            "return 0;");
+
+    /**
+     * 读锁，使用hash保存模式以及每个持有者的租约到期时间，有写锁持有或等待时失败
+     * KEYS[1]: 锁, KEYS[2]: 等待中的写锁, KEYS[3]: fencing token计数器, ARGV[1]: token, ARGV[2]: 租约时长（毫秒）, ARGV[3]: 当前时间（毫秒）
+     */
+    static final RedisLuaScript ReadLock = new RedisLuaScript(PurgeExpiredHolders +
+            "if (redis.call('hget', KEYS[1], 'mode') == 'write') or (redis.call('zcard', KEYS[2]) > 0) then " +
+            "return " + LockTtl + "; " +
+            "end; " +
+            "redis.call('hset', KEYS[1], 'mode', 'read'); " +
+            "redis.call('hset', KEYS[1], ARGV[1], tonumber(ARGV[3]) + tonumber(ARGV[2])); " +
+            "redis.call('pexpire', KEYS[1], ARGV[2]); " +
+            "return redis.call('incr', KEYS[3]);");
+    /**
+     * 写锁，只有不存在任何持有者时才能成功，等待中的写锁登记在zset中，阻止新的读锁加锁
+     * 读锁与写锁共用同一个计数器，写锁的fencing token总是大于之前所有读锁的
+     * KEYS[1]: 锁, KEYS[2]: 等待中的写锁, KEYS[3]: fencing token计数器, ARGV[1]: token, ARGV[2]: 租约时长（毫秒）, ARGV[3]: 当前时间（毫秒）, ARGV[4]: 失败后是否等待
+     */
+    static final RedisLuaScript WriteLock = new RedisLuaScript(PurgeExpiredHolders +
+            "if (redis.call('exists', KEYS[1]) == 0) then " +
+            "redis.call('hset', KEYS[1], 'mode', 'write'); " +
+            "redis.call('hset', KEYS[1], ARGV[1], tonumber(ARGV[3]) + tonumber(ARGV[2])); " +
+            "redis.call('pexpire', KEYS[1], ARGV[2]); " +
+            "redis.call('zrem', KEYS[2], ARGV[1]); " +
+            "return redis.call('incr', KEYS[3]); " +
+            "end; " +
+            "if (ARGV[4] == '1') then " +
+            "redis.call('zadd', KEYS[2], tonumber(ARGV[3]) + " + WriterWaitMilliseconds + ", ARGV[1]); " +
+            "redis.call('pexpire', KEYS[2], " + WriterWaitMilliseconds + "); " +
+            "end; " +
+            "return " + LockTtl + ";");
+    /**
+     * 读锁与写锁共用，最后一个持有者释放时删除锁并发布释放通知
+     * KEYS[1]: 锁, KEYS[2]: 等待中的写锁, ARGV[1]: token, ARGV[2]: 释放通知的频道, ARGV[3]: 通知内容
+     */
+    static final RedisLuaScript ReadWriteUnlock = new RedisLuaScript("" +
+            "if (redis.call('hexists', KEYS[1], ARGV[1]) == 0) then " +
+            "return 0; " +
+            "end; " +
+            "redis.call('hdel', KEYS[1], ARGV[1]); " +
+            "if (redis.call('hlen', KEYS[1]) <= 1) then " +
+            "redis.call('del', KEYS[1]); " +
+            "redis.call('publish', ARGV[2], ARGV[3]); " +
+            "end; " +
+            "return 1;");
+    /**
+     * 读锁与写锁共用，刷新持有者的租约到期时间
+     * KEYS[1]: 锁, KEYS[2]: 等待中的写锁, ARGV[1]: token, ARGV[2]: 租约时长（毫秒）, ARGV[3]: 当前时间（毫秒）
+     */
+    static final RedisLuaScript ReadWriteRenew = new RedisLuaScript("" +
+            "if (redis.call('hexists', KEYS[1], ARGV[1]) == 1) then " +
+            "redis.call('hset', KEYS[1], ARGV[1], tonumber(ARGV[3]) + tonumber(ARGV[2])); " +
+            "redis.call('pexpire', KEYS[1], ARGV[2]); " +
+            "return 1; " +
+            "end; " +
+            "return 0;");
+
+    /**
+     * 信号量，使用zset保存持有者的token及其租约到期时间，token的格式为{@code permits:uuid}
+     * 先清理已过期的持有者，剩余许可足够时加入，否则返回最早到期的持有者的剩余租约时长的相反数
+     * KEYS[1]: 信号量, KEYS[2]: fencing token计数器, ARGV[1]: token, ARGV[2]: 租约时长（毫秒）, ARGV[3]: 当前时间（毫秒）, ARGV[4]: 失败后是否等待（未使用）, ARGV[5]: 总许可数
+     */
+    static final RedisLuaScript SemaphoreAcquire = new RedisLuaScript("" +
+            "redis.call('zremrangebyscore', KEYS[1], '-inf', ARGV[3]); " +
+            "local used = 0; " +
+            "local holders = redis.call('zrange', KEYS[1], 0, -1); " +
+            "for i = 1, #holders do " +
+            "used = used + tonumber(string.match(holders[i], '^(%d+):')); " +
+            "end; " +
+            "if (used + tonumber(string.match(ARGV[1], '^(%d+):')) > tonumber(ARGV[5])) then " +
+            "local first = redis.call('zrange', KEYS[1], 0, 0, 'WITHSCORES'); " +
+            "if first[2] then " +
+            "return -math.max(tonumber(first[2]) - tonumber(ARGV[3]), 0); " +
+            "end; " +
+            "return 0; " +
+            "end; " +
+            "redis.call('zadd', KEYS[1], tonumber(ARGV[3]) + tonumber(ARGV[2]), ARGV[1]); " +
+            "redis.call('pexpire', KEYS[1], ARGV[2]); " +
+            "return redis.call('incr', KEYS[2]);");
+    /**
+     * 每次释放都发布通知，任何一次释放都可能让等待者的许可变得足够
+     * KEYS[1]: 信号量, ARGV[1]: token, ARGV[2]: 释放通知的频道, ARGV[3]: 通知内容
+     */
+    static final RedisLuaScript SemaphoreRelease = new RedisLuaScript("" +
+            "if (redis.call('zrem', KEYS[1], ARGV[1]) == 0) then " +
+            "return 0; " +
+            "end; " +
+            "redis.call('publish', ARGV[2], ARGV[3]); " +
+            "return 1;");
+    /**
+     * KEYS[1]: 信号量, ARGV[1]: token, ARGV[2]: 租约时长（毫秒）, ARGV[3]: 当前时间（毫秒）
+     */
+    static final RedisLuaScript SemaphoreRenew = new RedisLuaScript("" +
+            "if (redis.call('zscore', KEYS[1], ARGV[1])) then " +
+            "redis.call('zadd', KEYS[1], tonumber(ARGV[3]) + tonumber(ARGV[2]), ARGV[1]); " +
+            "redis.call('pexpire', KEYS[1], ARGV[2]); " +
+            "return 1; " +
+            "end; " +
+            "return 0;");
+
+    /**
+     * 一组锁，任意一把已被持有时整组失败，否则在同一次调用中全部加锁
+     * 组内所有计数器都推进到其中的最大值加一并返回该值，对组内每把锁而言fencing token都是单调递增的
+     * KEYS[1..n]: 组内的锁, KEYS[n+1..2n]: 对应的fencing token计数器, ARGV[1]: token, ARGV[2]: 租约时长（毫秒）
+     */
+    static final RedisLuaScript MultiLock = new RedisLuaScript("" +
+            "local n = #KEYS / 2; " +
+            "local fencing = 0; " +
+            "for i = 1, n do " +
+            "if (redis.call('exists', KEYS[i]) == 1) then " +
+            "return -math.max(redis.call('pttl', KEYS[i]), 0); " +
+            "end; " +
+            "fencing = math.max(fencing, tonumber(redis.call('get', KEYS[n + i]) or '0')); " +
+            "end; " +
+            "fencing = fencing + 1; " +
+            "for i = 1, n do " +
+            "redis.call('set', KEYS[i], ARGV[1], 'PX', ARGV[2]); " +
+            "redis.call('set', KEYS[n + i], fencing); " +
+            "end; " +
+            "return fencing;");
+    /**
+     * 释放组内仍由该token持有的锁，并在每把锁各自的频道上发布释放通知，只有全部释放成功才返回1
+     * KEYS[1..n]: 组内的锁, ARGV[1]: token, ARGV[2]: 释放通知的频道（未使用，频道为锁名加{@code .released}）, ARGV[3]: 通知内容
+     */
+    static final RedisLuaScript MultiUnlock = new RedisLuaScript("" +
+            "local released = 0; " +
+            "for i = 1, #KEYS do " +
+            "if (redis.call('get', KEYS[i]) == ARGV[1]) then " +
+            "redis.call('del', KEYS[i]); " +
+            "redis.call('publish', KEYS[i] .. '.released', ARGV[3]); " +
+            "released = released + 1; " +
+            "end; " +
+            "end; " +
+            "if (released == #KEYS) then " +
+            "return 1; " +
+            "end; " +
+            "return 0;");
+    /**
+     * 续期组内仍由该token持有的锁，只有全部续期成功才返回1
+     * KEYS[1..n]: 组内的锁, ARGV[1]: token, ARGV[2]: 租约时长（毫秒）
+     */
+    static final RedisLuaScript MultiRenew = new RedisLuaScript("" +
+            "local renewed = 0; " +
+            "for i = 1, #KEYS do " +
+            "if (redis.call('get', KEYS[i]) == ARGV[1]) then " +
+            "redis.call('pexpire', KEYS[i], ARGV[2]); " +
+            "renewed = renewed + 1; " +
+            "end; " +
+            "end; " +
+            "if (renewed == #KEYS) then " +
+            "return 1; " +
+            "end; " +
+            "return 0;");
+
+    /**
+     * 公平锁，使用list保存等待者的排队顺序，zset保存每个等待者的登记到期时间
+     * 先移出队首已过期的等待者，锁空闲且队列为空或当前等待者位于队首时加锁，否则排到队尾（已在队列中时只刷新登记）
+     * 队列不为空时不等待的加锁也会失败，新来者不能插队
+     * KEYS[1]: 锁, KEYS[2]: 等待队列, KEYS[3]: 等待者的到期时间, KEYS[4]: fencing token计数器,
+     * ARGV[1]: token, ARGV[2]: 租约时长（毫秒）, ARGV[3]: 当前时间（毫秒）, ARGV[4]: 失败后是否等待
+     */
+    static final RedisLuaScript FairLock = new RedisLuaScript("" +
+            "while true do " +
+            "local first = redis.call('lindex', KEYS[2], 0); " +
+            "if (not first) then " +
+            "break; " +
+            "end; " +
+            "local expires = redis.call('zscore', KEYS[3], first); " +
+            "if expires and (tonumber(expires) > tonumber(ARGV[3])) then " +
+            "break; " +
+            "end; " +
+            "redis.call('lpop', KEYS[2]); " +
+            "redis.call('zrem', KEYS[3], first); " +
+            "end; " +
+            "if (redis.call('exists', KEYS[1]) == 0) then " +
+            "local first = redis.call('lindex', KEYS[2], 0); " +
+            "if (not first) or (first == ARGV[1]) then " +
+            "if first then " +
+            "redis.call('lpop', KEYS[2]); " +
+            "redis.call('zrem', KEYS[3], ARGV[1]); " +
+            "end; " +
+            "redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[2]); " +
+            "return redis.call('incr', KEYS[4]); " +
+            "end; " +
+            "end; " +
+            "if (ARGV[4] == '1') then " +
+            "if (redis.call('zadd', KEYS[3], tonumber(ARGV[3]) + " + FairWaitMilliseconds + ", ARGV[1]) == 1) then " +
+            "redis.call('rpush', KEYS[2], ARGV[1]); " +
+            "end; " +
+            "redis.call('pexpire', KEYS[2], " + FairWaitMilliseconds + "); " +
+            "redis.call('pexpire', KEYS[3], " + FairWaitMilliseconds + "); " +
+            "end; " +
+            "return " + LockTtl + ";");
+    /**
+     * 持有者释放锁，或等待者放弃等待时移出队列，之后锁空闲则只通知队首的等待者，通知内容为其token
+     * 只有释放了锁才返回1
+     * KEYS[1]: 锁, KEYS[2]: 等待队列, KEYS[3]: 等待者的到期时间, ARGV[1]: token, ARGV[2]: 释放通知的频道, ARGV[3]: 通知内容（未使用）
+     */
+    static final RedisLuaScript FairUnlock = new RedisLuaScript("" +
+            "local released = 0; " +
+            "if (redis.call('get', KEYS[1]) == ARGV[1]) then " +
+            "redis.call('del', KEYS[1]); " +
+            "released = 1; " +
+            "else " +
+            "if (redis.call('zrem', KEYS[3], ARGV[1]) == 1) then " +
+            "redis.call('lrem', KEYS[2], 0, ARGV[1]); " +
+            "end; " +
+            "if (redis.call('exists', KEYS[1]) == 1) then " +
+            "return 0; " +
+            "end; " +
+            "end; " +
+            "local first = redis.call('lindex', KEYS[2], 0); " +
+            "if first then " +
+            "redis.call('publish', ARGV[2], first); " +
+            "end; " +
+            "return released;");
+
+    /**
+     * 将所有脚本加载到{@code connection}对应节点的脚本缓存中
+     */
+    static void loadAll(RedisConnection connection) {
+        Lock.load(connection);
+        Unlock.load(connection);
+        Renew.load(connection);
+        ReentrantLock.load(connection);
+        ReentrantUnlock.load(connection);
+        ReentrantRenew.load(connection);
+        ReadLock.load(connection);
+        WriteLock.load(connection);
+        ReadWriteUnlock.load(connection);
+        ReadWriteRenew.load(connection);
+        SemaphoreAcquire.load(connection);
+        SemaphoreRelease.load(connection);
+        SemaphoreRenew.load(connection);
+        MultiLock.load(connection);
+        MultiUnlock.load(connection);
+        MultiRenew.load(connection);
+        FairLock.load(connection);
+        FairUnlock.load(connection);
+    }
+
+    private RedisLockScripts() {
+    }
+}
@@ -0,0 +1,99 @@
+package com.yx.distributed.locks.redis;
+
+import org.springframework.data.redis.connection.ReactiveRedisConnection;
+import org.springframework.data.redis.connection.ReactiveScriptingCommands;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.script.DigestUtils;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import reactor.core.publisher.Flux;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Lua脚本
+ * <ol>
+ *     <li>优先使用{@code EVALSHA}执行，避免每次都发送完整的脚本内容</li>
+ *     <li>Redis中不存在该脚本（NOSCRIPT）时，退化为{@code EVAL}，同时脚本会被Redis缓存</li>
+ * </ol>
+ */
+final class RedisLuaScript {
+    private final String source;
+    private final byte[] body;
+    private final String sha1;
+
+    RedisLuaScript(String body) {
+        this.source = body;
+        this.body = StringRedisSerializer.UTF_8.serialize(body);
+        this.sha1 = DigestUtils.sha1DigestAsHex(body);
+    }
+
+    /**
+     * 脚本内容，供直接使用客户端原生命令执行
+     */
+    String getSource() {
+        return source;
+    }
+
+    String getSha1() {
+        return sha1;
+    }
+
+    /**
+     * 将脚本加载到Redis的脚本缓存中
+     */
+    void load(RedisConnection connection) {
+        connection.scriptLoad(body);
+    }
+
+    <T> T execute(RedisConnection connection, ReturnType returnType, int numKeys, byte[]... keysAndArgs) {
+        try {
+            return connection.evalSha(sha1, returnType, numKeys, keysAndArgs);
+        } catch (RuntimeException e) {
+            if (!isNoScript(e)) {
+                throw e;
+            }
+            return connection.eval(body, returnType, numKeys, keysAndArgs);
+        }
+    }
+
+    /**
+     * 在pipeline中执行，结果由{@link RedisConnection#closePipeline()}返回
+     * 调用方需要通过{@link #isNoScript(Throwable)}识别NOSCRIPT错误，并使用{@link #eval}重试
+     */
+    void executeInPipeline(RedisConnection connection, ReturnType returnType, int numKeys, byte[]... keysAndArgs) {
+        connection.evalSha(sha1, returnType, numKeys, keysAndArgs);
+    }
+
+    <T> T eval(RedisConnection connection, ReturnType returnType, int numKeys, byte[]... keysAndArgs) {
+        return connection.eval(body, returnType, numKeys, keysAndArgs);
+    }
+
+    /**
+     * 使用响应式连接执行，每次执行都会重新包装参数，NOSCRIPT时退化为EVAL
+     */
+    <T> Flux<T> execute(ReactiveRedisConnection connection, ReturnType returnType, int numKeys, byte[]... keysAndArgs) {
+        ReactiveScriptingCommands commands = connection.scriptingCommands();
+        return commands.<T>evalSha(sha1, returnType, numKeys, wrap(keysAndArgs))
+                .onErrorResume(RedisLuaScript::isNoScript, e -> commands.eval(ByteBuffer.wrap(body), returnType, numKeys, wrap(keysAndArgs)));
+    }
+
+    private static ByteBuffer[] wrap(byte[]... keysAndArgs) {
+        ByteBuffer[] buffers = new ByteBuffer[keysAndArgs.length];
+        for (int i = 0; i < keysAndArgs.length; i++) {
+            buffers[i] = ByteBuffer.wrap(keysAndArgs[i]);
+        }
+        return buffers;
+    }
+
+    static boolean isNoScript(Throwable throwable) {
+        while (throwable != null) {
+            String message = throwable.getMessage();
+            if (message != null && message.contains("NOSCRIPT")) {
+                return true;
+            }
+            throwable = throwable.getCause();
+        }
+        return false;
+    }
+}
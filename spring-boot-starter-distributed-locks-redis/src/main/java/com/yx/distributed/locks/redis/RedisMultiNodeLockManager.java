@@ -0,0 +1,442 @@
+package com.yx.distributed.locks.redis;
+
+import com.yx.distributed.locks.LockOwnership;
+import com.yx.distributed.locks.exception.UnlockException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于多个相互独立的Redis节点（Redlock）
+ * <ol>
+ *     <li>加锁、续期、解锁都并行发送到所有节点，多数节点成功即视为成功，耗时取决于多数节点中最慢的一个</li>
+ *     <li>加锁成功还要求锁仍然有效：租约时长减去加锁耗时以及时钟漂移后必须大于零</li>
+ *     <li>加锁失败时，只在已经加锁成功或结果未知的节点上释放，只获得部分节点时随机等待一段时间后再重试</li>
+ *     <li>续期最多等待到租约剩余时长的一半，多数节点的结果未定时稍后重试，只有多数节点明确回复不再持有时才视为租约丢失</li>
+ *     <li>信号量的许可分散在不同的多数节点上无法保证总数，公平锁的等待队列在各节点上相互独立无法保证整体的先后顺序，
+ *     因此两者只在第一个节点上执行，不具备多节点的容错，该节点故障期间无法获得</li>
+ *     <li>fencing token取加锁成功的节点中的最大值，节点重启后丢失计数器时不再保证单调递增</li>
+ * </ol>
+ */
+@Slf4j
+public class RedisMultiNodeLockManager extends AbstractRedisLockManager {
+    /**
+     * 时钟漂移按租约时长的1%估算，另加2ms
+     */
+    private static final double ClockDriftFactor = 0.01;
+    private static final int NodeQueueCapacity = 1024;
+    /**
+     * 加锁与解锁等待多数节点响应的最长时间，续期按租约的剩余时长等待
+     * 各节点结果不一致时需要等待最慢的节点，故障节点上的请求直到命令超时才会返回，因此该值必须远小于命令超时
+     */
+    private static final long MaxNodeTimeoutMilliseconds = 200;
+    /**
+     * 多个竞争者各自只获得部分节点时，释放后随机等待一段时间再重试，避免再次同时竞争而互相阻止
+     */
+    private static final long SplitRetryJitterMilliseconds = 50;
+    /**
+     * 信号量与公平锁只在该节点上执行
+     */
+    private static final int CoordinatorNode = 0;
+    private final List<RedisConnectionFactory> connectionFactories;
+    private final int quorum;
+    private final long clockDriftMillis;
+    private final long nodeTimeoutMillis;
+    /**
+     * 与{@code connectionFactories}一一对应，线程数与队列长度都有上限
+     * 故障节点上的请求会一直阻塞到命令超时，队列满后对该节点的请求直接失败，不影响其他节点
+     */
+    private final List<ExecutorService> nodeExecutors;
+
+    public RedisMultiNodeLockManager(String namePrefix, Duration leaseTime, List<RedisConnectionFactory> connectionFactories) {
+        this(namePrefix, leaseTime, LockOwnership.THREAD, connectionFactories);
+    }
+
+    public RedisMultiNodeLockManager(String namePrefix, Duration leaseTime, LockOwnership ownership, List<RedisConnectionFactory> connectionFactories) {
+        super(namePrefix, leaseTime, ownership, new RedisLockReleaseSubscriber(checkNodes(connectionFactories)));
+        this.connectionFactories = new ArrayList<>(connectionFactories);
+        this.quorum = connectionFactories.size() / 2 + 1;
+        this.clockDriftMillis = (long) (leaseTimeMillis * ClockDriftFactor) + 2;
+        this.nodeTimeoutMillis = Math.min(leaseTimeMillis / 10, MaxNodeTimeoutMilliseconds);
+        this.nodeExecutors = new ArrayList<>(connectionFactories.size());
+        for (int i = 0; i < connectionFactories.size(); i++) {
+            this.nodeExecutors.add(createNodeExecutor(i));
+        }
+        log.info("nodes = {}, quorum = {}, clockDrift = {}ms, semaphores and fair locks run on node {} only", connectionFactories.size(), quorum,
+                clockDriftMillis, CoordinatorNode);
+        start();
+    }
+
+    private static List<RedisConnectionFactory> checkNodes(List<RedisConnectionFactory> connectionFactories) {
+        if (connectionFactories == null || connectionFactories.isEmpty()) {
+            throw new IllegalArgumentException("connectionFactories can not be null or empty");
+        }
+        return connectionFactories;
+    }
+
+    private static ExecutorService createNodeExecutor(int node) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        int threads = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(NodeQueueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "distributed-lock-node-" + node + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 同时停止各节点的执行线程
+     */
+    @Override
+    public void destroy() {
+        super.destroy();
+        for (ExecutorService nodeExecutor : nodeExecutors) {
+            nodeExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 信号量与公平锁无法在多数节点上保证语义，只在{@link #CoordinatorNode}上执行
+     */
+    private static boolean isCoordinated(LockKind kind) {
+        return kind == LockKind.SEMAPHORE || kind == LockKind.FAIR;
+    }
+
+    @Override
+    void loadScripts() {
+        for (RedisConnectionFactory connectionFactory : connectionFactories) {
+            try {
+                execute(connectionFactory, connection -> {
+                    RedisLockScripts.loadAll(connection);
+                    return null;
+                });
+            } catch (Throwable throwable) {
+                log.warn("failed to load lock scripts, fall back to EVAL on demand", throwable);
+            }
+        }
+    }
+
+    /**
+     * 借用{@code connectionFactory}的一个连接执行{@code callback}，执行完毕后归还
+     */
+    private static <T> T execute(RedisConnectionFactory connectionFactory, RedisCallback<T> callback) {
+        RedisConnection connection = connectionFactory.getConnection();
+        try {
+            return callback.doInRedis(connection);
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * 在所有节点上并行执行{@code callback}，按节点顺序返回结果
+     */
+    private <T> List<CompletableFuture<T>> executeOnAll(RedisCallback<T> callback) {
+        List<CompletableFuture<T>> results = new ArrayList<>(connectionFactories.size());
+        for (int i = 0; i < connectionFactories.size(); i++) {
+            results.add(executeOn(i, callback));
+        }
+        return results;
+    }
+
+    private <T> CompletableFuture<T> executeOn(int node, RedisCallback<T> callback) {
+        RedisConnectionFactory connectionFactory = connectionFactories.get(node);
+        try {
+            return CompletableFuture.supplyAsync(() -> execute(connectionFactory, callback), nodeExecutors.get(node));
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    /**
+     * 等待直到多数节点返回正数（解锁脚本为1，加锁脚本为fencing token），或者失败的节点已多到不可能达成多数，或者超时
+     * 剩余节点的结果不再等待，之后出错的节点仍然记录日志
+     */
+    private boolean awaitQuorum(List<CompletableFuture<Long>> results) {
+        CompletableFuture<Boolean> decided = new CompletableFuture<>();
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        for (int i = 0; i < results.size(); i++) {
+            int node = i;
+            results.get(i).whenComplete((returnVal, throwable) -> {
+                if (throwable == null && returnVal != null && returnVal > 0) {
+                    if (succeeded.incrementAndGet() >= quorum) {
+                        decided.complete(true);
+                    }
+                    return;
+                }
+                if (throwable != null) {
+                    log.warn("failed to execute lock script on node {}", node, throwable);
+                }
+                if (failed.incrementAndGet() > results.size() - quorum) {
+                    decided.complete(false);
+                }
+            });
+        }
+        try {
+            return decided.get(nodeTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (java.util.concurrent.TimeoutException e) {
+            log.warn("no quorum within {}ms", nodeTimeoutMillis);
+            return false;
+        } catch (InterruptedException e) {
+            //保留中断状态，由等待释放通知的调用方处理
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    @Override
+    boolean tryLockInner(Locker locker, LockOwner owner, boolean waiting) {
+        long start = System.currentTimeMillis();
+        byte[][] keysAndArgs = locker.lockArgs(owner, leaseTimeBytes, serialize(String.valueOf(start)), waiting);
+        if (isCoordinated(locker.kind)) {
+            return tryLockCoordinated(locker, owner, keysAndArgs);
+        }
+        List<CompletableFuture<Long>> results = executeOnAll(connection -> locker.kind.lockScript.execute(connection, ReturnType.INTEGER,
+                locker.lockKeys.length, keysAndArgs));
+        boolean acquired = awaitQuorum(results);
+        long validity = leaseTimeMillis - (System.currentTimeMillis() - start) - clockDriftMillis;
+        if (acquired && validity > 0) {
+            owner.fencingToken = maxFencingToken(results);
+            owner.leased = true;
+            return true;
+        }
+        if (acquired) {
+            log.warn("lock {} acquired on a quorum, but the validity time has elapsed", locker.name);
+        }
+        owner.lockTtlMillis = minLockTtl(results);
+        //不在当前线程等待，由加锁的调用方在重试前等待，异步加锁时不占用线程
+        owner.retryBackoffMillis = releaseAcquired(locker, owner, results) ? 1 + ThreadLocalRandom.current().nextLong(SplitRetryJitterMilliseconds) : 0;
+        return false;
+    }
+
+    private boolean tryLockCoordinated(Locker locker, LockOwner owner, byte[][] keysAndArgs) {
+        Long returnVal = execute(connectionFactories.get(CoordinatorNode), connection -> locker.kind.lockScript.execute(connection,
+                ReturnType.INTEGER, locker.lockKeys.length, keysAndArgs));
+        if (returnVal != null && returnVal > 0) {
+            owner.fencingToken = returnVal;
+            owner.leased = true;
+            return true;
+        }
+        owner.lockTtlMillis = returnVal != null && returnVal < 0 ? -returnVal : 0;
+        return false;
+    }
+
+    /**
+     * 各节点的计数器相互独立，取已加锁节点中的最大值
+     * 只要加锁的多数节点中有一个节点保留着上一个持有者的计数，结果就大于上一个持有者的fencing token
+     */
+    private static long maxFencingToken(List<CompletableFuture<Long>> results) {
+        long fencingToken = 0;
+        for (CompletableFuture<Long> result : results) {
+            if (result.isDone() && !result.isCompletedExceptionally() && result.join() != null) {
+                fencingToken = Math.max(fencingToken, result.join());
+            }
+        }
+        return fencingToken;
+    }
+
+    /**
+     * 加锁失败的节点中最短的剩余租约时长，任意一个节点上的锁到期后就可能重新获得多数节点
+     */
+    private static long minLockTtl(List<CompletableFuture<Long>> results) {
+        long lockTtl = 0;
+        for (CompletableFuture<Long> result : results) {
+            if (result.isDone() && !result.isCompletedExceptionally() && result.join() != null && result.join() < 0) {
+                lockTtl = lockTtl == 0 ? -result.join() : Math.min(lockTtl, -result.join());
+            }
+        }
+        return lockTtl;
+    }
+
+    /**
+     * 未能在有效期内获得多数节点时，在已经加锁成功或结果未知的节点上释放
+     *
+     * @return 是否已经在部分节点上加锁成功
+     */
+    private boolean releaseAcquired(Locker locker, LockOwner owner, List<CompletableFuture<Long>> results) {
+        byte[][] keysAndArgs = locker.keysAndArgs(owner.token, locker.channelBytes, RedisLockScripts.ReleasedMessage, leaseTimeBytes);
+        boolean acquiredAny = false;
+        for (int i = 0; i < results.size(); i++) {
+            int node = i;
+            CompletableFuture<Long> result = results.get(i);
+            if (result.isDone() && !result.isCompletedExceptionally() && result.join() != null && result.join() > 0) {
+                acquiredAny = true;
+            }
+            result.whenComplete((returnVal, throwable) -> {
+                if (throwable == null && (returnVal == null || returnVal <= 0)) {
+                    return;
+                }
+                executeOn(node, connection -> locker.kind.unlockScript.<Long>execute(connection, ReturnType.INTEGER,
+                        locker.keys.length, keysAndArgs))
+                        .whenComplete((ignored, e) -> {
+                            if (e != null) {
+                                log.warn("failed to release lock {} on a node", locker.name, e);
+                            }
+                        });
+            });
+        }
+        return acquiredAny;
+    }
+
+    @Override
+    boolean tryUnlockInner(Locker locker, LockOwner owner) {
+        byte[][] keysAndArgs = locker.keysAndArgs(owner.token, locker.channelBytes, RedisLockScripts.ReleasedMessage, leaseTimeBytes);
+        if (isCoordinated(locker.kind)) {
+            Long returnVal = execute(connectionFactories.get(CoordinatorNode), connection -> locker.kind.unlockScript.execute(connection,
+                    ReturnType.INTEGER, locker.keys.length, keysAndArgs));
+            return returnVal != null && returnVal == 1;
+        }
+        boolean unlocked = awaitQuorum(executeOnAll(connection -> locker.kind.unlockScript.execute(connection, ReturnType.INTEGER,
+                locker.keys.length, keysAndArgs)));
+        log.info("tryUnlockInner quorum response: {}", unlocked);
+        return unlocked;
+    }
+
+    /**
+     * 每个节点各用一个pipeline并行续期，多数节点续期成功的持有者视为成功，多数节点回复不再持有的视为失败
+     * 最多等待到租约剩余时长的一半，仍未确定的持有者返回异常，由续期线程在租约到期前重试
+     */
+    @Override
+    List<Object> renew(List<LockOwner> renewing, byte[] now) {
+        List<LockOwner> quorumOwners = new ArrayList<>(renewing.size());
+        List<LockOwner> coordinatedOwners = new ArrayList<>();
+        long remainingNanos = Long.MAX_VALUE;
+        long nowNanos = System.nanoTime();
+        for (LockOwner owner : renewing) {
+            (isCoordinated(owner.locker.kind) ? coordinatedOwners : quorumOwners).add(owner);
+            remainingNanos = Math.min(remainingNanos, owner.leaseExpiresNanos - nowNanos);
+        }
+        CompletableFuture<List<Object>> coordinated = coordinatedOwners.isEmpty() ? CompletableFuture.completedFuture(new ArrayList<>()) :
+                executeOn(CoordinatorNode, connection -> renewInPipeline(connection, coordinatedOwners, now));
+        List<CompletableFuture<List<Object>>> nodeResults = quorumOwners.isEmpty() ? new ArrayList<>() :
+                executeOnAll(connection -> renewInPipeline(connection, quorumOwners, now));
+
+        long timeoutMillis = Math.max(0, TimeUnit.NANOSECONDS.toMillis(remainingNanos) / 2 - clockDriftMillis);
+        CompletableFuture<Void> decided = CompletableFuture.allOf(coordinated, awaitRenewQuorum(nodeResults, quorumOwners.size()));
+        try {
+            decided.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (java.util.concurrent.TimeoutException | ExecutionException e) {
+            //未确定的持有者返回异常
+            log.warn("renewal is undecided on some nodes after {}ms", timeoutMillis);
+        }
+
+        List<Object> quorumResults = new ArrayList<>(quorumOwners.size());
+        for (int i = 0; i < quorumOwners.size(); i++) {
+            quorumResults.add(renewResult(nodeResults, i));
+        }
+        List<Object> coordinatedResults = coordinated.isDone() && !coordinated.isCompletedExceptionally() ? coordinated.join() : null;
+        List<Object> results = new ArrayList<>(renewing.size());
+        int quorumIndex = 0;
+        int coordinatedIndex = 0;
+        for (LockOwner owner : renewing) {
+            if (!isCoordinated(owner.locker.kind)) {
+                results.add(quorumResults.get(quorumIndex++));
+            } else if (coordinatedResults != null && coordinatedIndex < coordinatedResults.size()) {
+                results.add(coordinatedResults.get(coordinatedIndex++));
+            } else {
+                results.add(new IllegalStateException("no response from node " + CoordinatorNode));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 所有持有者的结果都已确定，或者所有节点都已响应时完成
+     */
+    private CompletableFuture<Void> awaitRenewQuorum(List<CompletableFuture<List<Object>>> nodeResults, int owners) {
+        CompletableFuture<Void> decided = new CompletableFuture<>();
+        AtomicInteger responded = new AtomicInteger();
+        if (nodeResults.isEmpty()) {
+            decided.complete(null);
+        }
+        for (CompletableFuture<List<Object>> nodeResult : nodeResults) {
+            nodeResult.whenComplete((result, throwable) -> {
+                if (throwable != null) {
+                    log.warn("failed to renew on a node", throwable);
+                }
+                if (responded.incrementAndGet() == nodeResults.size()) {
+                    decided.complete(null);
+                    return;
+                }
+                for (int i = 0; i < owners; i++) {
+                    if (renewResult(nodeResults, i) instanceof Throwable) {
+                        return;
+                    }
+                }
+                decided.complete(null);
+            });
+        }
+        return decided;
+    }
+
+    /**
+     * 第{@code index}个持有者在已响应节点上的续期结果
+     *
+     * @return 多数节点续期成功时为1，多数节点回复不再持有时为0，否则为异常
+     */
+    private Object renewResult(List<CompletableFuture<List<Object>>> nodeResults, int index) {
+        int renewed = 0;
+        int notOwner = 0;
+        for (CompletableFuture<List<Object>> nodeResult : nodeResults) {
+            List<Object> result = nodeResult.isDone() && !nodeResult.isCompletedExceptionally() ? nodeResult.join() : null;
+            if (result == null || index >= result.size() || result.get(index) instanceof Throwable) {
+                continue;
+            }
+            if (Long.valueOf(1).equals(result.get(index))) {
+                renewed++;
+            } else {
+                notOwner++;
+            }
+        }
+        if (renewed >= quorum) {
+            return 1L;
+        }
+        if (notOwner > nodeResults.size() - quorum) {
+            return 0L;
+        }
+        return new IllegalStateException("renewal has no quorum, renewed on " + renewed + " nodes and lost on " + notOwner + " nodes");
+    }
+
+    /**
+     * 与解锁相同，最多等待{@code nodeTimeoutMillis}，多数节点删除成功即返回，失败的节点只记录日志
+     * 其余节点上残留的键在租约到期后失效
+     */
+    @Override
+    void forceUnlock(Locker locker) {
+        List<CompletableFuture<Long>> results = executeOnAll(connection -> {
+            connection.del(locker.keys);
+            for (String channel : locker.channels) {
+                connection.publish(serialize(channel), RedisLockScripts.ReleasedMessage);
+            }
+            return 1L;
+        });
+        if (!awaitQuorum(results)) {
+            log.error("failed to force unlock {} on a quorum of nodes", locker.name);
+            throw new UnlockException();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.yx.distributed.locks.retry;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 按锁的剩余租约时长等待
+ * <ol>
+ *     <li>持有者正常释放时由释放通知唤醒，主动重试只是为了在持有者宕机、租约到期时第一时间接手，因此在租约到期时重试</li>
+ *     <li>等待时长限制在{@code min}与{@code max}之间，并在{@code min}内随机推迟，避免多个等待者同时重试</li>
+ *     <li>剩余租约未知时（例如锁刚好被释放）按指数退避等待</li>
+ * </ol>
+ * 适用于持有时长长短不一的锁，等待者在锁空闲前几乎不访问Redis
+ */
+public class AdaptiveRetryPolicy implements RetryPolicy {
+    private final long minMillis;
+    private final long maxMillis;
+    private final ExponentialBackoffRetryPolicy fallback;
+
+    public AdaptiveRetryPolicy(Duration min, Duration max) {
+        this.fallback = new ExponentialBackoffRetryPolicy(min, max);
+        this.minMillis = min.toMillis();
+        this.maxMillis = max.toMillis();
+    }
+
+    @Override
+    public long nextDelayMillis(int failures, long lockTtlMillis) {
+        if (lockTtlMillis <= 0) {
+            return fallback.nextDelayMillis(failures, lockTtlMillis);
+        }
+        long delay = lockTtlMillis + ThreadLocalRandom.current().nextLong(minMillis + 1);
+        return Math.max(minMillis, Math.min(maxMillis, delay));
+    }
+
+    @Override
+    public String toString() {
+        return "adaptive(" + minMillis + "ms, " + maxMillis + "ms)";
+    }
+}
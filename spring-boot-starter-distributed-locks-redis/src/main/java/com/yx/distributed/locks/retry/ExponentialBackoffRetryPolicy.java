@@ -0,0 +1,40 @@
+package com.yx.distributed.locks.retry;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 指数退避，每次在0到退避上限之间随机等待（full jitter）
+ * 退避上限从{@code base}开始每次失败翻倍，不超过{@code max}，随机化使同时失败的竞争者错开重试时间
+ */
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+    /**
+     * 翻倍次数的上限，避免移位溢出
+     */
+    private static final int MaxDoublings = 30;
+    private final long baseMillis;
+    private final long maxMillis;
+
+    public ExponentialBackoffRetryPolicy(Duration base, Duration max) {
+        if (base.isNegative() || base.isZero() || max.compareTo(base) < 0) {
+            throw new IllegalArgumentException("base must be positive and no greater than max");
+        }
+        this.baseMillis = base.toMillis();
+        this.maxMillis = max.toMillis();
+    }
+
+    @Override
+    public long nextDelayMillis(int failures, long lockTtlMillis) {
+        return ThreadLocalRandom.current().nextLong(backoffMillis(failures) + 1);
+    }
+
+    long backoffMillis(int failures) {
+        int doublings = Math.min(Math.max(failures - 1, 0), MaxDoublings);
+        return Math.min(maxMillis, baseMillis << doublings);
+    }
+
+    @Override
+    public String toString() {
+        return "exponential(" + baseMillis + "ms, " + maxMillis + "ms)";
+    }
+}
@@ -0,0 +1,27 @@
+package com.yx.distributed.locks.retry;
+
+import java.time.Duration;
+
+/**
+ * 按固定间隔重试，适用于持有时长稳定、竞争不激烈的锁
+ */
+public class FixedRetryPolicy implements RetryPolicy {
+    private final long intervalMillis;
+
+    public FixedRetryPolicy(Duration interval) {
+        if (interval.isNegative()) {
+            throw new IllegalArgumentException("interval can not be negative");
+        }
+        this.intervalMillis = interval.toMillis();
+    }
+
+    @Override
+    public long nextDelayMillis(int failures, long lockTtlMillis) {
+        return intervalMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "fixed(" + intervalMillis + "ms)";
+    }
+}
@@ -0,0 +1,24 @@
+package com.yx.distributed.locks.retry;
+
+import java.time.Duration;
+
+/**
+ * 加锁失败后的重试策略
+ * <ol>
+ *     <li>等待期间收到释放通知会立即重试，策略决定的是未收到通知时最多等待多久再主动重试</li>
+ *     <li>在加锁的路径上同步调用，实现不能阻塞，也不应在每次调用时分配对象</li>
+ *     <li>默认实现{@link #Default}与未引入策略之前相同，每秒重试一次</li>
+ * </ol>
+ */
+public interface RetryPolicy {
+    RetryPolicy Default = new FixedRetryPolicy(Duration.ofSeconds(1));
+
+    /**
+     * 下一次重试前最多等待的时长
+     *
+     * @param failures      本次加锁已经失败的次数，从1开始
+     * @param lockTtlMillis 最近一次失败时锁的剩余租约时长（毫秒），未知时为0
+     * @return 等待时长（毫秒），为0时立即重试
+     */
+    long nextDelayMillis(int failures, long lockTtlMillis);
+}
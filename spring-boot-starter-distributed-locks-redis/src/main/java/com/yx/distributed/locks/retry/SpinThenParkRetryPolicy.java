@@ -0,0 +1,34 @@
+package com.yx.distributed.locks.retry;
+
+import java.time.Duration;
+
+/**
+ * 先立即重试若干次，之后按固定间隔等待
+ * 适用于持有时长只有几毫秒的锁，持有者很可能在一次往返的时间内就已释放，立即重试比等待通知更快
+ */
+public class SpinThenParkRetryPolicy implements RetryPolicy {
+    private final int spins;
+    private final long parkMillis;
+
+    /**
+     * @param spins 立即重试的次数
+     * @param park  自旋结束后每次等待的时长
+     */
+    public SpinThenParkRetryPolicy(int spins, Duration park) {
+        if (spins < 0 || park.isNegative()) {
+            throw new IllegalArgumentException("spins and park can not be negative");
+        }
+        this.spins = spins;
+        this.parkMillis = park.toMillis();
+    }
+
+    @Override
+    public long nextDelayMillis(int failures, long lockTtlMillis) {
+        return failures <= spins ? 0 : parkMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "spin-then-park(" + spins + ", " + parkMillis + "ms)";
+    }
+}
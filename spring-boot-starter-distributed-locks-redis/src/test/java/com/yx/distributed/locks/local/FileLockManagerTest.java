@@ -0,0 +1,218 @@
+package com.yx.distributed.locks.local;
+
+import com.yx.distributed.locks.DistributedSemaphore;
+import com.yx.distributed.locks.Lock;
+import com.yx.distributed.locks.LockOwnership;
+import com.yx.distributed.locks.ReadWriteLock;
+import com.yx.distributed.locks.Scope;
+import com.yx.distributed.locks.retry.FixedRetryPolicy;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 同一目录上的两个锁管理器之间通过文件锁互斥，相当于两个进程
+ * 同一虚拟机内重叠的文件锁由虚拟机拒绝，其他进程的文件锁由操作系统拒绝，对锁管理器而言都是锁被占用
+ */
+public class FileLockManagerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<FileLockManager> lockManagers = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        lockManagers.forEach(FileLockManager::destroy);
+    }
+
+    private FileLockManager createLockManager() {
+        FileLockManager lockManager = new FileLockManager("test", Duration.ofSeconds(30), LockOwnership.TOKEN, folder.getRoot().toPath());
+        lockManager.setRetryPolicy(new FixedRetryPolicy(Duration.ofMillis(20)));
+        lockManagers.add(lockManager);
+        return lockManager;
+    }
+
+    private Path lockFile(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            List<Path> matched = files.filter(path -> path.getFileName().toString().endsWith(suffix)).collect(Collectors.toList());
+            assertEquals(1, matched.size());
+            return matched.get(0);
+        }
+    }
+
+    @Test
+    public void excludesLockManagerOnSameDirectory() throws Exception {
+        Lock lock = createLockManager().acquire("order");
+        Lock other = createLockManager().acquire("order");
+        Scope scope = lock.lock();
+        assertFalse(other.tryLock());
+
+        //其他进程释放时不会通知，等待者按重试策略重试
+        CompletableFuture<Scope> waiter = CompletableFuture.supplyAsync(() -> other.lock(Duration.ofSeconds(5)));
+        Thread.sleep(100);
+        assertFalse(waiter.isDone());
+        scope.close();
+        Scope otherScope = waiter.get(1, TimeUnit.SECONDS);
+        assertFalse(lock.tryLock());
+        otherScope.close();
+        assertTrue(lock.tryLock());
+        lock.unlock();
+    }
+
+    @Test
+    public void sharesReadLockWithinProcessAndExcludesWriterOfOtherProcess() {
+        ReadWriteLock readWrite = createLockManager().acquireReadWrite("config");
+        ReadWriteLock other = createLockManager().acquireReadWrite("config");
+        Scope first = readWrite.readLock().lock();
+        Scope second = readWrite.readLock().lock();
+        assertFalse(other.writeLock().tryLock());
+
+        //本进程的读锁共用一把共享锁，最后一个读锁释放时才释放
+        first.close();
+        assertFalse(other.writeLock().tryLock());
+        second.close();
+        assertTrue(other.writeLock().tryLock());
+        assertFalse(readWrite.readLock().tryLock());
+        assertFalse(readWrite.writeLock().tryLock());
+        other.writeLock().unlock();
+        assertTrue(readWrite.readLock().tryLock());
+        readWrite.readLock().unlock();
+    }
+
+    @Test
+    public void semaphorePermitsLockSeparateByteRanges() {
+        DistributedSemaphore semaphore = createLockManager().acquireSemaphore("pool", 3);
+        DistributedSemaphore other = createLockManager().acquireSemaphore("pool", 3);
+        Scope two = semaphore.tryAcquire(2);
+        assertNotNull(two);
+
+        //剩余的一个许可可以由其他进程获取
+        Scope one = other.tryAcquire(1);
+        assertNotNull(one);
+        assertNull(other.tryAcquire(1));
+        assertNull(semaphore.tryAcquire(1));
+
+        semaphore.release(two);
+        Scope rest = other.tryAcquire(2);
+        assertNotNull(rest);
+        assertNull(semaphore.tryAcquire(1));
+        other.release(one);
+        Scope last = semaphore.tryAcquire(1);
+        assertNotNull(last);
+        semaphore.release(last);
+        other.release(rest);
+    }
+
+    @Test
+    public void fencingTokenIncreasesAcrossProcessesThroughLockFile() throws Exception {
+        Lock lock = createLockManager().acquire("fenced");
+        Lock other = createLockManager().acquire("fenced");
+        long previous = 0;
+        for (int i = 0; i < 10; i++) {
+            Scope scope = (i % 2 == 0 ? lock : other).lock();
+            long fencingToken = scope.getFencingToken();
+            assertTrue(fencingToken > previous);
+            previous = fencingToken;
+            scope.close();
+        }
+        //文件头部的8个字节保存最近的fencing token
+        byte[] header = Files.readAllBytes(lockFile(".lock"));
+        assertEquals(previous, ByteBuffer.wrap(header).getLong(0));
+
+        //新的锁管理器从文件中的值继续递增
+        Scope scope = createLockManager().acquire("fenced").lock();
+        assertEquals(previous + 1, scope.getFencingToken());
+        scope.close();
+    }
+
+    @Test
+    public void closesLockFilesAfterStatesAreCollected() throws Exception {
+        FileLockManager lockManager = createLockManager();
+        for (int i = 0; i < 20; i++) {
+            Lock lock = lockManager.acquire("collected-" + i);
+            assertTrue(lock.tryLock());
+            lock.unlock();
+        }
+        //持有中的锁不会被回收
+        Scope held = lockManager.acquire("held").lock();
+        assertEquals(21, lockManager.getOpenLockFiles());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (lockManager.getOpenLockFiles() > 1 && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertEquals(1, lockManager.getOpenLockFiles());
+        held.close();
+
+        //锁文件不会被删除，再次使用时重新打开
+        Lock lock = lockManager.acquire("collected-0");
+        assertTrue(lock.tryLock());
+        assertTrue(lockManager.getOpenLockFiles() >= 2);
+        lock.unlock();
+    }
+
+    @Test
+    public void releasesFileLockWhenOwnerProcessIsKilled() throws Exception {
+        Path java = Paths.get(System.getProperty("java.home"), "bin", "java");
+        Process process = new ProcessBuilder(java.toString(), "-cp", System.getProperty("java.class.path"),
+                Holder.class.getName(), folder.getRoot().getAbsolutePath(), "crashed")
+                .redirectErrorStream(true)
+                .start();
+        try {
+            BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = output.readLine()) != null && !line.equals(Holder.Locked)) {
+            }
+            assertEquals(Holder.Locked, line);
+            Lock lock = createLockManager().acquire("crashed");
+            assertFalse(lock.tryLock());
+
+            //进程退出时操作系统释放其文件锁
+            process.destroyForcibly().waitFor(5, TimeUnit.SECONDS);
+            assertTrue(lock.tryLock(Duration.ofSeconds(5)));
+            lock.unlock();
+        } finally {
+            process.destroyForcibly();
+        }
+    }
+
+    /**
+     * 在另一个进程中持有锁，直到被终止
+     */
+    public static class Holder {
+        static final String Locked = "locked";
+
+        public static void main(String[] args) throws Exception {
+            FileLockManager lockManager = new FileLockManager("test", Duration.ofSeconds(30), LockOwnership.TOKEN, new File(args[0]).toPath());
+            lockManager.acquire(args[1]).lock();
+            System.out.println(Locked);
+            System.out.flush();
+            Thread.sleep(Long.MAX_VALUE);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.yx.distributed.locks.local;
+
+import com.yx.distributed.locks.Lock;
+import com.yx.distributed.locks.LockOwnership;
+import com.yx.distributed.locks.Scope;
+import com.yx.distributed.locks.exception.LockException;
+import com.yx.distributed.locks.exception.TimeoutException;
+import com.yx.distributed.locks.exception.UnlockException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 本地锁管理器的并发测试
+ * 租约足够长时等待者只能依靠唤醒加锁，错过唤醒表现为超时
+ */
+public class LocalLockManagerTest {
+    private final List<LocalLockManager> lockManagers = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        lockManagers.forEach(LocalLockManager::destroy);
+    }
+
+    private LocalLockManager createLockManager(Duration leaseTime, LockOwnership ownership) {
+        LocalLockManager lockManager = new LocalLockManager(leaseTime, ownership);
+        lockManagers.add(lockManager);
+        return lockManager;
+    }
+
+    private static void runConcurrently(int threads, Runnable task) {
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                task.run();
+            }, runnable -> new Thread(runnable).start()));
+        }
+        start.countDown();
+        futures.forEach(CompletableFuture::join);
+    }
+
+    private static void enter(AtomicInteger inUse) {
+        assertEquals(1, inUse.incrementAndGet());
+    }
+
+    @Test
+    public void partialGroupReleaseSignalsNextWaiterButNotItself() {
+        LocalLockState state = new LocalLockState(1, false);
+        CompletableFuture<Boolean> group = new CompletableFuture<>();
+        CompletableFuture<Boolean> other = new CompletableFuture<>();
+        state.enqueue(group);
+        state.enqueue(other);
+
+        //一组锁获取了这把锁但组内其他锁失败，归还时唤醒的是后面的等待者
+        assertTrue(state.tryAcquire(1, false, group));
+        state.releasePermits(1, group);
+        assertEquals(LocalLockState.Signaled, other.getNow(null));
+        assertFalse(group.isDone());
+        assertTrue(state.tryAcquire(1, false, null));
+    }
+
+    @Test
+    public void groupsAndMembersExcludeEachOtherWithoutLosingWakeups() {
+        LocalLockManager lockManager = createLockManager(Duration.ofSeconds(30), LockOwnership.THREAD);
+        Lock a = lockManager.acquire("a");
+        Lock b = lockManager.acquire("b");
+        Lock group = lockManager.acquireAll(Arrays.asList("b", "a"));
+        AtomicInteger aInUse = new AtomicInteger();
+        AtomicInteger bInUse = new AtomicInteger();
+        runConcurrently(8, () -> {
+            for (int i = 0; i < 2000; i++) {
+                int choice = ThreadLocalRandom.current().nextInt(4);
+                Scope scope;
+                if (choice == 3) {
+                    //异步加锁的持有者不绑定线程
+                    scope = group.lockAsync(Duration.ofSeconds(5)).join();
+                } else {
+                    scope = (choice == 0 ? a : choice == 1 ? b : group).lock(Duration.ofSeconds(5));
+                }
+                boolean holdsA = choice != 1;
+                boolean holdsB = choice != 0;
+                if (holdsA) {
+                    enter(aInUse);
+                }
+                if (holdsB) {
+                    enter(bInUse);
+                }
+                Thread.yield();
+                if (holdsA) {
+                    aInUse.decrementAndGet();
+                }
+                if (holdsB) {
+                    bInUse.decrementAndGet();
+                }
+                scope.close();
+            }
+        });
+        assertEquals(0, lockManager.getHeldLocks());
+        assertTrue(group.tryLock());
+        group.unlock();
+    }
+
+    @Test
+    public void abandonedHeadWaiterHandsFairLockToNextWaiter() {
+        LocalLockState state = new LocalLockState(1, true);
+        CompletableFuture<Boolean> first = new CompletableFuture<>();
+        CompletableFuture<Boolean> second = new CompletableFuture<>();
+        state.enqueue(first);
+        state.enqueue(second);
+        //锁空闲但第二个等待者不在队首，不能加锁
+        assertFalse(state.tryAcquire(1, false, second));
+
+        assertTrue(first.cancel(false));
+        state.leave(first, true);
+        assertEquals(LocalLockState.HandedOff, second.getNow(null));
+        assertFalse(state.tryAcquire(1, false, null));
+
+        //持有期间放弃的等待者在释放时被跳过
+        CompletableFuture<Boolean> third = new CompletableFuture<>();
+        CompletableFuture<Boolean> fourth = new CompletableFuture<>();
+        state.enqueue(third);
+        state.enqueue(fourth);
+        assertTrue(third.cancel(false));
+        state.leave(third, true);
+        assertFalse(fourth.isDone());
+        state.releasePermits(1, null);
+        assertEquals(LocalLockState.HandedOff, fourth.getNow(null));
+        state.releasePermits(1, null);
+        assertTrue(state.tryAcquire(1, false, null));
+    }
+
+    @Test
+    public void fairLockIsNotLostWhenWaitersTimeOutDuringHandOff() {
+        LocalLockManager lockManager = createLockManager(Duration.ofSeconds(30), LockOwnership.TOKEN);
+        Lock lock = lockManager.acquireFair("fair");
+        AtomicInteger inUse = new AtomicInteger();
+        AtomicInteger acquired = new AtomicInteger();
+        runConcurrently(8, () -> {
+            for (int i = 0; i < 1000; i++) {
+                //超时与移交同时发生，移交给放弃的等待者的锁必须仍然被加锁或者转交
+                Duration timeout = Duration.ofNanos(ThreadLocalRandom.current().nextLong(200_000));
+                Scope scope;
+                if (i % 4 == 0) {
+                    try {
+                        scope = lock.lockAsync(timeout).join();
+                    } catch (RuntimeException e) {
+                        assertTrue(String.valueOf(e), e.getCause() instanceof TimeoutException);
+                        continue;
+                    }
+                } else {
+                    try {
+                        scope = lock.lock(timeout);
+                    } catch (TimeoutException e) {
+                        continue;
+                    }
+                }
+                enter(inUse);
+                acquired.incrementAndGet();
+                inUse.decrementAndGet();
+                scope.close();
+            }
+        });
+        assertTrue(acquired.get() > 0);
+        assertEquals(0, lockManager.getHeldLocks());
+        Scope scope = lock.lock(Duration.ofSeconds(1));
+        scope.close();
+    }
+
+    @Test
+    public void expiresLeaseOfTerminatedOwnerThread() throws Exception {
+        LocalLockManager lockManager = createLockManager(Duration.ofMillis(200), LockOwnership.THREAD);
+        Lock lock = lockManager.acquire("dead");
+        CountDownLatch lost = new CountDownLatch(1);
+        Thread owner = new Thread(() -> lock.lock().onLeaseLost(lost::countDown));
+        owner.start();
+        owner.join();
+        assertEquals(1, lockManager.getHeldLocks());
+
+        assertTrue(lock.tryLock(Duration.ofSeconds(2)));
+        assertTrue(lost.await(1, TimeUnit.SECONDS));
+        assertEquals(1, lockManager.getHeldLocks());
+        lock.unlock();
+    }
+
+    @Test
+    public void keepsLeaseOfLiveOwnerThread() throws Exception {
+        LocalLockManager lockManager = createLockManager(Duration.ofMillis(100), LockOwnership.THREAD);
+        Lock lock = lockManager.acquire("alive");
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread owner = new Thread(() -> {
+            try (Scope scope = lock.lock()) {
+                locked.countDown();
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        owner.start();
+        assertTrue(locked.await(1, TimeUnit.SECONDS));
+        assertFalse(lock.tryLock(Duration.ofMillis(500)));
+        done.countDown();
+        owner.join();
+        assertTrue(lock.tryLock());
+        lock.unlock();
+    }
+
+    @Test
+    public void forceUnlockRevokesOwnerAndWakesWaiters() throws Exception {
+        LocalLockManager lockManager = createLockManager(Duration.ofSeconds(30), LockOwnership.TOKEN);
+        Lock lock = lockManager.acquire("forced");
+        Scope scope = lock.lock();
+        CountDownLatch lost = new CountDownLatch(1);
+        scope.onLeaseLost(lost::countDown);
+        CompletableFuture<Scope> waiter = CompletableFuture.supplyAsync(() -> lock.lock(Duration.ofSeconds(5)));
+        Thread.sleep(100);
+        assertFalse(waiter.isDone());
+
+        lockManager.forceUnlock(lock);
+        assertTrue(lost.await(1, TimeUnit.SECONDS));
+        assertTrue(scope.isLeaseLost());
+        Scope next = waiter.get(1, TimeUnit.SECONDS);
+        try {
+            scope.close();
+            fail("revoked owner must not unlock");
+        } catch (UnlockException expected) {
+        }
+        assertFalse(next.isLeaseLost());
+        next.close();
+        assertEquals(0, lockManager.getHeldLocks());
+    }
+
+    @Test
+    public void forceUnlockOfMemberReleasesWholeGroup() {
+        LocalLockManager lockManager = createLockManager(Duration.ofSeconds(30), LockOwnership.TOKEN);
+        Scope scope = lockManager.acquireAll(Arrays.asList("x", "y")).lock();
+        Lock y = lockManager.acquire("y");
+        assertFalse(y.tryLock());
+
+        lockManager.forceUnlock(lockManager.acquire("x"));
+        assertTrue(scope.isLeaseLost());
+        assertTrue(y.tryLock());
+        y.unlock();
+        assertTrue(lockManager.acquire("x").tryLock());
+    }
+
+    @Test
+    public void asyncLockTimesOutAndLaterCompletesOnRelease() throws Exception {
+        LocalLockManager lockManager = createLockManager(Duration.ofSeconds(30), LockOwnership.TOKEN);
+        Lock lock = lockManager.acquire("async");
+        Scope held = lock.lock();
+        try {
+            lock.lockAsync(Duration.ofMillis(100)).get(2, TimeUnit.SECONDS);
+            fail("async lock must time out");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof TimeoutException);
+        }
+
+        CompletableFuture<Scope> waiting = lock.lockAsync(Duration.ofSeconds(2));
+        Thread.sleep(100);
+        assertFalse(waiting.isDone());
+        held.close();
+        Scope scope = waiting.get(1, TimeUnit.SECONDS);
+        assertFalse(lock.tryLock());
+        scope.close();
+
+        //超时的等待者没有占用许可
+        assertTrue(lock.tryLock());
+        lock.unlock();
+        assertEquals(0, lockManager.getHeldLocks());
+    }
+
+    @Test
+    public void destroyStopsAsyncLockingButKeepsSynchronousLocking() throws Exception {
+        LocalLockManager lockManager = createLockManager(Duration.ofSeconds(30), LockOwnership.TOKEN);
+        Lock lock = lockManager.acquire("closed");
+        Scope scope = lock.lock();
+        List<String> callbackThreads = new ArrayList<>();
+        scope.onLeaseLost(() -> callbackThreads.add(Thread.currentThread().getName()));
+
+        lockManager.destroy();
+        lockManager.destroy();
+        try {
+            lock.lockAsync(Duration.ofSeconds(1)).get(1, TimeUnit.SECONDS);
+            fail("async lock must fail after destroy");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof LockException);
+        }
+        //执行器已经关闭，回调在强制解锁的线程中执行
+        lockManager.forceUnlock(lock);
+        assertEquals(Arrays.asList(Thread.currentThread().getName()), callbackThreads);
+
+        Scope next = lock.lockAsync(Duration.ofSeconds(1)).get(1, TimeUnit.SECONDS);
+        assertFalse(lock.tryLock());
+        next.close();
+        assertTrue(lock.tryLock());
+        lock.unlock();
+    }
+}
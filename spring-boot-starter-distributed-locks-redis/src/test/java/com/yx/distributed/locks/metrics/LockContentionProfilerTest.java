@@ -0,0 +1,95 @@
+package com.yx.distributed.locks.metrics;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LockContentionProfilerTest {
+    private static final long Millis = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int Stripes = 8;
+
+    @Test
+    public void recordsConcurrentReleasesOfAllNamesWithoutLosingUpdates() {
+        LockContentionProfiler profiler = new LockContentionProfiler(4096, Duration.ofMillis(1), Duration.ZERO, Stripes);
+        LockMetrics metrics = profiler.profile(LockMetrics.None);
+        List<CompletableFuture<Void>> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    metrics.released("lock-" + i % 16, Millis);
+                }
+            }));
+        }
+        threads.forEach(CompletableFuture::join);
+
+        List<LockContentionProfiler.LongHeldLock> locks = profiler.getLongestHeldLocks(100);
+        assertEquals(16, locks.size());
+        for (LockContentionProfiler.LongHeldLock lock : locks) {
+            assertEquals(5_000, lock.getEvents());
+            assertEquals(5_000d, lock.getTotalHoldMillis(), 1e-6);
+            assertEquals(0d, lock.getErrorMillis(), 1e-6);
+        }
+    }
+
+    @Test
+    public void samplesShortHoldsInProportionToHoldTimeAndRecordsLongHolds() {
+        LockContentionProfiler profiler = new LockContentionProfiler(256, Duration.ofMillis(1), Duration.ofMillis(10), Stripes);
+        LockMetrics metrics = profiler.profile(LockMetrics.None);
+        for (int i = 0; i < 100_000; i++) {
+            metrics.released("short", Millis);
+        }
+        for (int i = 0; i < 100; i++) {
+            metrics.released("long", 20 * Millis);
+        }
+
+        List<LockContentionProfiler.LongHeldLock> locks = profiler.getLongestHeldLocks(2);
+        LockContentionProfiler.LongHeldLock shortHeld = locks.get(0);
+        assertEquals("short", shortHeld.getName());
+        //期望记录10000次，累计100000ms
+        assertTrue(String.valueOf(shortHeld.getEvents()), Math.abs(shortHeld.getEvents() - 10_000) < 500);
+        assertEquals(100_000d, shortHeld.getTotalHoldMillis(), 5_000d);
+        assertEquals(1d, shortHeld.getMaxHoldMillis(), 1e-6);
+
+        LockContentionProfiler.LongHeldLock longHeld = locks.get(1);
+        assertEquals("long", longHeld.getName());
+        assertEquals(100, longHeld.getEvents());
+        assertEquals(2_000d, longHeld.getTotalHoldMillis(), 1e-6);
+    }
+
+    @Test
+    public void mergesStripesAndKeepsOnlyContendedAcquisitions() {
+        //50个名称分散在8个分段中，合并后仍按竞争次数排序
+        LockContentionProfiler profiler = new LockContentionProfiler(4096, Duration.ofMillis(1), Duration.ofMillis(10), Stripes);
+        LockMetrics metrics = profiler.profile(LockMetrics.None);
+        for (int name = 0; name < 50; name++) {
+            for (int i = 0; i <= name; i++) {
+                metrics.acquired("lock-" + name, 2 * Millis, 2 * Millis, 1);
+            }
+            //未超过阈值且只访问一次Redis的加锁不是竞争
+            metrics.acquired("lock-" + name, Millis / 2, 0, 1);
+        }
+        metrics.acquireTimedOut("lock-0", 5 * Millis, 3);
+
+        List<LockContentionProfiler.ContendedLock> locks = profiler.getContendedLocks(10);
+        assertEquals(10, locks.size());
+        for (int i = 0; i < locks.size(); i++) {
+            assertEquals("lock-" + (49 - i), locks.get(i).getName());
+            assertEquals(50 - i, locks.get(i).getContentions());
+        }
+        LockContentionProfiler.ContendedLock timedOut = profiler.getContendedLocks(50).stream()
+                .filter(lock -> lock.getName().equals("lock-0")).findFirst().orElseThrow(AssertionError::new);
+        assertEquals(2, timedOut.getContentions());
+        assertEquals(1, timedOut.getTimeouts());
+
+        profiler.reset();
+        assertTrue(profiler.getContendedLocks(10).isEmpty());
+        assertTrue(profiler.getLongestHeldLocks(10).isEmpty());
+    }
+}
@@ -0,0 +1,105 @@
+package com.yx.distributed.locks.redis;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HashedWheelTimerTest {
+    private static final long TickMillis = 10;
+
+    @Test
+    public void expiresTasksAfterTheirDeadline() {
+        HashedWheelTimer<String> timer = new HashedWheelTimer<>(TickMillis, TimeUnit.MILLISECONDS, 8);
+        long now = System.nanoTime();
+        timer.schedule("soon", TimeUnit.MILLISECONDS.toNanos(5));
+        //超过一轮
+        timer.schedule("later", TimeUnit.MILLISECONDS.toNanos(TickMillis * 20));
+        List<String> expired = new ArrayList<>();
+        timer.expire(now + TimeUnit.MILLISECONDS.toNanos(TickMillis * 2), expired);
+        assertEquals(1, expired.size());
+        assertEquals("soon", expired.get(0));
+        expired.clear();
+        timer.expire(now + TimeUnit.MILLISECONDS.toNanos(TickMillis * 10), expired);
+        assertTrue(expired.isEmpty());
+        timer.expire(now + TimeUnit.MILLISECONDS.toNanos(TickMillis * 22), expired);
+        assertEquals(1, expired.size());
+        assertEquals("later", expired.get(0));
+    }
+
+    @Test
+    public void doesNotExpireCancelledTasks() {
+        HashedWheelTimer<String> timer = new HashedWheelTimer<>(TickMillis, TimeUnit.MILLISECONDS, 8);
+        long now = System.nanoTime();
+        HashedWheelTimer.Timeout<String> pending = timer.schedule("pending", TimeUnit.MILLISECONDS.toNanos(TickMillis * 3));
+        HashedWheelTimer.Timeout<String> placed = timer.schedule("placed", TimeUnit.MILLISECONDS.toNanos(TickMillis * 3));
+        List<String> expired = new ArrayList<>();
+        //第二个任务已被放入槽中
+        timer.cancel(pending);
+        timer.expire(now, expired);
+        timer.cancel(placed);
+        timer.expire(now + TimeUnit.MILLISECONDS.toNanos(TickMillis * 5), expired);
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    public void expiresTasksScheduledIntoProcessedTickAtNextExpiry() {
+        HashedWheelTimer<String> timer = new HashedWheelTimer<>(TickMillis, TimeUnit.MILLISECONDS, 8);
+        List<String> expired = new ArrayList<>();
+        long now = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TickMillis * 3);
+        timer.expire(now, expired);
+        timer.schedule("due", 0);
+        //仍在同一个刻度内
+        timer.expire(now + 1, expired);
+        assertEquals(1, expired.size());
+        assertEquals("due", expired.get(0));
+    }
+
+    /**
+     * 扫描期间从其他线程添加的任务不会等待一整轮
+     */
+    @Test
+    public void expiresTasksScheduledDuringExpiry() throws Exception {
+        HashedWheelTimer<Long> timer = new HashedWheelTimer<>(1, TimeUnit.MILLISECONDS, 4096);
+        int threads = 4;
+        int tasksPerThread = 20000;
+        AtomicBoolean running = new AtomicBoolean(true);
+        long[] lateness = new long[1];
+        int[] expiredCount = new int[1];
+        Thread expirer = new Thread(() -> {
+            List<Long> expired = new ArrayList<>();
+            while (running.get() || expiredCount[0] < threads * tasksPerThread) {
+                long now = System.nanoTime();
+                timer.expire(now, expired);
+                for (Long deadline : expired) {
+                    lateness[0] = Math.max(lateness[0], now - deadline);
+                }
+                expiredCount[0] += expired.size();
+                expired.clear();
+            }
+        });
+        expirer.start();
+        CountDownLatch scheduled = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                for (int j = 0; j < tasksPerThread; j++) {
+                    long delay = j % 3 == 0 ? 0 : TimeUnit.MICROSECONDS.toNanos(j % 2000);
+                    timer.schedule(System.nanoTime() + delay, delay);
+                }
+                scheduled.countDown();
+            }).start();
+        }
+        scheduled.await();
+        running.set(false);
+        expirer.join(TimeUnit.SECONDS.toMillis(10));
+        assertEquals(threads * tasksPerThread, expiredCount[0]);
+        //一轮约4s，线程调度造成的延迟远小于一轮
+        assertTrue("late by " + lateness[0] + "ns", lateness[0] < TimeUnit.SECONDS.toNanos(1));
+    }
+}
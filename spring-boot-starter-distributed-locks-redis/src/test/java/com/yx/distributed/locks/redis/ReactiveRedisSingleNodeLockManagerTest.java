@@ -0,0 +1,140 @@
+package com.yx.distributed.locks.redis;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.yx.distributed.locks.ReactiveScope;
+import com.yx.distributed.locks.Scope;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import reactor.core.Disposable;
+import redis.embedded.RedisServer;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在本机启动嵌入式Redis验证响应式锁管理器，无法启动嵌入式Redis时跳过
+ */
+public class ReactiveRedisSingleNodeLockManagerTest {
+    private static final int Port = 6394;
+
+    private RedisServer server;
+    private LettuceConnectionFactory connectionFactory;
+    private ReactiveRedisSingleNodeLockManager lockManager;
+    private String namePrefix;
+
+    @Before
+    public void setUp() {
+        server = RedisServer.builder().port(Port).setting("save \"\"").build();
+        try {
+            server.start();
+        } catch (RuntimeException e) {
+            server.stop();
+            Assume.assumeNoException("embedded redis is not available", e);
+        }
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", Port),
+                LettuceClientConfiguration.builder().commandTimeout(Duration.ofSeconds(1)).build());
+        connectionFactory.afterPropertiesSet();
+        namePrefix = "test-" + UUID.randomUUID();
+        lockManager = new ReactiveRedisSingleNodeLockManager(namePrefix, Duration.ofSeconds(30), connectionFactory);
+    }
+
+    @After
+    public void tearDown() {
+        if (lockManager != null) {
+            lockManager.destroy();
+        }
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+        server.stop();
+    }
+
+    /**
+     * 订阅了频道的连接的数量
+     */
+    private long pubSubClients() {
+        RedisConnection connection = connectionFactory.getConnection();
+        try {
+            return connection.getClientList().stream()
+                    .filter(client -> client.getChannelSubscribtions() != null && client.getChannelSubscribtions() > 0)
+                    .count();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private void awaitPubSubClients(long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (pubSubClients() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(expected, pubSubClients());
+    }
+
+    @Test
+    public void closesReleaseSubscriptionOnDestroyAndDoesNotReconnect() throws Exception {
+        Logger logger = (Logger) LoggerFactory.getLogger(ReactiveRedisLockReleaseSubscriber.class);
+        Level level = logger.getLevel();
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        logger.setLevel(Level.WARN);
+        logger.addAppender(appender);
+        try {
+            ReactiveScope scope = lockManager.acquire("closed").lock(Duration.ofSeconds(5)).block();
+            assertNotNull(scope);
+            //等待者订阅释放通知后一直保持订阅
+            Disposable waiter = lockManager.acquire("closed").lock(Duration.ofSeconds(30)).subscribe(null, e -> {
+            });
+            awaitPubSubClients(1);
+
+            lockManager.destroy();
+            awaitPubSubClients(0);
+            waiter.dispose();
+
+            connectionFactory.destroy();
+            connectionFactory = null;
+            Thread.sleep(1500);
+            assertTrue(String.valueOf(appender.list), appender.list.isEmpty());
+        } finally {
+            logger.detachAppender(appender);
+            logger.setLevel(level);
+        }
+    }
+
+    @Test
+    public void requestsBiasedLeaseHandBackWhileWaiting() {
+        RedisSingleNodeLockManager blockingLockManager = new RedisSingleNodeLockManager(namePrefix, Duration.ofSeconds(30), connectionFactory);
+        try {
+            blockingLockManager.setBiasedLinger(Duration.ofSeconds(10));
+            lockManager.setBiasedLinger(Duration.ofSeconds(10));
+            //解锁后租约仍由阻塞式锁管理器保留
+            Scope scope = blockingLockManager.acquire("biased").lock();
+            long fencingToken = scope.getFencingToken();
+            scope.close();
+            assertNull(lockManager.acquire("biased").tryLock().block());
+
+            //等待者请求交还，不需要等到保留期满
+            ReactiveScope reactiveScope = lockManager.acquire("biased").lock(Duration.ofSeconds(3)).block();
+            assertNotNull(reactiveScope);
+            assertTrue(reactiveScope.getFencingToken() > fencingToken);
+            reactiveScope.unlock().block();
+        } finally {
+            blockingLockManager.destroy();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.yx.distributed.locks.redis;
+
+import com.yx.distributed.locks.Lock;
+import com.yx.distributed.locks.ReactiveLock;
+import com.yx.distributed.locks.ReactiveScope;
+import com.yx.distributed.locks.Scope;
+import io.lettuce.core.cluster.SlotHash;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import redis.embedded.RedisServer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 嵌入式Redis不支持集群，连接单个节点验证hash tag、slot分组以及跨slot的一组锁被拒绝
+ * 单个节点的Lettuce连接也实现了集群的命令接口，续期应该退化为单连接的pipeline
+ * 无法启动嵌入式Redis时跳过
+ */
+public class RedisClusterLockManagerTest {
+    private static final int Port = 6398;
+
+    private RedisServer server;
+    private LettuceConnectionFactory connectionFactory;
+    private RedisClusterLockManager lockManager;
+    private String namePrefix;
+
+    @Before
+    public void setUp() {
+        server = RedisServer.builder().port(Port).setting("save \"\"").build();
+        try {
+            server.start();
+        } catch (RuntimeException e) {
+            server.stop();
+            Assume.assumeNoException("embedded redis is not available", e);
+        }
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", Port),
+                LettuceClientConfiguration.builder().commandTimeout(Duration.ofSeconds(1)).build());
+        connectionFactory.afterPropertiesSet();
+        namePrefix = "test-" + UUID.randomUUID();
+    }
+
+    @After
+    public void tearDown() {
+        if (lockManager != null) {
+            lockManager.destroy();
+        }
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+        server.stop();
+    }
+
+    private RedisClusterLockManager createLockManager(Duration leaseTime) {
+        lockManager = new RedisClusterLockManager(namePrefix, leaseTime, connectionFactory);
+        return lockManager;
+    }
+
+    private static int slot(String key) {
+        return SlotHash.getSlot(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private byte[] get(String key) {
+        RedisConnection connection = connectionFactory.getConnection();
+        try {
+            return connection.get(key.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void usesNameAsHashTagSoAllKeysOfALockShareASlot() {
+        RedisClusterLockManager lockManager = createLockManager(Duration.ofSeconds(30));
+        String lockKey = lockManager.lockName("order", ".lock");
+        assertEquals(namePrefix + ".{order}.lock", lockKey);
+        for (String suffix : Arrays.asList(".lock.fencing", ".lock.released", ".rwlock", ".fairlock", ".semaphore")) {
+            assertEquals(slot(lockKey), slot(lockManager.lockName("order", suffix)));
+        }
+    }
+
+    @Test
+    public void keepsExistingHashTagAndRejectsEmptyOne() {
+        RedisClusterLockManager lockManager = createLockManager(Duration.ofSeconds(30));
+        assertEquals(namePrefix + ".order{42}.items.lock", lockManager.lockName("order{42}.items", ".lock"));
+        assertEquals(slot(lockManager.lockName("order{42}.items", ".lock")), slot(lockManager.lockName("order{42}.payment", ".lock")));
+        try {
+            lockManager.lockName("order{}", ".lock");
+            fail("empty hash tag must be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsGroupAcrossSlotsBeforeTouchingRedis() {
+        RedisClusterLockManager lockManager = createLockManager(Duration.ofSeconds(30));
+        assertNotEquals(slot(lockManager.lockName("order", ".lock")), slot(lockManager.lockName("payment", ".lock")));
+        try {
+            lockManager.acquireAll(Arrays.asList("order", "payment"));
+            fail("locks in different slots must be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void locksGroupSharingAHashTag() {
+        Lock lock = createLockManager(Duration.ofSeconds(30)).acquireAll(Arrays.asList("order{42}.items", "order{42}.payment"));
+        try (Scope scope = lock.lock()) {
+            assertTrue(scope.getFencingToken() > 0);
+            assertNotNull(get(namePrefix + ".order{42}.items.lock"));
+            assertNotNull(get(namePrefix + ".order{42}.payment.lock"));
+        }
+    }
+
+    @Test
+    public void sortsKeysBySlotAndKeepsOrderWithinASlot() {
+        byte[][] keys = new byte[][]{
+                "{b}.lock".getBytes(StandardCharsets.UTF_8),
+                "{a}.lock".getBytes(StandardCharsets.UTF_8),
+                "{b}.rwlock".getBytes(StandardCharsets.UTF_8),
+                "{a}.rwlock".getBytes(StandardCharsets.UTF_8),
+        };
+        //{a}的slot为15495，{b}的slot为3300
+        assertTrue(slot("{b}") < slot("{a}"));
+        assertArrayEquals(new int[]{0, 2, 1, 3}, RedisClusterLockManager.sortedBySlot(keys));
+        assertArrayEquals(new int[0], RedisClusterLockManager.sortedBySlot(new byte[0][]));
+    }
+
+    @Test
+    public void renewsOverStandaloneConnection() throws Exception {
+        Lock lock = createLockManager(Duration.ofMillis(600)).acquire("renewed");
+        try (Scope scope = lock.lock()) {
+            Thread.sleep(1500);
+            assertNotNull(get(namePrefix + ".{renewed}.lock"));
+            assertTrue(scope.getFencingToken() > 0);
+        }
+    }
+
+    @Test
+    public void reactiveLockUsesSameHashTaggedKeysAndExcludesBlockingLock() {
+        RedisClusterLockManager lockManager = createLockManager(Duration.ofSeconds(30));
+        ReactiveRedisClusterLockManager reactiveLockManager = new ReactiveRedisClusterLockManager(namePrefix, Duration.ofSeconds(30), connectionFactory);
+        try {
+            ReactiveLock reactiveLock = reactiveLockManager.acquire("order");
+            assertEquals(lockManager.lockName("order", ".lock"), reactiveLock.getName());
+            assertEquals(lockManager.lockName("order{42}.items", ".lock"), reactiveLockManager.acquire("order{42}.items").getName());
+
+            try (Scope scope = lockManager.acquire("order").lock()) {
+                assertNull(reactiveLock.tryLock().block());
+            }
+            ReactiveScope scope = reactiveLock.tryLock().block();
+            assertNotNull(scope);
+            //fencing token计数器与阻塞式共用，位于同一个slot
+            String fencingKey = namePrefix + ".{order}.lock.fencing";
+            assertEquals(String.valueOf(scope.getFencingToken()), new String(get(fencingKey), StandardCharsets.UTF_8));
+            assertEquals(slot(reactiveLock.getName()), slot(fencingKey));
+            assertFalse(CompletableFuture.supplyAsync(lockManager.acquire("order")::tryLock).join());
+            scope.unlock().block();
+        } finally {
+            reactiveLockManager.destroy();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.yx.distributed.locks.redis;
+
+import com.yx.distributed.locks.DistributedSemaphore;
+import com.yx.distributed.locks.Lock;
+import com.yx.distributed.locks.Scope;
+import com.yx.distributed.locks.exception.UnlockException;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import redis.embedded.RedisServer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 在本机启动三个相互独立的嵌入式Redis，验证多数节点的加锁、部分节点故障以及续期
+ * 无法启动嵌入式Redis时跳过
+ */
+public class RedisMultiNodeLockManagerTest {
+    private static final int BasePort = 6395;
+    private static final int Nodes = 3;
+
+    private final List<RedisServer> servers = new ArrayList<>();
+    private final List<LettuceConnectionFactory> connectionFactories = new ArrayList<>();
+    private final List<RedisMultiNodeLockManager> lockManagers = new ArrayList<>();
+    private String namePrefix;
+
+    @Before
+    public void setUp() {
+        try {
+            for (int i = 0; i < Nodes; i++) {
+                RedisServer server = RedisServer.builder().port(BasePort + i).setting("save \"\"").build();
+                servers.add(server);
+                server.start();
+            }
+        } catch (RuntimeException e) {
+            stopServers();
+            Assume.assumeNoException("embedded redis is not available", e);
+        }
+        LettuceClientConfiguration clientConfiguration = LettuceClientConfiguration.builder().commandTimeout(Duration.ofSeconds(1)).build();
+        for (int i = 0; i < Nodes; i++) {
+            LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", BasePort + i),
+                    clientConfiguration);
+            connectionFactory.afterPropertiesSet();
+            connectionFactories.add(connectionFactory);
+        }
+        namePrefix = "test-" + UUID.randomUUID();
+    }
+
+    @After
+    public void tearDown() {
+        lockManagers.forEach(RedisMultiNodeLockManager::destroy);
+        connectionFactories.forEach(LettuceConnectionFactory::destroy);
+        stopServers();
+    }
+
+    private void stopServers() {
+        for (RedisServer server : servers) {
+            server.stop();
+        }
+    }
+
+    private RedisMultiNodeLockManager createLockManager() {
+        RedisMultiNodeLockManager lockManager = new RedisMultiNodeLockManager(namePrefix, Duration.ofSeconds(30),
+                new ArrayList<RedisConnectionFactory>(connectionFactories));
+        lockManagers.add(lockManager);
+        return lockManager;
+    }
+
+    private <T> T execute(int node, RedisCallback<T> callback) {
+        RedisConnection connection = connectionFactories.get(node).getConnection();
+        try {
+            return callback.doInRedis(connection);
+        } finally {
+            connection.close();
+        }
+    }
+
+    private byte[] get(int node, String key) {
+        return execute(node, connection -> connection.get(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void delete(int node, String key) {
+        execute(node, connection -> connection.del(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private String lockKey(String name) {
+        return namePrefix + "." + name + ".lock";
+    }
+
+    @Test
+    public void locksOnAllNodesAndExcludesOtherManagers() throws Exception {
+        Lock lock = createLockManager().acquire("quorum");
+        Lock other = createLockManager().acquire("quorum");
+        try (Scope scope = lock.lock()) {
+            assertTrue(scope.getFencingToken() > 0);
+            byte[] token = ((AbstractRedisLockManager.LockOwner) scope).token;
+            for (int node = 0; node < Nodes; node++) {
+                assertEquals(new String(token, StandardCharsets.UTF_8), new String(get(node, lockKey("quorum")), StandardCharsets.UTF_8));
+            }
+            assertFalse(CompletableFuture.supplyAsync(other::tryLock).get());
+        }
+        for (int node = 0; node < Nodes; node++) {
+            assertNull(get(node, lockKey("quorum")));
+        }
+        assertTrue(CompletableFuture.supplyAsync(other::tryLock).get());
+    }
+
+    @Test
+    public void locksWithMinorityOfNodesDown() throws Exception {
+        servers.get(Nodes - 1).stop();
+        Lock lock = createLockManager().acquire("minority");
+        Lock other = createLockManager().acquire("minority");
+        Scope scope = lock.lock(Duration.ofSeconds(5));
+        assertFalse(CompletableFuture.supplyAsync(other::tryLock).get());
+        scope.close();
+        assertTrue(CompletableFuture.supplyAsync(other::tryLock).get());
+    }
+
+    @Test
+    public void failsWithMajorityOfNodesDown() {
+        servers.get(Nodes - 1).stop();
+        servers.get(Nodes - 2).stop();
+        assertFalse(createLockManager().acquire("majority").tryLock());
+    }
+
+    @Test
+    public void rejectsLockHeldOnMinorityOfNodesByOtherOwner() {
+        execute(0, connection -> connection.set(lockKey("split").getBytes(StandardCharsets.UTF_8), "other".getBytes(StandardCharsets.UTF_8)));
+        Lock lock = createLockManager().acquire("split");
+        assertTrue(lock.tryLock());
+        lock.unlock();
+        assertEquals("other", new String(get(0, lockKey("split")), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void renewsOnQuorum() throws Exception {
+        RedisMultiNodeLockManager lockManager = createLockManager();
+        try (Scope scope = lockManager.acquire("renew").lock()) {
+            assertEquals(Collections.singletonList(1L), renew(lockManager, scope));
+            servers.get(Nodes - 1).stop();
+            assertEquals(Collections.singletonList(1L), renew(lockManager, scope));
+        }
+    }
+
+    @Test
+    public void losesLeaseOnlyWhenQuorumIsNotOwner() throws Exception {
+        RedisMultiNodeLockManager lockManager = createLockManager();
+        Scope scope = lockManager.acquire("lost").lock();
+        //一个节点回复不再持有，另一个节点无响应，结果未定
+        delete(0, lockKey("lost"));
+        servers.get(Nodes - 1).stop();
+        Object undecided = renew(lockManager, scope).get(0);
+        assertTrue(String.valueOf(undecided), undecided instanceof Throwable);
+        //多数节点回复不再持有
+        delete(1, lockKey("lost"));
+        assertEquals(Collections.singletonList(0L), renew(lockManager, scope));
+    }
+
+    private static List<Object> renew(RedisMultiNodeLockManager lockManager, Scope scope) {
+        byte[] now = String.valueOf(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8);
+        return lockManager.renew(Collections.singletonList((AbstractRedisLockManager.LockOwner) scope), now);
+    }
+
+    @Test
+    public void supportsSemaphoreAndFairLock() throws Exception {
+        DistributedSemaphore semaphore = createLockManager().acquireSemaphore("semaphore", 2);
+        Scope first = semaphore.acquire(1, Duration.ofSeconds(1));
+        Scope second = semaphore.acquire(1, Duration.ofSeconds(1));
+        assertNull(semaphore.tryAcquire(1));
+        semaphore.release(first);
+        Scope third = semaphore.tryAcquire(1);
+        assertNotNull(third);
+        semaphore.release(second);
+        semaphore.release(third);
+
+        Lock fair = createLockManager().acquireFair("fair");
+        try (Scope scope = fair.lock(Duration.ofSeconds(1))) {
+            assertTrue(scope.getFencingToken() > 0);
+        }
+    }
+
+    @Test
+    public void forceUnlocksOnQuorumWithoutWaitingForHungNode() throws Exception {
+        RedisMultiNodeLockManager lockManager = createLockManager();
+        Lock lock = lockManager.acquire("forced");
+        Scope scope = CompletableFuture.supplyAsync(lock::lock).get();
+        //最后一个节点阻塞2秒，超过连接的命令超时
+        CompletableFuture<Object> hung = CompletableFuture.supplyAsync(() -> execute(Nodes - 1,
+                connection -> connection.execute("DEBUG", "SLEEP".getBytes(StandardCharsets.UTF_8), "2".getBytes(StandardCharsets.UTF_8))));
+        Thread.sleep(100);
+        long startMillis = System.currentTimeMillis();
+        lockManager.forceUnlock(lock);
+        long elapsedMillis = System.currentTimeMillis() - startMillis;
+        assertTrue(String.valueOf(elapsedMillis), elapsedMillis < 1000);
+        assertNull(get(0, lockKey("forced")));
+        assertNull(get(1, lockKey("forced")));
+        //阻塞的命令本身也会超时
+        hung.exceptionally(e -> null).get();
+        assertTrue(scope.getFencingToken() > 0);
+    }
+
+    @Test
+    public void forceUnlockFailsOnlyWithoutQuorum() {
+        RedisMultiNodeLockManager lockManager = createLockManager();
+        Lock lock = lockManager.acquire("forced-down");
+        servers.get(Nodes - 1).stop();
+        lockManager.forceUnlock(lock);
+        servers.get(Nodes - 2).stop();
+        try {
+            lockManager.forceUnlock(lock);
+            fail("force unlock must fail without a quorum");
+        } catch (UnlockException expected) {
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package com.yx.distributed.locks.redis;
+
+import com.yx.distributed.locks.DistributedSemaphore;
+import com.yx.distributed.locks.Lock;
+import com.yx.distributed.locks.LockOwnership;
+import com.yx.distributed.locks.ReadWriteLock;
+import com.yx.distributed.locks.Scope;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import redis.embedded.RedisServer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 在本机启动嵌入式Redis验证各类锁的脚本，无法启动嵌入式Redis时跳过
+ */
+public class RedisSingleNodeLockManagerTest {
+    private static final int Port = 6390;
+
+    private RedisServer server;
+    private LettuceConnectionFactory connectionFactory;
+    private RedisSingleNodeLockManager lockManager;
+    private final List<RedisSingleNodeLockManager> otherLockManagers = new ArrayList<>();
+    private String namePrefix;
+
+    @Before
+    public void setUp() {
+        server = RedisServer.builder().port(Port).setting("save \"\"").build();
+        try {
+            server.start();
+        } catch (RuntimeException e) {
+            server.stop();
+            Assume.assumeNoException("embedded redis is not available", e);
+        }
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", Port),
+                LettuceClientConfiguration.builder().commandTimeout(Duration.ofSeconds(1)).build());
+        connectionFactory.afterPropertiesSet();
+        namePrefix = "test-" + UUID.randomUUID();
+        lockManager = new RedisSingleNodeLockManager(namePrefix, Duration.ofSeconds(30), connectionFactory);
+    }
+
+    @After
+    public void tearDown() {
+        if (lockManager != null) {
+            lockManager.destroy();
+        }
+        otherLockManagers.forEach(RedisSingleNodeLockManager::destroy);
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+        server.stop();
+    }
+
+    /**
+     * 替换为{@code ownership}模式的锁管理器，{@link LockOwnership#TOKEN}模式下同一线程可以持有多个读锁，并在任意线程中解锁
+     */
+    private RedisSingleNodeLockManager createLockManager(LockOwnership ownership) {
+        lockManager.destroy();
+        lockManager = new RedisSingleNodeLockManager(namePrefix, Duration.ofSeconds(30), ownership, connectionFactory);
+        return lockManager;
+    }
+
+    /**
+     * 模拟其他节点的锁管理器，各自拥有独立的本地队列，{@link LockOwnership#TOKEN}模式下可以在测试线程中解锁
+     */
+    private RedisSingleNodeLockManager createOtherLockManager() {
+        RedisSingleNodeLockManager other = new RedisSingleNodeLockManager(namePrefix, Duration.ofSeconds(30), LockOwnership.TOKEN, connectionFactory);
+        otherLockManagers.add(other);
+        return other;
+    }
+
+    private <T> T execute(RedisCallback<T> callback) {
+        RedisConnection connection = connectionFactory.getConnection();
+        try {
+            return callback.doInRedis(connection);
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private Map<byte[], byte[]> hash(String key) {
+        return execute(connection -> connection.hGetAll(bytes(key)));
+    }
+
+    private void awaitZCard(String key, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (execute(connection -> connection.zCard(bytes(key))) != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(Long.valueOf(expected), execute(connection -> connection.zCard(bytes(key))));
+    }
+
+    /**
+     * 订阅{@code channel}，收到的通知放入返回的队列，调用方负责关闭返回的连接
+     */
+    private RedisConnection subscribe(String channel, BlockingQueue<String> messages) throws InterruptedException {
+        RedisConnection connection = connectionFactory.getConnection();
+        connection.subscribe((message, pattern) -> messages.add(new String(message.getBody(), StandardCharsets.UTF_8)), bytes(channel));
+        //等待订阅生效
+        long deadline = System.currentTimeMillis() + 2000;
+        while (execute(c -> c.publish(bytes(channel), bytes("ping"))) == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals("ping", messages.poll(2, TimeUnit.SECONDS));
+        messages.clear();
+        return connection;
+    }
+
+    private List<String> list(String key) {
+        List<byte[]> values = execute(connection -> connection.lRange(bytes(key), 0, -1));
+        List<String> strings = new ArrayList<>(values.size());
+        for (byte[] value : values) {
+            strings.add(new String(value, StandardCharsets.UTF_8));
+        }
+        return strings;
+    }
+
+    private void awaitQueue(String key, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (list(key).size() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, list(key).size());
+    }
+
+    @Test
+    public void countsReentrantHoldsLocallyAndDeletesKeyOnOutermostUnlock() {
+        Lock lock = lockManager.acquireReentrant("reentrant");
+        String key = namePrefix + ".reentrant.rlock";
+        Scope outer = lock.lock();
+        Scope inner = lock.lock();
+        assertEquals(outer.getFencingToken(), inner.getFencingToken());
+        //重入不访问Redis，Redis中只保存持有者的token
+        Map<byte[], byte[]> holders = hash(key);
+        assertEquals(1, holders.size());
+        assertEquals("1", new String(holders.values().iterator().next(), StandardCharsets.UTF_8));
+
+        inner.close();
+        assertEquals(1, hash(key).size());
+        assertTrue(lock.isHeldByCurrentThread());
+
+        outer.close();
+        assertTrue(hash(key).isEmpty());
+        assertFalse(lock.isHeldByCurrentThread());
+    }
+
+    @Test
+    public void blocksNewReadersWhileAWriterWaits() throws Exception {
+        ReadWriteLock lock = createLockManager(LockOwnership.TOKEN).acquireReadWrite("waiting-writer");
+        String writers = namePrefix + ".waiting-writer.rwlock.writers";
+        Scope reader = lock.readLock().lock();
+        CompletableFuture<Scope> writer = CompletableFuture.supplyAsync(() -> lock.writeLock().lock(Duration.ofSeconds(10)));
+        awaitZCard(writers, 1);
+        //写锁等待期间新的读锁失败，已有的读锁不受影响
+        assertFalse(lock.readLock().tryLock());
+        assertFalse(writer.isDone());
+
+        reader.close();
+        Scope written = writer.get(5, TimeUnit.SECONDS);
+        assertTrue(written.getFencingToken() > reader.getFencingToken());
+        assertEquals(Long.valueOf(0), execute(connection -> connection.zCard(bytes(writers))));
+        written.close();
+        Scope read = lock.readLock().lock(Duration.ofSeconds(1));
+        read.close();
+    }
+
+    @Test
+    public void ignoresExpiredWriterEntriesAndHolders() {
+        ReadWriteLock lock = createLockManager(LockOwnership.TOKEN).acquireReadWrite("expired-writer");
+        String key = namePrefix + ".expired-writer.rwlock";
+        long now = System.currentTimeMillis();
+        //放弃等待的写锁的登记已经过期，进程退出的写锁持有者的租约也已经过期
+        execute(connection -> {
+            connection.zAdd(bytes(key + ".writers"), now - 1, bytes("abandoned"));
+            connection.hSet(bytes(key), bytes("mode"), bytes("write"));
+            connection.hSet(bytes(key), bytes("dead"), bytes(String.valueOf(now - 1)));
+            return null;
+        });
+        Scope reader = lock.readLock().lock(Duration.ofSeconds(1));
+        assertNull(hash(key).get(bytes("dead")));
+        assertEquals(Long.valueOf(0), execute(connection -> connection.zCard(bytes(key + ".writers"))));
+
+        //未过期的等待者仍然阻止新的读锁
+        execute(connection -> connection.zAdd(bytes(key + ".writers"), now + 60_000, bytes("waiting")));
+        assertFalse(lock.readLock().tryLock());
+        reader.close();
+    }
+
+    @Test
+    public void lastReaderPublishesRelease() throws Exception {
+        ReadWriteLock lock = createLockManager(LockOwnership.TOKEN).acquireReadWrite("readers");
+        String key = namePrefix + ".readers.rwlock";
+        Scope first = lock.readLock().lock();
+        Scope second = lock.readLock().lock();
+        BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+        RedisConnection subscription = subscribe(key + ".released", messages);
+        try {
+            first.close();
+            assertNull(messages.poll(300, TimeUnit.MILLISECONDS));
+            assertEquals(2, hash(key).size());
+
+            second.close();
+            assertEquals("released", messages.poll(2, TimeUnit.SECONDS));
+            assertTrue(hash(key).isEmpty());
+        } finally {
+            subscription.close();
+        }
+    }
+
+    private Set<byte[]> zset(String key) {
+        return execute(connection -> connection.zRange(bytes(key), 0, -1));
+    }
+
+    @Test
+    public void acquiresAndReleasesMultiplePermits() {
+        DistributedSemaphore semaphore = lockManager.acquireSemaphore("permits", 5);
+        String key = namePrefix + ".permits.semaphore";
+        Scope three = semaphore.acquire(3, Duration.ofSeconds(1));
+        //token携带占用的许可数
+        assertTrue(new String(zset(key).iterator().next(), StandardCharsets.UTF_8).startsWith("3:"));
+        assertNull(semaphore.tryAcquire(3));
+        Scope two = semaphore.tryAcquire(2);
+        assertNotNull(two);
+        assertTrue(two.getFencingToken() > three.getFencingToken());
+        assertNull(semaphore.tryAcquire(1));
+
+        semaphore.release(three);
+        assertEquals(1, zset(key).size());
+        Scope again = semaphore.tryAcquire(3);
+        assertNotNull(again);
+        again.close();
+        two.close();
+        assertTrue(zset(key).isEmpty());
+    }
+
+    @Test
+    public void purgesExpiredHoldersAndReturnsTheirPermits() {
+        DistributedSemaphore semaphore = lockManager.acquireSemaphore("expired", 5);
+        String key = namePrefix + ".expired.semaphore";
+        long now = System.currentTimeMillis();
+        //进程退出的持有者的租约已经过期，未过期的持有者仍然占用许可
+        execute(connection -> {
+            connection.zAdd(bytes(key), now - 1, bytes("4:dead"));
+            connection.zAdd(bytes(key), now + 60_000, bytes("2:alive"));
+            return null;
+        });
+        assertNull(semaphore.tryAcquire(4));
+        Scope three = semaphore.tryAcquire(3);
+        assertNotNull(three);
+        assertEquals(2, zset(key).size());
+        assertNull(execute(connection -> connection.zScore(bytes(key), bytes("4:dead"))));
+        three.close();
+    }
+
+    @Test
+    public void grantsFairLockInArrivalOrderAndSkipsAbandonedWaiter() throws Exception {
+        String queue = namePrefix + ".fair.fairlock.queue";
+        Scope holder = createOtherLockManager().acquireFair("fair").lock();
+        CompletableFuture<Scope> first = CompletableFuture.supplyAsync(() -> createOtherLockManager().acquireFair("fair").lock(Duration.ofSeconds(10)));
+        awaitQueue(queue, 1);
+        //中间的等待者放弃等待后移出队列
+        CompletableFuture<Scope> abandoned = CompletableFuture.supplyAsync(() -> createOtherLockManager().acquireFair("fair").lock(Duration.ofMillis(800)));
+        awaitQueue(queue, 2);
+        CompletableFuture<Scope> last = CompletableFuture.supplyAsync(() -> createOtherLockManager().acquireFair("fair").lock(Duration.ofSeconds(10)));
+        awaitQueue(queue, 3);
+        try {
+            abandoned.join();
+            fail("abandoned waiter must time out");
+        } catch (CompletionException expected) {
+        }
+        awaitQueue(queue, 2);
+
+        holder.close();
+        Scope firstScope = first.get(5, TimeUnit.SECONDS);
+        assertTrue(firstScope.getFencingToken() > holder.getFencingToken());
+        Thread.sleep(200);
+        assertFalse(last.isDone());
+        assertEquals(1, list(queue).size());
+
+        firstScope.close();
+        Scope lastScope = last.get(5, TimeUnit.SECONDS);
+        assertTrue(lastScope.getFencingToken() > firstScope.getFencingToken());
+        assertTrue(list(queue).isEmpty());
+        lastScope.close();
+    }
+
+    @Test
+    public void refusesTryLockWhileWaitersQueueAndPurgesOnlyExpiredHead() {
+        Lock lock = lockManager.acquireFair("queued");
+        String queue = namePrefix + ".queued.fairlock.queue";
+        String timeouts = namePrefix + ".queued.fairlock.timeouts";
+        long now = System.currentTimeMillis();
+        //队首仍在等待，其后的等待者已经过期
+        execute(connection -> {
+            connection.rPush(bytes(queue), bytes("waiting"), bytes("dead"));
+            connection.zAdd(bytes(timeouts), now + 60_000, bytes("waiting"));
+            connection.zAdd(bytes(timeouts), now - 1, bytes("dead"));
+            return null;
+        });
+        assertFalse(lock.tryLock());
+        assertEquals(Arrays.asList("waiting", "dead"), list(queue));
+
+        //队首过期后连同其后过期的等待者一起移出队列
+        execute(connection -> connection.zAdd(bytes(timeouts), now - 1, bytes("waiting")));
+        assertTrue(lock.tryLock());
+        assertTrue(list(queue).isEmpty());
+        lock.unlock();
+    }
+
+    @Test
+    public void fairUnlockPublishesHeadToken() throws Exception {
+        Lock lock = lockManager.acquireFair("head");
+        String key = namePrefix + ".head.fairlock";
+        Scope scope = lock.lock();
+        long now = System.currentTimeMillis();
+        execute(connection -> {
+            connection.rPush(bytes(key + ".queue"), bytes("head-token"), bytes("second-token"));
+            connection.zAdd(bytes(key + ".timeouts"), now + 60_000, bytes("head-token"));
+            connection.zAdd(bytes(key + ".timeouts"), now + 60_000, bytes("second-token"));
+            return null;
+        });
+        BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+        RedisConnection subscription = subscribe(key + ".released", messages);
+        try {
+            scope.close();
+            //只通知队首的等待者
+            assertEquals("head-token", messages.poll(2, TimeUnit.SECONDS));
+            assertNull(messages.poll(200, TimeUnit.MILLISECONDS));
+        } finally {
+            subscription.close();
+        }
+    }
+}